@@ -0,0 +1,26 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+
+// the database of the cds training run of mvn -Paot package (see pom.xml): an embedded postgres on the port given as argument,
+// started inside the maven jvm (exec:java) so it's still there for the training run and stopped when maven exits
+// the training run applies the migrations to it, the database of application.yaml is never touched by the build
+final class TrainingDatabase {
+
+    private TrainingDatabase() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        EmbeddedPostgres embeddedPostgres = EmbeddedPostgres.builder().setPort(Integer.parseInt(args[0])).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                embeddedPostgres.close();
+            } catch (IOException ignored) {
+                // maven is exiting anyway
+            }
+        }));
+        System.out.printf("training database started on %s%n", embeddedPostgres.getJdbcUrl("postgres", "postgres"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// the REST api under a spike: 400 clients (twice tomcat's 200 worker threads, 40 times the 10 connections of the pool)
+// each one asking for a student or its enrolments in a loop over http
+// - platform: thread per request like before, tomcat's 200 threads are the only limit and they all queue inside hikari
+// - platform-admission: the same with ConnectionAdmissionFilter
+// - virtual: virtual threads without ConnectionAdmissionFilter, every request gets a thread and waits inside hikari
+// - virtual-admission: virtual threads with ConnectionAdmissionFilter, 10 requests in, the rest wait up to 500ms or are shed
+// SampleTime gives the percentiles (p99) of the requests, Throughput how many per millisecond
+// the ok and rejected counters split the throughput into 200s and 503s, a client that gets a 503 waits for its Retry-After
+// the clients run in the same jvm as the server: with only a core or two they compete with the carrier threads
+// of the virtual threads for the cpu, compare the modes on a machine with a few cores
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(400)
+@Fork(1)
+public class ApiLoadBenchmark {
+
+    @Param({"platform", "platform-admission", "virtual", "virtual-admission"})
+    public String mode;
+    @Param("20000")
+    public int students;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUrl;
+    private BenchmarkData data;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Responses {
+        public long ok;
+        public long rejected;
+        public long failed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            ok = 0;
+            rejected = 0;
+            failed = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private Random random;
+        private BenchmarkData data;
+
+        @Setup(Level.Trial)
+        public void setUp(ApiLoadBenchmark benchmark) {
+            random = new Random(benchmark.seed + Thread.currentThread().getId());
+            data = benchmark.data;
+        }
+
+        Long studentId() {
+            return data.studentIds.get(random.nextInt(data.studentIds.size()));
+        }
+
+        boolean enrolments() {
+            return random.nextBoolean();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.startWeb(
+                "spring.threads.virtual.enabled=" + mode.startsWith("virtual"),
+                "masterclass.admission.enabled=" + mode.endsWith("admission"));
+        data = BenchmarkData.seed(context, students, 50, 2, 3, seed);
+        baseUrl = "http://localhost:" + BenchmarkContext.port(context) + "/api/students/";
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public int request(Keys keys, Responses responses) throws IOException, InterruptedException {
+        Long studentId = keys.studentId();
+        String path = keys.enrolments() ? studentId + "/enrolments" : studentId.toString();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        switch (response.statusCode()) {
+            case 200 -> responses.ok++;
+            case 503 -> {
+                responses.rejected++;
+                // a client that doesn't honour Retry-After turns shedding into a busy loop that takes the cpu from the requests that got in
+                Thread.sleep(TimeUnit.SECONDS.toMillis(Long.parseLong(response.headers().firstValue("Retry-After").orElse("1"))));
+            }
+            default -> responses.failed++;
+        }
+        return response.statusCode();
+    }
+}
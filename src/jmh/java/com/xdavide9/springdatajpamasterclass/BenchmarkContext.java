@@ -0,0 +1,90 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// starts the application (without the web server, unless it's startWeb) inside a benchmark fork
+// extra properties are passed as "key=value" and win over application.yaml
+// the database is an embedded postgres started once per fork (same binaries and version every time, nothing else running on it)
+// unless the benchmarks are started with -Djmh.database=local, then it's the one configured in application.yaml
+final class BenchmarkContext {
+
+    private static EmbeddedPostgres embeddedPostgres;
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        return run(WebApplicationType.NONE, properties);
+    }
+
+    // with tomcat on a random port, see port(context)
+    static ConfigurableApplicationContext startWeb(String... properties) {
+        String[] withPort = new String[properties.length + 1];
+        withPort[0] = "server.port=0";
+        System.arraycopy(properties, 0, withPort, 1, properties.length);
+        return run(WebApplicationType.SERVLET, withPort);
+    }
+
+    static int port(ConfigurableApplicationContext context) {
+        return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    }
+
+    private static ConfigurableApplicationContext run(WebApplicationType type, String... properties) {
+        List<String> args = new ArrayList<>();
+        args.add("--masterclass.sql-log.sample-rate=0");
+        args.addAll(databaseArguments());
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        SpringApplication application = new SpringApplication(SpringDataJpaMasterclassApplication.class);
+        application.setWebApplicationType(type);
+        return application.run(args.toArray(String[]::new));
+    }
+
+    // the command line arguments pointing the application to the database of the benchmarks, nothing for the local one
+    // (also for an application started as a process of its own, see StartupBenchmark)
+    static List<String> databaseArguments() {
+        if ("local".equals(System.getProperty("benchmark.database"))) {
+            return List.of();
+        }
+        return List.of("--spring.datasource.url=" + embeddedPostgres().getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true");
+    }
+
+    // the caches (and CoEnrolmentGraph) are emptied too, they would still have the rows that were just deleted
+    // (the sequences are not restarted, hibernate keeps the block of ids it already reserved in memory and would hand them out twice)
+    static void truncateAll(ConfigurableApplicationContext context) {
+        context.getBean(JdbcTemplate.class)
+                .execute("TRUNCATE TABLE enrolment, book, student_id_card, student, course_seat, course, outbox_event");
+        context.getBean(EntityManagerFactory.class).getCache().evictAll();
+        context.getBean(StudentEmailNearCache.class).evictAll();
+        context.getBean(CoEnrolmentGraph.class).load(new long[0], new long[0], 0);
+    }
+
+    private static synchronized EmbeddedPostgres embeddedPostgres() {
+        if (embeddedPostgres == null) {
+            try {
+                embeddedPostgres = EmbeddedPostgres.builder().start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not start the embedded postgres, run the benchmarks with -Djmh.database=local to use the local one", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    embeddedPostgres.close();
+                } catch (IOException ignored) {
+                    // the fork is exiting anyway
+                }
+            }));
+        }
+        return embeddedPostgres;
+    }
+}
@@ -0,0 +1,106 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// reproducible data sets: the same size and seed always produce the same rows so the numbers of two commits are measured on identical data
+// benchmarks pick rows by their position in studentIds/emails/courseIds (the ids themselves depend on what the sequences handed out before)
+// - students have one of FIRST_NAMES as first name and an age between 18 and 60, so the first name/age queries match a few rows each
+// - every student has 0 to 2 * averageBooks books and 0 to 2 * averageEnrolments enrolments in distinct courses
+final class BenchmarkData {
+
+    static final List<String> FIRST_NAMES = List.of(
+            "Maria", "John", "Anna", "Luca", "Sara", "Marco", "Giulia", "Paolo", "Elena", "Davide",
+            "Laura", "Matteo", "Chiara", "Andrea", "Marta", "Simone", "Alice", "Stefano", "Francesca", "Giorgio");
+    static final int MIN_AGE = 18;
+    static final int MAX_AGE = 60;
+    // fixed instead of now() so even the timestamps are the same from one run to the next
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    final List<Long> studentIds = new ArrayList<>();
+    final List<String> emails = new ArrayList<>();
+    final List<Long> courseIds = new ArrayList<>();
+
+    private BenchmarkData() {
+    }
+
+    // truncates every table and loads the data set through the application itself (StudentBulkLoader)
+    static BenchmarkData seed(ConfigurableApplicationContext context, int students, int courses,
+                              int averageBooks, int averageEnrolments, long seed) {
+        BenchmarkContext.truncateAll(context);
+        Random random = new Random(seed);
+        BenchmarkData data = new BenchmarkData();
+        CourseRepository courseRepository = context.getBean(CourseRepository.class);
+        for (int i = 0; i < courses; i++) {
+            Course course = courseRepository.save(Course.builder()
+                    .name("Course " + i)
+                    .department("Department " + i % 10)
+                    .build());
+            data.courseIds.add(course.getId());
+        }
+        List<Student> batch = new ArrayList<>(students);
+        List<int[]> enrolmentsByStudent = new ArrayList<>(students);
+        for (int i = 0; i < students; i++) {
+            Student student = Student.builder()
+                    .firstName(FIRST_NAMES.get(random.nextInt(FIRST_NAMES.size())))
+                    .lastName("Student" + i)
+                    .email("student" + i + "@benchmark.test")
+                    .age(MIN_AGE + random.nextInt(MAX_AGE - MIN_AGE + 1))
+                    .build();
+            int books = random.nextInt(2 * averageBooks + 1);
+            for (int b = 0; b < books; b++) {
+                student.addBook(Book.builder()
+                        .bookName("Book " + random.nextInt(1000))
+                        .createdAt(EPOCH.plusMinutes(random.nextInt(525_600)))
+                        .build());
+            }
+            int enrolments = Math.min(random.nextInt(2 * averageEnrolments + 1), courses);
+            int firstCourse = random.nextInt(Math.max(courses, 1));
+            int[] enrolled = new int[enrolments];
+            for (int e = 0; e < enrolments; e++) {
+                enrolled[e] = (firstCourse + e) % courses;  // consecutive courses starting from a random one, so they are always distinct
+            }
+            enrolmentsByStudent.add(enrolled);
+            batch.add(student);
+            data.emails.add(student.getEmail());
+        }
+        context.getBean(StudentBulkLoader.class).saveAllInBatches(batch);
+        batch.forEach(student -> data.studentIds.add(student.getId()));
+        saveEnrolments(context, data, enrolmentsByStudent, random);
+        return data;
+    }
+
+    // enrolments are saved afterwards with references like EnrolmentImportService does,
+    // cascading them from Student.enrolments would need the courses managed by every chunk of StudentBulkLoader
+    private static void saveEnrolments(ConfigurableApplicationContext context, BenchmarkData data,
+                                       List<int[]> enrolmentsByStudent, Random random) {
+        EntityManager entityManager = context.getBean(EntityManager.class);
+        TransactionTemplate transactionTemplate = context.getBean(TransactionTemplate.class);
+        int chunk = 500;
+        for (int from = 0; from < enrolmentsByStudent.size(); from += chunk) {
+            int start = from;
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int i = start; i < Math.min(start + chunk, enrolmentsByStudent.size()); i++) {
+                    Long studentId = data.studentIds.get(i);
+                    for (int course : enrolmentsByStudent.get(i)) {
+                        Long courseId = data.courseIds.get(course);
+                        entityManager.persist(Enrolment.builder()
+                                .id(new EnrolmentId(studentId, courseId))
+                                .student(entityManager.getReference(Student.class, studentId))
+                                .course(entityManager.getReference(Course.class, courseId))
+                                .createdAt(EPOCH.plusMinutes(random.nextInt(525_600)))
+                                .build());
+                    }
+                }
+                entityManager.flush();
+                entityManager.clear();
+            });
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.jpa.HibernateHints;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// the co-enrolment questions answered two ways on the same data set, each invocation asks about the next student (or course) of BenchmarkData
+// - graph: CoEnrolmentGraph, loaded once by CoEnrolmentGraphUpdater before the measurements
+// - sql: the self joins of the enrolment table giving the same answers (the jaccard similarity with one more lookup per candidate)
+// the setup also prints what the graph takes on the heap next to the Enrolment entities of the same rows
+// (read-only, in a single persistence context), both measured as the used heap after a gc so roughly
+//   mvn -Pjmh test-compile exec:exec -Djmh.args="CoEnrolmentGraphBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CoEnrolmentGraphBenchmark {
+
+    private static final int SIZE = 20;
+    private static final String CLASSMATES = """
+            WITH mine AS (SELECT course_id FROM enrolment WHERE student_id = ?),
+            shared AS (SELECT e.student_id, count(*) AS shared FROM enrolment e JOIN mine ON mine.course_id = e.course_id
+                       WHERE e.student_id <> ? GROUP BY e.student_id)
+            SELECT s.student_id, s.shared,
+                   s.shared::float8 / ((SELECT count(*) FROM mine) + (SELECT count(*) FROM enrolment t WHERE t.student_id = s.student_id) - s.shared) AS similarity
+            FROM shared s ORDER BY s.shared DESC, similarity DESC, s.student_id LIMIT ?""";
+    private static final String TAKEN_WITH = """
+            SELECT other.course_id, count(*) AS students FROM enrolment mine
+            JOIN enrolment other ON other.student_id = mine.student_id AND other.course_id <> mine.course_id
+            WHERE mine.course_id = ? GROUP BY other.course_id ORDER BY students DESC, other.course_id LIMIT ?""";
+
+    @Param("100000")
+    public int students;
+    @Param("200")
+    public int courses;
+    @Param("4")
+    public int averageEnrolments;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private CoEnrolmentGraph coEnrolmentGraph;
+    private JdbcTemplate jdbcTemplate;
+    private BenchmarkData data;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        data = BenchmarkData.seed(context, students, courses, 0, averageEnrolments, seed);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.execute("ANALYZE");
+        coEnrolmentGraph = context.getBean(CoEnrolmentGraph.class);
+        coEnrolmentGraph.load(new long[0], new long[0], 0);     // loaded again from the table, without the rows replaced while seeding
+        long before = usedHeap();
+        context.getBean(CoEnrolmentGraphUpdater.class).load();
+        long graph = usedHeap() - before;
+        System.out.printf("%n%d enrolments, graph %d KB (%d KB counted by bytes()), Enrolment entities %d KB%n",
+                coEnrolmentGraph.enrolmentCount(), graph / 1024, coEnrolmentGraph.bytes() / 1024, entitiesHeap() / 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public List<ClassmateResponse> classmatesGraph() {
+        return coEnrolmentGraph.classmates(nextStudent(), SIZE);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> classmatesSql() {
+        Long studentId = nextStudent();
+        return jdbcTemplate.queryForList(CLASSMATES, studentId, studentId, SIZE);
+    }
+
+    @Benchmark
+    public List<CourseRecommendationResponse> recommendCoursesGraph() {
+        return coEnrolmentGraph.recommendCourses(nextStudent(), SIZE);
+    }
+
+    @Benchmark
+    public List<CoursePairResponse> takenWithGraph() {
+        return coEnrolmentGraph.coursesTakenWith(nextCourse(), SIZE);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> takenWithSql() {
+        return jdbcTemplate.queryForList(TAKEN_WITH, nextCourse(), SIZE);
+    }
+
+    private Long nextStudent() {
+        return data.studentIds.get(next++ % data.studentIds.size());
+    }
+
+    private Long nextCourse() {
+        return data.courseIds.get(next++ % data.courseIds.size());
+    }
+
+    private long entitiesHeap() {
+        EntityManager entityManager = context.getBean(EntityManager.class);
+        return context.getBean(TransactionTemplate.class).execute(status -> {
+            long before = usedHeap();
+            List<Enrolment> enrolments = entityManager.createQuery("SELECT e FROM Enrolment e", Enrolment.class)
+                    .setHint(HibernateHints.HINT_READ_ONLY, true)
+                    .getResultList();
+            long used = usedHeap() - before;
+            entityManager.clear();
+            return enrolments.isEmpty() ? 0 : used;
+        });
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
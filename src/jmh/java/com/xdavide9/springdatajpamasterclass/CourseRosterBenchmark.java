@@ -0,0 +1,69 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// time to build the roster of a single course, in memory only (no database, it's the aggregate methods being measured)
+// - listRoster is what Course/Student did before: List.contains on every addEnrolment, O(n^2) for n enrolments
+// - setRoster goes through the real entities, LinkedHashSet based
+//   mvn -Pjmh test-compile exec:exec -Djmh.args="CourseRosterBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)     // the list version at 100k takes seconds per roster
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CourseRosterBenchmark {
+
+    @Param({"10000", "50000", "100000"})
+    public int enrolments;
+
+    private List<Student> students;
+
+    @Setup(Level.Trial)
+    public void createStudents() {
+        students = new ArrayList<>(enrolments);
+        for (int i = 0; i < enrolments; i++) {
+            students.add(Student.builder()
+                    .id((long) i)
+                    .firstName("Roster")
+                    .lastName("Student" + i)
+                    .email("student" + i + "@roster.test")
+                    .age(20)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public int setRoster() {
+        Course course = Course.builder().id(1L).name("Roster").department("Benchmark").build();
+        LocalDateTime now = LocalDateTime.now();
+        for (Student student : students) {
+            Enrolment enrolment = new Enrolment(new EnrolmentId(student.getId(), course.getId()), student, course, now);
+            student.getEnrolments().clear();    // the students are reused by every invocation
+            student.addEnrolment(enrolment);
+            course.addEnrolment(enrolment);
+        }
+        return course.getEnrolments().size();
+    }
+
+    @Benchmark
+    public int listRoster() {
+        Course course = Course.builder().id(1L).name("Roster").department("Benchmark").build();
+        List<Enrolment> roster = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (Student student : students) {
+            Enrolment enrolment = new Enrolment(new EnrolmentId(student.getId(), course.getId()), student, course, now);
+            student.getEnrolments().clear();
+            student.addEnrolment(enrolment);
+            if (!roster.contains(enrolment)) {  // the old Course.addEnrolment
+                roster.add(enrolment);
+            }
+        }
+        return roster.size();
+    }
+}
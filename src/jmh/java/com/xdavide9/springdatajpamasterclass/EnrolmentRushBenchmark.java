@@ -0,0 +1,65 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// registration day for one course: every thread enrols a student of its own in it and takes it out again, in a loop
+// (StudentService.enrolStudent and unenrolStudent, a transaction each), so all of them write the rows of that one course:
+// its seat stripes (see CourseSeats), its enrolment counters (see EnrolmentStatistics) and its roster
+// - capacity: the course has a capacity, every enrolment takes a seat from a stripe and gives it back
+// - unlimited: no capacity, no stripes, the rest is the same
+// run it with as many threads as the pool has connections (-t 10 is the default of the annotation) on a machine with
+// a few cores, on a single one the threads mostly wait for the cpu and not for each other's row locks
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(10)
+@Fork(1)
+public class EnrolmentRushBenchmark {
+
+    @Param({"capacity", "unlimited"})
+    public String course;
+
+    private ConfigurableApplicationContext context;
+    private StudentService studentService;
+    private Long courseId;
+    private final AtomicInteger students = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Enrolling {
+        private Long studentId;
+
+        @Setup(Level.Trial)
+        public void create(EnrolmentRushBenchmark benchmark) {
+            studentId = benchmark.studentService.createStudent(new StudentRequest("Rush", "Student " + benchmark.students.incrementAndGet(),
+                    UUID.randomUUID() + "@rush.bench", 20)).id();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start();
+        studentService = context.getBean(StudentService.class);
+        // more seats than the threads ever hold at once, the course is never full
+        Integer capacity = course.equals("capacity") ? 1000 : null;
+        courseId = context.getBean(CourseService.class).createCourse(new CourseRequest("Rush", "Rush", capacity)).id();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public void enrolAndUnenrol(Enrolling student) {
+        studentService.enrolStudent(student.studentId, courseId);
+        studentService.unenrolStudent(student.studentId, courseId);
+    }
+}
@@ -0,0 +1,107 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// the dashboard questions answered two ways on the same data set
+// - counters: EnrolmentStatisticsService, a primary key lookup (a range of 30 keys for the days)
+// - scan: the COUNT queries over the enrolment table the counters replace
+// - reconcile: EnrolmentStatistics.reconcile, the whole table recounted
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class EnrolmentStatisticsBenchmark {
+
+    // the days of BenchmarkData, enrolments are spread over 2024
+    private static final LocalDate FROM = LocalDate.of(2024, 3, 1);
+    private static final LocalDate TO = FROM.plusDays(29);
+
+    @Param("100000")
+    public int students;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private EnrolmentStatisticsService enrolmentStatisticsService;
+    private EnrolmentStatistics enrolmentStatistics;
+    private TransactionTemplate transactionTemplate;
+    private EntityManager entityManager;
+    private Long courseId;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        BenchmarkData data = BenchmarkData.seed(context, students, 50, 3, 2, seed);
+        context.getBean(JdbcTemplate.class).execute("ANALYZE");
+        enrolmentStatisticsService = context.getBean(EnrolmentStatisticsService.class);
+        enrolmentStatistics = context.getBean(EnrolmentStatistics.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        entityManager = context.getBean(EntityManager.class);
+        courseId = data.courseIds.get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public long courseCounter() {
+        return enrolmentStatisticsService.countByCourse(courseId);
+    }
+
+    @Benchmark
+    public long courseScan() {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("SELECT count(e) FROM Enrolment e WHERE e.id.courseId = ?1", Long.class)
+                .setParameter(1, courseId)
+                .getSingleResult());
+    }
+
+    @Benchmark
+    public long departmentCounter() {
+        return enrolmentStatisticsService.countByDepartment("Department 0");
+    }
+
+    @Benchmark
+    public long departmentScan() {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("SELECT count(e) FROM Enrolment e WHERE e.course.department = ?1", Long.class)
+                .setParameter(1, "Department 0")
+                .getSingleResult());
+    }
+
+    @Benchmark
+    public Map<LocalDate, Long> daysCounter() {
+        return enrolmentStatisticsService.countByDay(FROM, TO);
+    }
+
+    @Benchmark
+    public List<Object[]> daysScan() {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("SELECT cast(e.createdAt AS LocalDate), count(e) FROM Enrolment e " +
+                        "WHERE e.createdAt >= ?1 AND e.createdAt < ?2 GROUP BY cast(e.createdAt AS LocalDate)", Object[].class)
+                .setParameter(1, FROM.atStartOfDay())
+                .setParameter(2, TO.plusDays(1).atStartOfDay())
+                .getResultList());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long reconcile() {
+        return enrolmentStatistics.reconcile();
+    }
+}
@@ -0,0 +1,84 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// time of a flush with a large persistence context: every student of the data set is loaded with its books and card
+// (3 managed entities per student on average, so about 10k and 100k, the exact number is printed) in a transaction that stays open for the whole iteration
+// - flushAfterChanges: dirty students get a new age before each flush, so it sends that many updates
+// - flushWithoutChanges: nothing changed, what's left is finding that out
+// with snapshot dirty checking both compare every property of every managed entity against its snapshot,
+// with the entities enhanced at build time (inline dirty tracking) only the entities that were written to are looked at
+// compare with a build without enhancement: mvn -Pjmh test-compile exec:exec -Dhibernate.enhance.skip=true -Djmh.args="FlushBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlushBenchmark {
+
+    @Param({"3500", "35000"})
+    public int students;
+    @Param("10")
+    public int dirty;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private List<Student> loaded;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start("masterclass.outbox.enabled=false");
+        entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        BenchmarkData.seed(context, students, 10, 2, 0, seed);
+        random = new Random(seed);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void loadEverything() {
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        loaded = entityManager.createQuery("SELECT DISTINCT s FROM Student s LEFT JOIN FETCH s.books LEFT JOIN FETCH s.studentIdCard", Student.class)
+                .getResultList();
+        System.out.printf("%nmanaged entities: %d%n", entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    // nothing is committed, the next iteration loads the same rows again
+    @TearDown(Level.Iteration)
+    public void rollback() {
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+    }
+
+    @Benchmark
+    public void flushAfterChanges() {
+        for (int i = 0; i < dirty; i++) {
+            Student student = loaded.get(random.nextInt(loaded.size()));
+            student.setAge(student.getAge() == BenchmarkData.MAX_AGE ? BenchmarkData.MIN_AGE : student.getAge() + 1);
+        }
+        entityManager.flush();
+    }
+
+    @Benchmark
+    public void flushWithoutChanges() {
+        entityManager.flush();
+    }
+}
@@ -0,0 +1,77 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// events per second OutboxDispatcher publishes (to LoggingOutboxSink, so it's the cost of the outbox itself)
+// the outbox is filled with EVENTS events before every invocation and drained by workers threads calling dispatchBatch
+// until it's empty, like the workers of one or more nodes: the more of them the more they compete for the rows (SKIP LOCKED)
+// one student per event, no batch leaves any out
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(OutboxDispatchBenchmark.EVENTS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class OutboxDispatchBenchmark {
+
+    static final int EVENTS = 50000;
+
+    @Param({"1", "4"})
+    public int workers;
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private ConfigurableApplicationContext context;
+    private OutboxDispatcher outboxDispatcher;
+    private JdbcTemplate jdbcTemplate;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = BenchmarkContext.start("masterclass.outbox.enabled=false", "masterclass.outbox.batch-size=" + batchSize);
+        outboxDispatcher = context.getBean(OutboxDispatcher.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        executor = Executors.newFixedThreadPool(workers);
+    }
+
+    @Setup(Level.Invocation)
+    public void fillOutbox() {
+        jdbcTemplate.update("INSERT INTO outbox_event (id, type, student_id, payload, created_at) " +
+                "SELECT nextval('outbox_event_sequence'), 'STUDENT_ENROLLED', i, '{\"studentId\":' || i || ',\"courseId\":1}', now() " +
+                "FROM generate_series(1, ?) AS i", EVENTS);
+        jdbcTemplate.execute("ANALYZE outbox_event");
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        executor.shutdown();
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public void drain() throws Exception {
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            running.add(executor.submit(() -> {
+                int published;
+                do {
+                    published = outboxDispatcher.dispatchBatch();
+                } while (published > 0);
+            }));
+        }
+        for (Future<?> worker : running) {
+            worker.get();
+        }
+    }
+}
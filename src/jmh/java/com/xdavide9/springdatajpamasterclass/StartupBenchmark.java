@@ -0,0 +1,126 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// cold start of the application in a process of its own, like a new node of the service
+// the time is from launching the jvm to the answer of its first request (GET /api/students, a page of students through a repository)
+// and the resident memory of the process right after that answer is printed (VmRSS of /proc/<pid>/status, linux only)
+// - eager: how the application started before, the repositories bootstrapped eagerly on the main thread and the demo runner
+// - deferred: hibernate bootstrapped in the background while the rest of the context starts (bootstrap-mode in application.yaml)
+// - aot: + the bean definitions generated at build time (-Dspring.aot.enabled=true)
+// - aot-cds: + the class data sharing archive of the build (-XX:SharedArchiveFile)
+// it starts target/app of mvn -Paot package with the java of the benchmark fork, build it with that java (the java on the PATH, see the aot profile in pom.xml)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final Path APP = Path.of("target", "app");
+    private static final String JAR = "spring-data-jpa-masterclass-0.0.1-SNAPSHOT-app.jar";
+
+    @Param({"eager", "deferred", "aot", "aot-cds"})
+    public String mode;
+
+    private HttpClient client;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void checkBuild() {
+        if (!Files.exists(APP.resolve(JAR)) || !Files.exists(APP.resolve("application.jsa"))) {
+            throw new IllegalStateException("Build the application with mvn -Paot package first, " + APP.resolve(JAR) + " is missing");
+        }
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws Exception {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    @Benchmark
+    public int firstRequest() throws Exception {
+        int port = freePort();
+        process = new ProcessBuilder(command(port))
+                .directory(APP.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(APP.resolve("startup-" + mode + ".log").toFile())
+                .start();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/students?size=1"))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The application exited with " + process.exitValue() + ", see " + APP.resolve("startup-" + mode + ".log"));
+            }
+            try {
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                System.out.printf("%nstatus %d, rss %d MB%n", status, residentMegabytes(process.pid()));
+                return status;
+            } catch (ConnectException notListeningYet) {
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private List<String> command(int port) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        if (mode.equals("aot-cds")) {
+            command.add("-XX:SharedArchiveFile=application.jsa");
+        }
+        if (mode.startsWith("aot")) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+        command.add("-jar");
+        command.add(JAR);
+        command.add("--server.port=" + port);
+        if (mode.equals("eager")) {
+            command.add("--spring.data.jpa.repositories.bootstrap-mode=default");
+            command.add("--spring.profiles.active=demo");
+        }
+        command.addAll(BenchmarkContext.databaseArguments());
+        return command;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long residentMegabytes(long pid) {
+        try {
+            return Files.readAllLines(Path.of("/proc", Long.toString(pid), "status")).stream()
+                    .filter(line -> line.startsWith("VmRSS:"))
+                    .mapToLong(line -> Long.parseLong(line.replaceAll("\\D", "")) / 1024)
+                    .findFirst()
+                    .orElse(-1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// the in memory aggregate operations of Student and Course on aggregates that already hold `size` elements
+// every benchmark adds one element and removes it again so the aggregate doesn't grow between invocations
+// (building a whole roster from scratch is CourseRosterBenchmark)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StudentAggregateBenchmark {
+
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private Student student;
+    private Course course;
+    private Book book;
+    private Enrolment enrolment;
+
+    @Setup(Level.Trial)
+    public void fillAggregates() {
+        student = Student.builder().id(1L).firstName("Aggregate").lastName("Student").email("aggregate@benchmark.test").age(20).build();
+        course = Course.builder().id(1L).name("Aggregate").department("Benchmark").build();
+        for (int i = 0; i < size; i++) {
+            student.addBook(Book.builder().id((long) i).bookName("Book " + i).createdAt(CREATED_AT).build());
+            Student enrolled = Student.builder().id((long) i).firstName("Enrolled").lastName("Student" + i).email(i + "@benchmark.test").age(20).build();
+            Enrolment existing = new Enrolment(new EnrolmentId(enrolled.getId(), course.getId()), enrolled, course, CREATED_AT);
+            student.addEnrolment(existing);
+            course.addEnrolment(existing);
+        }
+        book = Book.builder().bookName("New book").createdAt(CREATED_AT).build();
+        enrolment = new Enrolment(new EnrolmentId(student.getId(), course.getId()), student, course, CREATED_AT);
+    }
+
+    @Benchmark
+    public boolean addAndRemoveBook() {
+        return student.addBook(book) & student.removeBook(book);
+    }
+
+    @Benchmark
+    public boolean addAndRemoveStudentEnrolment() {
+        return student.addEnrolment(enrolment) & student.removeEnrolment(enrolment);
+    }
+
+    @Benchmark
+    public boolean addAndRemoveCourseEnrolment() {
+        return course.addEnrolment(enrolment) & course.removeEnrolment(enrolment);
+    }
+}
@@ -0,0 +1,75 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// time to delete every student of the seeded data set with their books, enrolments and id cards
+// - perEntity: StudentRepository.deleteAllById, each student is loaded and removed through the persistence context
+//   cascading to its collections (one transaction per chunk, like the bulk one, so the persistence context stays small)
+// - bulk: StudentBulkDeleter, a DELETE per table for each chunk of ids
+// a single shot per invocation because a deletion can't be repeated on the same rows, the data set is seeded again before each one
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 2)
+@Fork(1)
+public class StudentBulkDeleteBenchmark {
+
+    @Param({"perEntity", "bulk"})
+    public String strategy;
+    @Param("100000")
+    public int students;
+    @Param("1000")
+    public int chunkSize;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private StudentBulkDeleter studentBulkDeleter;
+    private TransactionTemplate transactionTemplate;
+    private BenchmarkData data;
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = BenchmarkContext.start("masterclass.bulk.delete-chunk-size=" + chunkSize);
+        studentRepository = context.getBean(StudentRepository.class);
+        studentBulkDeleter = context.getBean(StudentBulkDeleter.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+    }
+
+    @Setup(Level.Invocation)
+    public void seed() {
+        data = BenchmarkData.seed(context, students, 50, 3, 2, seed);
+        // BenchmarkData doesn't create id cards, every student gets one here
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("INSERT INTO student_id_card (id, card_number, student_id) " +
+                "SELECT nextval('student_id_card_sequence'), 'CARD-' || id, id FROM student");
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public int delete() {
+        if (strategy.equals("bulk")) {
+            return studentBulkDeleter.deleteAllById(data.studentIds);
+        }
+        List<Long> ids = data.studentIds;
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<Long> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            transactionTemplate.executeWithoutResult(status -> studentRepository.deleteAllById(chunk));
+        }
+        return ids.size();
+    }
+}
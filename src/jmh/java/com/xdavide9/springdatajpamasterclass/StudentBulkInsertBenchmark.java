@@ -0,0 +1,93 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// rows/sec for inserting students with their books
+// - saveAll: StudentRepository.saveAll in a single transaction, cascading to Student.books
+// - saveAllInBatches: StudentBulkLoader, flushing and clearing every masterclass.bulk.batch-size students
+// jdbcBatchSize = 1 turns jdbc batching off, for the numbers with allocationSize = 1 run this benchmark on the parent commit
+// the "rows" secondary result is the number of inserted rows (students + books) per second
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class StudentBulkInsertBenchmark {
+
+    @Param({"1", "50"})
+    public int jdbcBatchSize;
+    @Param("100000")
+    public int students;
+    @Param("3")
+    public int booksPerStudent;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private StudentBulkLoader studentBulkLoader;
+    private TransactionTemplate transactionTemplate;
+    private List<Student> batch;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rows {
+        public long rows;
+    }
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = BenchmarkContext.start(
+                "spring.jpa.properties.hibernate.jdbc.batch_size=" + jdbcBatchSize,
+                "masterclass.bulk.batch-size=" + Math.max(jdbcBatchSize, 500));
+        studentRepository = context.getBean(StudentRepository.class);
+        studentBulkLoader = context.getBean(StudentBulkLoader.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+    }
+
+    @Setup(Level.Invocation)    // every invocation inserts the full data set into empty tables
+    public void prepareStudents() {
+        BenchmarkContext.truncateAll(context);
+        batch = new ArrayList<>(students);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < students; i++) {
+            Student student = Student.builder()
+                    .firstName("Student" + (i % 1000))
+                    .lastName("Bulk")
+                    .email("student" + i + "@bulk.test")
+                    .age(18 + i % 40)
+                    .build();
+            for (int j = 0; j < booksPerStudent; j++) {
+                student.addBook(Book.builder()
+                        .bookName("Book " + j)
+                        .createdAt(now)
+                        .build());
+            }
+            batch.add(student);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public void saveAll(Rows rows) {
+        transactionTemplate.executeWithoutResult(status -> studentRepository.saveAll(batch));
+        rows.rows += (long) students * (1 + booksPerStudent);
+    }
+
+    @Benchmark
+    public void saveAllInBatches(Rows rows) {
+        studentBulkLoader.saveAllInBatches(batch);
+        rows.rows += (long) students * (1 + booksPerStudent);
+    }
+}
@@ -0,0 +1,79 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// throughput of email lookups with 8 concurrent callers
+// - uncached: StudentRepository.findStudentByEmail, a query and a full Student entity every time
+// - cachedSnapshot / cachedEntity: StudentLookupService through StudentEmailNearCache
+// one lookup out of ten is for an email that doesn't exist (negative caching)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class StudentLookupBenchmark {
+
+    @Param("10000")
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private StudentLookupService studentLookupService;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        studentRepository = context.getBean(StudentRepository.class);
+        studentLookupService = context.getBean(StudentLookupService.class);
+        BenchmarkContext.truncateAll(context);
+        List<Student> batch = new ArrayList<>(students);
+        for (int i = 0; i < students; i++) {
+            batch.add(Student.builder()
+                    .firstName("Student" + i)
+                    .lastName("Lookup")
+                    .email(email(i))
+                    .age(18 + i % 40)
+                    .build());
+        }
+        context.getBean(StudentBulkLoader.class).saveAllInBatches(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Student> uncached() {
+        return studentRepository.findStudentByEmail(randomEmail());
+    }
+
+    @Benchmark
+    public Optional<StudentSnapshot> cachedSnapshot() {
+        return studentLookupService.findSnapshotByEmail(randomEmail());
+    }
+
+    @Benchmark
+    public Optional<Student> cachedEntity() {
+        return studentLookupService.findStudentByEmail(randomEmail());
+    }
+
+    private String randomEmail() {
+        int i = ThreadLocalRandom.current().nextInt(students + students / 10);    // the last 10% don't exist
+        return email(i);
+    }
+
+    private static String email(int i) {
+        return "student" + i + "@lookup.test";
+    }
+}
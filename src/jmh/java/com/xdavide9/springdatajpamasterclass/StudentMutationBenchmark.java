@@ -0,0 +1,128 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// latency of removing one book or one enrolment of a student
+// - *LoadingAggregate: the student is loaded with its whole collection (entity graph), the element is found in memory
+//   and removed from the collection, orphanRemoval deletes the row at flush (what StudentService used to do)
+// - *Targeted: StudentService.removeBookFromStudent / unenrolStudent, a single DELETE
+// averageBooks is the size of the collection the first approach has to load
+// the statements hibernate prepared per operation are printed at the end of every trial
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudentMutationBenchmark {
+
+    private static final String BOOK = "Benchmark book";
+
+    @Param("10000")
+    public int students;
+    @Param({"3", "30"})
+    public int averageBooks;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private StudentService studentService;
+    private StudentRepository studentRepository;
+    private TransactionTemplate transactionTemplate;
+    private JdbcTemplate jdbcTemplate;
+    private Statistics statistics;
+    private BenchmarkData data;
+    private Random random;
+    private Long courseId;
+    private long invocations;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        studentService = context.getBean(StudentService.class);
+        studentRepository = context.getBean(StudentRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+        data = BenchmarkData.seed(context, students, 50, averageBooks, 2, seed);
+        random = new Random(seed);
+        // nobody in the data set is enrolled in this one, so it can always be added and removed again
+        courseId = context.getBean(CourseRepository.class).save(Course.builder().name("Benchmark").department("Benchmark").build()).getId();
+        statistics.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        System.out.printf("%nstatements per operation: %.2f%n", (double) statistics.getPrepareStatementCount() / invocations);
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    // the row to remove is added with plain jdbc before every invocation, so it isn't part of the measurement
+    // (and not of the hibernate statistics either)
+    @State(Scope.Benchmark)
+    public static class BookToRemove {
+        Long studentId;
+
+        @Setup(Level.Invocation)
+        public void add(StudentMutationBenchmark benchmark) {
+            studentId = benchmark.studentId();
+            benchmark.jdbcTemplate.update("INSERT INTO book (id, book_name, created_at, student_id) " +
+                    "VALUES (nextval('book_sequence'), ?, now(), ?)", BOOK, studentId);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EnrolmentToRemove {
+        Long studentId;
+
+        @Setup(Level.Invocation)
+        public void add(StudentMutationBenchmark benchmark) {
+            studentId = benchmark.studentId();
+            benchmark.jdbcTemplate.update("INSERT INTO enrolment (student_id, course_id, created_at) VALUES (?, ?, now())",
+                    studentId, benchmark.courseId);
+        }
+    }
+
+    private Long studentId() {
+        invocations++;
+        return data.studentIds.get(random.nextInt(data.studentIds.size()));
+    }
+
+    @Benchmark
+    public void removeBookLoadingAggregate(BookToRemove book) {
+        transactionTemplate.executeWithoutResult(status -> studentRepository.findWithBooksById(book.studentId)
+                .ifPresent(student -> student.getBooks().stream()
+                        .filter(candidate -> candidate.getBookName().equals(BOOK))
+                        .findFirst()
+                        .ifPresent(student::removeBook)));
+    }
+
+    @Benchmark
+    public void removeBookTargeted(BookToRemove book) {
+        studentService.removeBookFromStudent(book.studentId, BOOK);
+    }
+
+    @Benchmark
+    public void unenrolLoadingAggregate(EnrolmentToRemove enrolment) {
+        transactionTemplate.executeWithoutResult(status -> studentRepository.findWithEnrolmentsById(enrolment.studentId)
+                .ifPresent(student -> student.getEnrolments().stream()
+                        .filter(candidate -> candidate.getCourse().getId().equals(courseId))
+                        .findFirst()
+                        .ifPresent(student::removeEnrolment)));
+    }
+
+    @Benchmark
+    public void unenrolTargeted(EnrolmentToRemove enrolment) {
+        studentService.unenrolStudent(enrolment.studentId, courseId);
+    }
+}
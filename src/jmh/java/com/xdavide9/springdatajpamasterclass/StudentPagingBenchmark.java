@@ -0,0 +1,80 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// latency of fetching page 1 vs page 10,000 (20 students per page, ordered by first name and id)
+// - offset: StudentRepository.findAll(PageRequest) which runs OFFSET ... LIMIT plus a count(*)
+// - keyset: StudentKeysetPager, seeking from the continuation token of the previous page
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudentPagingBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+    private static final Sort SORT = Sort.by("firstName", "id");
+
+    @Param({"1", "10000"})
+    public int page;
+    @Param("200020")    // enough rows for page 10,000 to be full
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private StudentKeysetPager studentKeysetPager;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        studentRepository = context.getBean(StudentRepository.class);
+        studentKeysetPager = context.getBean(StudentKeysetPager.class);
+        BenchmarkContext.truncateAll(context);
+        List<Student> batch = new ArrayList<>(students);
+        for (int i = 0; i < students; i++) {
+            batch.add(Student.builder()
+                    .firstName("Student" + (i % 5000))
+                    .lastName("Paging")
+                    .email("student" + i + "@paging.test")
+                    .age(18 + i % 40)
+                    .build());
+        }
+        context.getBean(StudentBulkLoader.class).saveAllInBatches(batch);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.execute("ANALYZE student");
+        if (page > 1) {
+            // the token a client would be holding after reading the previous page
+            token = jdbcTemplate.queryForObject(
+                    "SELECT first_name, id FROM student ORDER BY first_name, id OFFSET ? LIMIT 1",
+                    (rs, row) -> new StudentKeysetToken(StudentKeysetToken.Direction.AFTER, rs.getString(1), rs.getLong(2)).encode(),
+                    (page - 1) * PAGE_SIZE - 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Student> offset() {
+        return studentRepository.findAll(PageRequest.of(page - 1, PAGE_SIZE, SORT));
+    }
+
+    @Benchmark
+    public StudentKeysetPage keyset() {
+        return studentKeysetPager.page(token, PAGE_SIZE);
+    }
+}
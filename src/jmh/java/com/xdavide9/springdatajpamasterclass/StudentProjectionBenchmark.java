@@ -0,0 +1,85 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// entity vs projection listings over a 50k row result set, inside a transaction like a service method would be
+// run it with the gc profiler to get the allocation per listing (gc.alloc.rate.norm, bytes per operation)
+//   mvn -Pjmh test-compile exec:exec -Djmh.args="StudentProjectionBenchmark -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StudentProjectionBenchmark {
+
+    private static final Sort SORT = Sort.by("firstName");
+
+    @Param("50000")
+    public int students;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        studentRepository = context.getBean(StudentRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        BenchmarkContext.truncateAll(context);
+        List<Student> batch = new ArrayList<>(students);
+        for (int i = 0; i < students; i++) {
+            batch.add(Student.builder()
+                    .firstName("Listing")   // every student matches the first name and age queries
+                    .lastName("Student" + i)
+                    .email("student" + i + "@projection.test")
+                    .age(30)
+                    .build());
+        }
+        context.getBean(StudentBulkLoader.class).saveAllInBatches(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public int entitiesByFirstNameAndAge() {
+        return transactionTemplate.execute(status -> studentRepository.findStudentsByFirstNameEqualsAndAgeEquals("Listing", 30).size());
+    }
+
+    @Benchmark
+    public int snapshotsByFirstNameAndAge() {
+        return transactionTemplate.execute(status -> studentRepository.findSnapshotsByFirstNameEqualsAndAgeEquals("Listing", 30).size());
+    }
+
+    @Benchmark
+    public int listItemsByFirstNameAndAgeNative() {
+        return transactionTemplate.execute(status -> studentRepository.findListItemsByFirstNameEqualsAndAgeEqualsNative("Listing", 30).size());
+    }
+
+    @Benchmark
+    public int entitiesSorted() {
+        return transactionTemplate.execute(status -> studentRepository.findAll(SORT).size());
+    }
+
+    @Benchmark
+    public int snapshotsSorted() {
+        return transactionTemplate.execute(status -> studentRepository.findAllSnapshots(SORT).size());
+    }
+
+    @Benchmark
+    public int listItemsSorted() {
+        return transactionTemplate.execute(status -> studentRepository.findAllListItems(SORT).size());
+    }
+}
@@ -0,0 +1,95 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// latency of the StudentRepository lookups, each one in its own transaction (like calling them from a controller)
+// the keys are drawn from the seeded data set with a seeded random too, so two runs ask for the same students in the same order
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudentRepositoryBenchmark {
+
+    @Param("20000")
+    public int students;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private StudentRepository studentRepository;
+    private BenchmarkData data;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private Random random;
+        private BenchmarkData data;
+
+        @Setup(Level.Trial)
+        public void setUp(StudentRepositoryBenchmark benchmark) {
+            random = new Random(benchmark.seed);
+            data = benchmark.data;
+        }
+
+        Long studentId() {
+            return data.studentIds.get(random.nextInt(data.studentIds.size()));
+        }
+
+        String email() {
+            return data.emails.get(random.nextInt(data.emails.size()));
+        }
+
+        String firstName() {
+            return BenchmarkData.FIRST_NAMES.get(random.nextInt(BenchmarkData.FIRST_NAMES.size()));
+        }
+
+        int age() {
+            return BenchmarkData.MIN_AGE + random.nextInt(BenchmarkData.MAX_AGE - BenchmarkData.MIN_AGE + 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        studentRepository = context.getBean(StudentRepository.class);
+        data = BenchmarkData.seed(context, students, 50, 2, 3, seed);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Student> findById(Keys keys) {
+        return studentRepository.findById(keys.studentId());
+    }
+
+    @Benchmark
+    public Optional<Student> findStudentByEmail(Keys keys) {
+        return studentRepository.findStudentByEmail(keys.email());
+    }
+
+    @Benchmark
+    public List<Student> findStudentsByFirstNameEqualsAndAgeEquals(Keys keys) {
+        return studentRepository.findStudentsByFirstNameEqualsAndAgeEquals(keys.firstName(), keys.age());
+    }
+
+    @Benchmark
+    public List<Student> findStudentsByFirstNameEqualsAndAgeEqualsNative(Keys keys) {
+        return studentRepository.findStudentsByFirstNameEqualsAndAgeEqualsNative(keys.firstName(), keys.age());
+    }
+
+    @Benchmark
+    public List<Student> findStudentsByFirstNameEqualsAndAgeEqualsNamedParameters(Keys keys) {
+        return studentRepository.findStudentsByFirstNameEqualsAndAgeEqualsNamedParameters(keys.firstName(), keys.age());
+    }
+}
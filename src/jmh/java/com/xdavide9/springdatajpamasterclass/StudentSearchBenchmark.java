@@ -0,0 +1,86 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// search by a word of a name, an email or a book title
+// - index: StudentSearchService, the ids come from StudentSearchIndex and the students are loaded by id
+// - like: what the database can do on its own, a prefix LIKE on every field with the books joined
+//   (it can't use student_first_name_index because of lower() and finds no typo at all)
+// - rebuild: StudentSearchIndexer.rebuild, the whole index read again from the database like at startup
+// queries: a last name, the same one with a typo, the first word of a book title
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StudentSearchBenchmark {
+
+    private static final String LIKE_QUERY = "SELECT DISTINCT s.id FROM Student s LEFT JOIN s.books b " +
+            "WHERE lower(s.firstName) LIKE ?1 OR lower(s.lastName) LIKE ?1 OR lower(s.email) LIKE ?1 OR lower(b.bookName) LIKE ?1";
+
+    @Param({"student4242", "studnet4242", "book"})
+    public String query;
+    @Param("100000")
+    public int students;
+    @Param("20")
+    public int limit;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private StudentSearchService studentSearchService;
+    private StudentSearchIndexer studentSearchIndexer;
+    private StudentRepository studentRepository;
+    private TransactionTemplate transactionTemplate;
+    private EntityManager entityManager;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        BenchmarkData.seed(context, students, 50, 3, 2, seed);
+        context.getBean(JdbcTemplate.class).execute("ANALYZE");
+        studentSearchService = context.getBean(StudentSearchService.class);
+        studentSearchIndexer = context.getBean(StudentSearchIndexer.class);
+        studentRepository = context.getBean(StudentRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        entityManager = context.getBean(EntityManager.class);
+        studentSearchIndexer.rebuild();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public List<StudentSnapshot> index() {
+        return studentSearchService.search(query, limit);
+    }
+
+    @Benchmark
+    public List<StudentSnapshot> like() {
+        return transactionTemplate.execute(status -> {
+            List<Long> ids = entityManager.createQuery(LIKE_QUERY, Long.class)
+                    .setParameter(1, query + "%")
+                    .setMaxResults(limit)
+                    .getResultList();
+            return studentRepository.findSnapshotsByIdIn(ids);
+        });
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void rebuild() {
+        studentSearchIndexer.rebuild();
+    }
+}
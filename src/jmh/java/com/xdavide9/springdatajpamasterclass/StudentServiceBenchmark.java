@@ -0,0 +1,93 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// latency of the transactional StudentService methods on the seeded data set
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudentServiceBenchmark {
+
+    @Param("20000")
+    public int students;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private StudentService studentService;
+    private JdbcTemplate jdbcTemplate;
+    private BenchmarkData data;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        studentService = context.getBean(StudentService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        data = BenchmarkData.seed(context, students, 50, 2, 3, seed);
+        random = new Random(seed);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    // persistStudentsWithEnrollment always saves the same two students and courses, they are deleted after every call
+    // (a state of its own so only that benchmark pays for an invocation level teardown)
+    @State(Scope.Benchmark)
+    public static class PersistedStudents {
+        @TearDown(Level.Invocation)
+        public void delete(StudentServiceBenchmark benchmark) {
+            JdbcTemplate jdbcTemplate = benchmark.jdbcTemplate;
+            jdbcTemplate.update("DELETE FROM enrolment WHERE course_id IN (SELECT id FROM course WHERE name IN ('Math', 'Physics'))");
+            jdbcTemplate.update("DELETE FROM student WHERE email IN ('maria@gmail.com', 'john@gmail.com')");
+            jdbcTemplate.update("DELETE FROM course WHERE name IN ('Math', 'Physics')");
+        }
+    }
+
+    private Long studentId() {
+        return data.studentIds.get(random.nextInt(data.studentIds.size()));
+    }
+
+    @Benchmark
+    public void fetchStudentBooks() {
+        studentService.fetchStudentBooks(studentId());
+    }
+
+    @Benchmark
+    public void fetchStudentEnrolments() {
+        studentService.fetchStudentEnrolments(studentId());
+    }
+
+    @Benchmark
+    public void fetchStudentsEnrolments() {
+        studentService.fetchStudentsEnrolments(List.of(studentId(), studentId(), studentId(), studentId(), studentId()));
+    }
+
+    @Benchmark
+    public void fetchCourseRoster() {
+        studentService.fetchCourseRoster(data.courseIds.get(random.nextInt(data.courseIds.size())));
+    }
+
+    @Benchmark
+    public void persistStudentsWithEnrollment(PersistedStudents persistedStudents) {
+        studentService.persistStudentsWithEnrollment();
+    }
+
+    // a book name no student has, so the data set stays the same: loads the student with its books and looks for it
+    @Benchmark
+    public void removeBookFromStudent() {
+        studentService.removeBookFromStudent(studentId(), "Not a book");
+    }
+}
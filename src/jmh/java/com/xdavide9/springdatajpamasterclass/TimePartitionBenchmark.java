@@ -0,0 +1,143 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+// enrolment partitioned by month (see TimePartitions) on the data set of BenchmarkData, its enrolments spread over the 12 months of 2024
+// - enrolmentsOfAMonth/enrolmentsOfAStudent: the enrolments of a student in march with the query bounded on created_at
+//   (one partition read) and all of them (an index probe in every partition, the 12 of 2024, the ones created ahead and the default)
+// - rosterOfAMonth/roster: the same for the students of a course
+// - cleanupDelete/cleanupDetach/cleanupDetachWithBookkeeping: a month of enrolments (one per student) removed by a DELETE of
+//   its rows, by detaching its partition and dropping it, and the same through TimePartitions.detach that also reads the rows
+//   for the counters and CoEnrolmentGraph, a month filled again before every iteration
+//   mvn -Pjmh test-compile exec:exec -Djmh.args="TimePartitionBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TimePartitionBenchmark {
+
+    private static final LocalDate MARCH = LocalDate.of(2024, 3, 1);
+
+    @Param("100000")
+    public int students;
+    @Param("42")
+    public long seed;
+
+    private ConfigurableApplicationContext context;
+    private StudentService studentService;
+    private CourseService courseService;
+    private TimePartitions timePartitions;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private BenchmarkData data;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = BenchmarkContext.start();
+        data = BenchmarkData.seed(context, students, 50, 0, 2, seed);
+        timePartitions = context.getBean(TimePartitions.class);
+        System.out.printf("%n%d partitions created for the months of the data set%n", timePartitions.createPartitions(YearMonth.now()));
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.execute("ANALYZE");
+        studentService = context.getBean(StudentService.class);
+        courseService = context.getBean(CourseService.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeContext() {
+        BenchmarkContext.truncateAll(context);
+        context.close();
+    }
+
+    @Benchmark
+    public int enrolmentsOfAMonth() {
+        return studentService.getStudentEnrolments(nextStudent(), MARCH, MARCH.plusMonths(1).minusDays(1)).size();
+    }
+
+    @Benchmark
+    public int enrolmentsOfAStudent() {
+        return studentService.getStudentEnrolments(nextStudent()).size();
+    }
+
+    @Benchmark
+    public int rosterOfAMonth() {
+        return courseService.getRoster(nextCourse(), MARCH, MARCH.plusMonths(1).minusDays(1)).size();
+    }
+
+    @Benchmark
+    public int roster() {
+        return courseService.getRoster(nextCourse()).size();
+    }
+
+    // a month of its own every iteration, its partition created empty and filled with one enrolment per student in a new course
+    @State(Scope.Benchmark)
+    public static class Month {
+
+        private YearMonth month = YearMonth.of(2030, 1);
+
+        @Setup(Level.Iteration)
+        public void fill(TimePartitionBenchmark benchmark) {
+            month = month.plusMonths(1);
+            benchmark.timePartitions.createPartition("enrolment", month);
+            Long courseId = benchmark.courseService.createCourse(new CourseRequest("Cleanup " + month, "Benchmark")).id();
+            benchmark.jdbcTemplate.update("INSERT INTO enrolment (student_id, course_id, created_at) " +
+                    "SELECT id, ?, ?::timestamp + random() * interval '27 days' FROM student", courseId, month.atDay(1));
+            benchmark.jdbcTemplate.execute("ANALYZE enrolment");
+        }
+
+        String partition() {
+            return "enrolment_" + month.format(DateTimeFormatter.ofPattern("yyyy_MM"));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public int cleanupDelete(Month month) {
+        return transactionTemplate.execute(status -> jdbcTemplate.update("DELETE FROM enrolment WHERE created_at >= ? AND created_at < ?",
+                month.month.atDay(1), month.month.plusMonths(1).atDay(1)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public void cleanupDetach(Month month) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.execute("ALTER TABLE enrolment DETACH PARTITION " + month.partition()));
+        jdbcTemplate.execute("DROP TABLE " + month.partition());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public boolean cleanupDetachWithBookkeeping(Month month) {
+        boolean detached = timePartitions.detach("enrolment", month.partition());
+        jdbcTemplate.execute("DROP TABLE " + month.partition());
+        return detached;
+    }
+
+    private Long nextStudent() {
+        return data.studentIds.get(next++ % data.studentIds.size());
+    }
+
+    private Long nextCourse() {
+        return data.courseIds.get(next++ % data.courseIds.size());
+    }
+}
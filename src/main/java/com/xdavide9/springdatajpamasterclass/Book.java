@@ -8,10 +8,19 @@ import java.time.LocalDateTime;
 @Getter
 @Setter
 @ToString(exclude = "student")  // prevent circular reference
-@EqualsAndHashCode(exclude = "student")
+// no @EqualsAndHashCode: the generated one used every field, id included, so the hash of a book changed when it was persisted
+// and it got lost in Student.books, identity is what hibernate guarantees anyway (one instance per row in a persistence context)
 @Builder
 @Entity(name = "Book")
-@Table(name = "book")
+// postgres doesn't index foreign keys on its own: without this every delete of a student (even one without books)
+// scans the whole book table to check student_book_fk, and so does loading Student.books
+@Table(
+        name = "book",
+        indexes = @Index(
+                name = "book_student_id_index",
+                columnList = "student_id"
+        )
+)
 @AllArgsConstructor
 @NoArgsConstructor
 public class Book {
@@ -20,7 +29,7 @@ public class Book {
     @SequenceGenerator(
             name = "book_sequence",
             sequenceName = "book_sequence",
-            allocationSize = 1
+            allocationSize = 50
     )
     @GeneratedValue(
             generator = "book_sequence",
@@ -41,7 +50,7 @@ public class Book {
             nullable = false
     )
     private LocalDateTime createdAt;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)  // books are loaded through Student.books so their student is already there
     @JoinColumn(
             name = "student_id",
             referencedColumnName = "id",
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// body of POST /api/students/{id}/books
+public record BookRequest(String bookName) {
+}
@@ -0,0 +1,7 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.time.LocalDateTime;
+
+// a book of a student as returned by StudentController
+public record BookResponse(Long id, String bookName, LocalDateTime createdAt) {
+}
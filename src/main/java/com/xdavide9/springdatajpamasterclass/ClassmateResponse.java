@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// a student sharing courses with another one, similarity is shared courses / courses of either of them (see CoEnrolmentGraph)
+public record ClassmateResponse(Long studentId, int sharedCourses, double similarity) {
+}
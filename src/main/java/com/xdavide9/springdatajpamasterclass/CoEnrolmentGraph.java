@@ -0,0 +1,555 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// in memory bipartite graph of the enrolments, every student to its courses and every course to its students
+// (CoEnrolmentGraphUpdater builds it at startup and keeps it up to date, the queries run here without the database)
+// - compressed sparse rows in both directions: the sorted ids of one side in a long[], an int[] of offsets saying where the row
+//   of each of them starts and the ids of the other side one row after the other in a long[], every row sorted
+//   that is 16 bytes per enrolment for both directions, the entities need an Enrolment, its EnrolmentId with two Longs
+//   and an entry in Student.enrolments and in Course.enrolments (plus the persistence context) for each one
+// - the changes of a committed transaction (apply) replace the rows they touch with new ones that take precedence over the arrays,
+//   each touched row is copied once per transaction however many of its enrolments changed
+// - once those rows add up to masterclass.co-enrolment.compact-after ids the arrays are built again with them in
+// - rows are never changed once built so the queries don't lock, a query can see a transaction applied to some rows and not yet to others
+// - a query collects the ids it has to go through (the students of the courses of a student...) and scores them on a ForkJoinPool
+//   of masterclass.co-enrolment.parallelism threads, in slices of masterclass.co-enrolment.slice-size ids each with a map of its own
+//   (primitive, see Scores) that are merged back two by two
+@Component
+public class CoEnrolmentGraph {
+
+    private static final long[] NO_IDS = new long[0];
+
+    // one direction: the row of ids[i] is neighbours[offsets[i]] to neighbours[offsets[i + 1] - 1]
+    private record Csr(long[] ids, int[] offsets, long[] neighbours) {
+
+        static final Csr EMPTY = new Csr(NO_IDS, new int[1], NO_IDS);
+
+        // from pairs in any order, duplicates are dropped
+        static Csr of(long[] from, long[] to, int size) {
+            long[] ids = Arrays.copyOf(from, size);
+            Arrays.sort(ids);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            ids = Arrays.copyOf(ids, distinct);
+            int[] offsets = new int[distinct + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[Arrays.binarySearch(ids, from[i]) + 1]++;
+            }
+            for (int i = 0; i < distinct; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            long[] neighbours = new long[size];
+            int[] next = Arrays.copyOf(offsets, distinct);
+            for (int i = 0; i < size; i++) {
+                neighbours[next[Arrays.binarySearch(ids, from[i])]++] = to[i];
+            }
+            List<long[]> rows = new ArrayList<>(distinct);
+            for (int i = 0; i < distinct; i++) {
+                Arrays.sort(neighbours, offsets[i], offsets[i + 1]);
+                rows.add(distinct(neighbours, offsets[i], offsets[i + 1]));
+            }
+            return of(ids, rows);
+        }
+
+        // rows in the order of ids, the empty ones are left out
+        static Csr of(long[] ids, List<long[]> rows) {
+            int kept = 0;
+            long total = 0;
+            for (long[] row : rows) {
+                if (row.length > 0) {
+                    kept++;
+                    total += row.length;
+                }
+            }
+            long[] keptIds = new long[kept];
+            int[] offsets = new int[kept + 1];
+            long[] neighbours = new long[Math.toIntExact(total)];
+            int index = 0;
+            for (int i = 0; i < ids.length; i++) {
+                long[] row = rows.get(i);
+                if (row.length > 0) {
+                    keptIds[index] = ids[i];
+                    System.arraycopy(row, 0, neighbours, offsets[index], row.length);
+                    offsets[index + 1] = offsets[index] + row.length;
+                    index++;
+                }
+            }
+            return new Csr(keptIds, offsets, neighbours);
+        }
+
+        long[] row(long id) {
+            int index = Arrays.binarySearch(ids, id);
+            return index < 0 ? NO_IDS : Arrays.copyOfRange(neighbours, offsets[index], offsets[index + 1]);
+        }
+
+        int degree(long id) {
+            int index = Arrays.binarySearch(ids, id);
+            return index < 0 ? 0 : offsets[index + 1] - offsets[index];
+        }
+
+        long bytes() {
+            return 8L * ids.length + 4L * offsets.length + 8L * neighbours.length;
+        }
+    }
+
+    // the arrays and the rows that replaced some of theirs, a compaction makes a new State
+    private record State(Csr students, Csr courses, Map<Long, long[]> studentRows, Map<Long, long[]> courseRows) {
+
+        State(Csr students, Csr courses) {
+            this(students, courses, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        }
+
+        long[] coursesOf(long studentId) {
+            long[] row = studentRows.get(studentId);
+            return row != null ? row : students.row(studentId);
+        }
+
+        long[] studentsOf(long courseId) {
+            long[] row = courseRows.get(courseId);
+            return row != null ? row : courses.row(courseId);
+        }
+
+        int courseCount(long studentId) {
+            long[] row = studentRows.get(studentId);
+            return row != null ? row.length : students.degree(studentId);
+        }
+    }
+
+    // the enrolments a transaction added and removed, the last change of each one wins
+    public static final class Changes {
+
+        private final Map<EnrolmentId, Boolean> enrolments = new LinkedHashMap<>();
+        private final Set<Long> removedStudents = new HashSet<>();
+
+        public void enrolled(Long studentId, Long courseId) {
+            enrolments.put(new EnrolmentId(studentId, courseId), true);
+        }
+
+        public void unenrolled(Long studentId, Long courseId) {
+            enrolments.put(new EnrolmentId(studentId, courseId), false);
+        }
+
+        // all of its enrolments, for the bulk deletes that don't know them
+        public void removed(Long studentId) {
+            removedStudents.add(studentId);
+        }
+
+        boolean isEmpty() {
+            return enrolments.isEmpty() && removedStudents.isEmpty();
+        }
+    }
+
+    // open addressing map from an id to its score, no boxing
+    static final class Scores {
+
+        private long[] keys = new long[16];
+        private double[] values = new double[16];
+        private boolean[] used = new boolean[16];
+        private int size;
+
+        void add(long key, double delta) {
+            int slot = slot(keys, used, key);
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    values[slot] = delta;
+                    grow();
+                    return;
+                }
+            }
+            values[slot] += delta;
+        }
+
+        double get(long key) {
+            int slot = slot(keys, used, key);
+            return used[slot] ? values[slot] : 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // into the bigger of the two
+        Scores merge(Scores other) {
+            Scores into = size >= other.size ? this : other;
+            Scores from = into == this ? other : this;
+            for (int i = 0; i < from.keys.length; i++) {
+                if (from.used[i]) {
+                    into.add(from.keys[i], from.values[i]);
+                }
+            }
+            return into;
+        }
+
+        interface Entry {
+            void accept(long key, double value);
+        }
+
+        void forEach(Entry entry) {
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i]) {
+                    entry.accept(keys[i], values[i]);
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new double[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = slot(keys, used, oldKeys[i]);
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slot(long[] keys, boolean[] used, long key) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    // growable long[]
+    static final class Ids {
+
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        long[] values() {
+            return values;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    private interface Scorer {
+        void score(long id, Scores scores);
+    }
+
+    private final class ScoreTask extends RecursiveTask<Scores> {
+
+        private final long[] ids;
+        private final int from;
+        private final int to;
+        private final Scorer scorer;
+
+        ScoreTask(long[] ids, int from, int to, Scorer scorer) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.scorer = scorer;
+        }
+
+        @Override
+        protected Scores compute() {
+            if (to - from <= sliceSize) {
+                Scores scores = new Scores();
+                for (int i = from; i < to; i++) {
+                    scorer.score(ids[i], scores);
+                }
+                return scores;
+            }
+            int middle = (from + to) >>> 1;
+            ScoreTask left = new ScoreTask(ids, from, middle, scorer);
+            left.fork();
+            Scores right = new ScoreTask(ids, middle, to, scorer).compute();
+            return right.merge(left.join());
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int sliceSize;
+    private final int compactAfter;
+    private volatile State state = new State(Csr.EMPTY, Csr.EMPTY);
+    private int replaced;   // ids in the rows of the state that replaced the ones of its arrays, guarded by this
+
+    public CoEnrolmentGraph(@Value("${masterclass.co-enrolment.parallelism:0}") int parallelism,
+                            @Value("${masterclass.co-enrolment.slice-size:4096}") int sliceSize,
+                            @Value("${masterclass.co-enrolment.compact-after:1000000}") int compactAfter) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.sliceSize = sliceSize;
+        this.compactAfter = compactAfter;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    // every enrolment as (studentIds[i], courseIds[i]), replaces whatever the graph had
+    public synchronized void load(long[] studentIds, long[] courseIds, int size) {
+        state = new State(Csr.of(studentIds, courseIds, size), Csr.of(courseIds, studentIds, size));
+        replaced = 0;
+    }
+
+    public synchronized void apply(Changes changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        State current = state;
+        Map<EnrolmentId, Boolean> enrolments = new LinkedHashMap<>();
+        for (Long studentId : changes.removedStudents) {
+            for (long courseId : current.coursesOf(studentId)) {
+                enrolments.put(new EnrolmentId(studentId, courseId), false);
+            }
+        }
+        enrolments.putAll(changes.enrolments);
+        Map<Long, Ids[]> studentChanges = new HashMap<>();
+        Map<Long, Ids[]> courseChanges = new HashMap<>();
+        enrolments.forEach((id, enrolled) -> {
+            int kind = enrolled ? 0 : 1;
+            studentChanges.computeIfAbsent(id.getStudentId(), key -> new Ids[]{new Ids(), new Ids()})[kind].add(id.getCourseId());
+            courseChanges.computeIfAbsent(id.getCourseId(), key -> new Ids[]{new Ids(), new Ids()})[kind].add(id.getStudentId());
+        });
+        studentChanges.forEach((studentId, change) -> {
+            long[] row = merge(current.coursesOf(studentId), change[0].sorted(), change[1].sorted());
+            current.studentRows().put(studentId, row);
+            replaced += row.length;
+        });
+        courseChanges.forEach((courseId, change) -> {
+            long[] row = merge(current.studentsOf(courseId), change[0].sorted(), change[1].sorted());
+            current.courseRows().put(courseId, row);
+            replaced += row.length;
+        });
+        if (replaced >= compactAfter) {
+            compact();
+        }
+    }
+
+    // the arrays built again from the current rows, the rows replaced so far are dropped
+    synchronized void compact() {
+        State current = state;
+        state = new State(compact(current.students(), current.studentRows()), compact(current.courses(), current.courseRows()));
+        replaced = 0;
+    }
+
+    private static Csr compact(Csr csr, Map<Long, long[]> replacedRows) {
+        long[] ids = new long[csr.ids().length + replacedRows.size()];
+        System.arraycopy(csr.ids(), 0, ids, 0, csr.ids().length);
+        int index = csr.ids().length;
+        for (Long id : replacedRows.keySet()) {
+            ids[index++] = id;
+        }
+        Arrays.sort(ids);
+        ids = distinct(ids, 0, ids.length);
+        List<long[]> rows = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            long[] row = replacedRows.get(id);
+            rows.add(row != null ? row : csr.row(id));
+        }
+        return Csr.of(ids, rows);
+    }
+
+    // a sorted row with the sorted added ids in and the sorted removed ones out
+    private static long[] merge(long[] row, long[] added, long[] removed) {
+        long[] merged = new long[row.length + added.length];
+        int size = 0;
+        int r = 0;
+        int a = 0;
+        int d = 0;
+        while (r < row.length || a < added.length) {
+            long next = a == added.length || (r < row.length && row[r] <= added[a]) ? row[r++] : added[a++];
+            while (d < removed.length && removed[d] < next) {
+                d++;
+            }
+            if ((d < removed.length && removed[d] == next) || (size > 0 && merged[size - 1] == next)) {
+                continue;
+            }
+            merged[size++] = next;
+        }
+        return size == merged.length ? merged : Arrays.copyOf(merged, size);
+    }
+
+    private static long[] distinct(long[] sorted, int from, int to) {
+        long[] distinct = new long[to - from];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            if (size == 0 || distinct[size - 1] != sorted[i]) {
+                distinct[size++] = sorted[i];
+            }
+        }
+        return size == distinct.length ? distinct : Arrays.copyOf(distinct, size);
+    }
+
+    public int studentCount() {
+        State current = state;
+        return count(current.students(), current.studentRows());
+    }
+
+    public int courseCount() {
+        State current = state;
+        return count(current.courses(), current.courseRows());
+    }
+
+    // the ids of the arrays, plus the ones whose first row is a replaced one, less the ones whose replaced row is empty
+    private static int count(Csr csr, Map<Long, long[]> replacedRows) {
+        int count = csr.ids().length;
+        for (Map.Entry<Long, long[]> row : replacedRows.entrySet()) {
+            count += (row.getValue().length > 0 ? 1 : 0) - (csr.degree(row.getKey()) > 0 ? 1 : 0);
+        }
+        return count;
+    }
+
+    public long enrolmentCount() {
+        State current = state;
+        long count = current.students().neighbours().length;
+        for (Map.Entry<Long, long[]> row : current.studentRows().entrySet()) {
+            count += row.getValue().length - current.students().degree(row.getKey());
+        }
+        return count;
+    }
+
+    // what the arrays and the replaced rows take on the heap, roughly (the map entries of the rows aren't counted)
+    public long bytes() {
+        State current = state;
+        long bytes = current.students().bytes() + current.courses().bytes();
+        for (long[] row : current.studentRows().values()) {
+            bytes += 8L * row.length;
+        }
+        for (long[] row : current.courseRows().values()) {
+            bytes += 8L * row.length;
+        }
+        return bytes;
+    }
+
+    public List<Long> coursesOf(Long studentId) {
+        return Arrays.stream(state.coursesOf(studentId)).boxed().toList();
+    }
+
+    public List<Long> studentsOf(Long courseId) {
+        return Arrays.stream(state.studentsOf(courseId)).boxed().toList();
+    }
+
+    // the students sharing the most courses with this one, ties by jaccard similarity (shared courses / courses of either)
+    public List<ClassmateResponse> classmates(Long studentId, int limit) {
+        State current = state;
+        long[] courses = current.coursesOf(studentId);
+        Scores shared = sharedCourses(current, courses);
+        PriorityQueue<ClassmateResponse> best = new PriorityQueue<>(Comparator
+                .comparingInt(ClassmateResponse::sharedCourses)
+                .thenComparingDouble(ClassmateResponse::similarity)
+                .thenComparing(ClassmateResponse::studentId, Comparator.reverseOrder()));
+        shared.forEach((classmate, count) -> {
+            if (classmate != studentId) {
+                offer(best, new ClassmateResponse(classmate, (int) count,
+                        count / (courses.length + current.courseCount(classmate) - count)), limit);
+            }
+        });
+        return sortedDescending(best);
+    }
+
+    // courses this student doesn't take, scored by the similarity of the students who take them (see classmates)
+    public List<CourseRecommendationResponse> recommendCourses(Long studentId, int limit) {
+        State current = state;
+        long[] courses = current.coursesOf(studentId);
+        Scores shared = sharedCourses(current, courses);
+        Ids candidates = new Ids();
+        shared.forEach((classmate, count) -> {
+            if (classmate != studentId) {
+                candidates.add(classmate);
+            }
+        });
+        Scores recommended = pool.invoke(new ScoreTask(candidates.values(), 0, candidates.size(), (classmate, scores) -> {
+            long[] theirs = current.coursesOf(classmate);
+            double count = shared.get(classmate);
+            double similarity = count / (courses.length + theirs.length - count);
+            for (long courseId : theirs) {
+                if (Arrays.binarySearch(courses, courseId) < 0) {
+                    scores.add(courseId, similarity);
+                }
+            }
+        }));
+        PriorityQueue<CourseRecommendationResponse> best = new PriorityQueue<>(Comparator
+                .comparingDouble(CourseRecommendationResponse::score)
+                .thenComparing(CourseRecommendationResponse::courseId, Comparator.reverseOrder()));
+        recommended.forEach((courseId, score) -> offer(best, new CourseRecommendationResponse(courseId, score), limit));
+        return sortedDescending(best);
+    }
+
+    // the other courses of the students of this one, by how many of them take it
+    public List<CoursePairResponse> coursesTakenWith(Long courseId, int limit) {
+        State current = state;
+        long[] students = current.studentsOf(courseId);
+        Scores together = pool.invoke(new ScoreTask(students, 0, students.length, (studentId, scores) -> {
+            for (long other : current.coursesOf(studentId)) {
+                if (other != courseId) {
+                    scores.add(other, 1);
+                }
+            }
+        }));
+        PriorityQueue<CoursePairResponse> best = new PriorityQueue<>(Comparator
+                .comparingInt(CoursePairResponse::students)
+                .thenComparing(CoursePairResponse::courseId, Comparator.reverseOrder()));
+        together.forEach((other, count) -> offer(best, new CoursePairResponse(other, (int) count, count / students.length), limit));
+        return sortedDescending(best);
+    }
+
+    // how many of the given courses every student takes, the students of all of them one after the other are split in slices
+    private Scores sharedCourses(State current, long[] courses) {
+        Ids students = new Ids();
+        for (long courseId : courses) {
+            for (long studentId : current.studentsOf(courseId)) {
+                students.add(studentId);
+            }
+        }
+        return pool.invoke(new ScoreTask(students.values(), 0, students.size(), (studentId, scores) -> scores.add(studentId, 1)));
+    }
+
+    // keeps the best limit, the head of the queue is the worst of them
+    private static <T> void offer(PriorityQueue<T> best, T candidate, int limit) {
+        if (best.size() < limit) {
+            best.add(candidate);
+        } else if (best.comparator().compare(candidate, best.peek()) > 0) {
+            best.poll();
+            best.add(candidate);
+        }
+    }
+
+    private static <T> List<T> sortedDescending(PriorityQueue<T> best) {
+        List<T> sorted = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            sorted.add(best.poll());
+        }
+        Collections.reverse(sorted);
+        return sorted;
+    }
+}
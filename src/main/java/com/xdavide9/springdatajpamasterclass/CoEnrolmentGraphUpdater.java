@@ -0,0 +1,214 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// keeps CoEnrolmentGraph in line with the enrolment table
+// - at startup the graph is loaded with a single query streaming the (student_id, course_id) of every enrolment,
+//   masterclass.co-enrolment.load-fetch-size rows at a time
+// - the Enrolments a transaction inserts or deletes through hibernate are collected by the POST_INSERT/POST_DELETE listeners
+//   and applied to the graph all together once the transaction committed (an AfterTransactionCompletionProcess, a rollback applies nothing)
+// - bulk statements don't fire those events, whoever runs one calls unenrolled/studentsRemoved (StudentRepositoryCustomImpl)
+// the changes are applied in the order the transactions committed, not in the order their callbacks happen to run: an unenrolment
+// applied before the enrolment it removes would leave the enrolment in the graph for good
+// - every transaction with changes takes a ticket right before its commit (a BeforeTransactionCompletionProcess), two transactions
+//   changing the same enrolment wait for each other on its row so the second to commit always has the higher ticket
+// - once it completed its ticket is applied under the lock together with the ones before it, a ticket whose transaction is still
+//   committing holds back the higher ones until its callback comes (a rolled back one is skipped)
+// the transactions that commit while the graph is loading are applied again once it's loaded: the query could have read
+// the table before them, and enrolling a student who is enrolled (or removing an enrolment that isn't there) changes nothing
+// the graph is loaded again every night (masterclass.co-enrolment.rebuild-cron) so whatever went past the listeners (a fix made
+// in the database, a bulk statement nobody reported) doesn't stay in it, like EnrolmentStatistics.reconcile does for the counters
+@Component
+@Slf4j
+public class CoEnrolmentGraphUpdater implements PostInsertEventListener, PostDeleteEventListener, SmartInitializingSingleton {
+
+    private static final String ENROLMENTS = "SELECT student_id, course_id FROM enrolment";
+
+    private final EntityManagerFactory entityManagerFactory;
+    @PersistenceContext
+    private EntityManager entityManager;
+    private final CoEnrolmentGraph graph;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    // the changes of the transactions still running, by session (one session per transaction)
+    private final Map<SessionImplementor, Transaction> pending = new ConcurrentHashMap<>();
+    private final AtomicLong tickets = new AtomicLong();
+    private final Object lock = new Object();
+    // the completed transactions waiting for the ones with a lower ticket, NONE for a rollback
+    private final Map<Long, CoEnrolmentGraph.Changes> completed = new HashMap<>();     // guarded by lock
+    private long nextTicket;    // guarded by lock
+    private final List<CoEnrolmentGraph.Changes> committedDuringLoad = new ArrayList<>();    // guarded by lock
+    private boolean loading = true;     // guarded by lock
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    private static final CoEnrolmentGraph.Changes NONE = new CoEnrolmentGraph.Changes();
+
+    private static final class Transaction {
+        final CoEnrolmentGraph.Changes changes = new CoEnrolmentGraph.Changes();
+        long ticket = -1;   // none until it's about to commit
+    }
+
+    public CoEnrolmentGraphUpdater(EntityManagerFactory entityManagerFactory,
+                                   CoEnrolmentGraph graph,
+                                   DataSource dataSource,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${masterclass.co-enrolment.load-fetch-size:10000}") int loadFetchSize) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.graph = graph;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(loadFetchSize);    // the postgres driver only streams inside a transaction
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    // like the other listeners, once every singleton exists (see Outbox)
+    @Override
+    public void afterSingletonsInstantiated() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    // in the background like the search index, the queries find an empty graph until it's loaded
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadInBackground() {
+        Thread thread = new Thread(this::load, "co-enrolment-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // at startup and every night, the queries keep reading the graph there is until the new one replaces it
+    // the transactions applied meanwhile (to the old graph) are applied again to the new one, in the same order
+    // the arrays are built under the lock, the callbacks of the transactions committing meanwhile wait for them
+    @Scheduled(cron = "${masterclass.co-enrolment.rebuild-cron:0 0 4 * * *}")
+    void load() {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            loading = true;
+        }
+        try {
+            CoEnrolmentGraph.Ids students = new CoEnrolmentGraph.Ids();
+            CoEnrolmentGraph.Ids courses = new CoEnrolmentGraph.Ids();
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(ENROLMENTS, resultSet -> {
+                students.add(resultSet.getLong(1));
+                courses.add(resultSet.getLong(2));
+            }));
+            synchronized (lock) {
+                graph.load(students.values(), courses.values(), students.size());
+                loading = false;
+                committedDuringLoad.forEach(graph::apply);
+                committedDuringLoad.clear();
+            }
+            log.info("Co-enrolment graph loaded with {} students, {} courses and {} enrolments in {} ms ({} KB)",
+                    graph.studentCount(), graph.courseCount(), graph.enrolmentCount(),
+                    Duration.ofNanos(System.nanoTime() - start).toMillis(), graph.bytes() / 1024);
+        } catch (RuntimeException e) {
+            log.error("Co-enrolment graph load failed, it only has the enrolments changed from now on", e);
+            synchronized (lock) {
+                loading = false;
+                committedDuringLoad.clear();
+            }
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    public boolean awaitLoad(Duration timeout) throws InterruptedException {
+        return loaded.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // an enrolment removed by a bulk statement of the current transaction
+    public void unenrolled(Long studentId, Long courseId) {
+        changes(entityManager.unwrap(SessionImplementor.class)).unenrolled(studentId, courseId);
+    }
+
+    // every enrolment of these students, deleted by a bulk statement of the current transaction
+    public void studentsRemoved(Collection<Long> studentIds) {
+        CoEnrolmentGraph.Changes changes = changes(entityManager.unwrap(SessionImplementor.class));
+        studentIds.forEach(changes::removed);
+    }
+
+    private CoEnrolmentGraph.Changes changes(SessionImplementor session) {
+        return pending.computeIfAbsent(session, this::register).changes;
+    }
+
+    // a rollback doesn't run the before completion processes: no ticket, nothing to wait for
+    private Transaction register(SessionImplementor session) {
+        Transaction transaction = new Transaction();
+        session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) s -> transaction.ticket = tickets.getAndIncrement());
+        session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, s) -> {
+            pending.remove(s);
+            if (transaction.ticket >= 0) {
+                completed(transaction.ticket, success ? transaction.changes : NONE);
+            }
+        });
+        return transaction;
+    }
+
+    private void completed(long ticket, CoEnrolmentGraph.Changes changes) {
+        synchronized (lock) {
+            completed.put(ticket, changes);
+            for (CoEnrolmentGraph.Changes next; (next = completed.remove(nextTicket)) != null; nextTicket++) {
+                if (next == NONE) {
+                    continue;
+                }
+                if (loading) {
+                    committedDuringLoad.add(next);
+                }
+                graph.apply(next);
+            }
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Enrolment enrolment) {
+            changes(event.getSession()).enrolled(enrolment.getId().getStudentId(), enrolment.getId().getCourseId());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Enrolment enrolment) {
+            changes(event.getSession()).unenrolled(enrolment.getId().getStudentId(), enrolment.getId().getCourseId());
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+}
@@ -0,0 +1,32 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.time.Duration;
+
+// ConnectionAdmissionFilter in front of /api/*, actuator endpoints are never queued behind the api
+// first in the chain so a rejected request costs as little as possible (it's counted by the filter, not by http.server.requests)
+// the number of permits defaults to the size of the (primary) connection pool
+@Configuration
+@ConditionalOnProperty(prefix = "masterclass.admission", name = "enabled", matchIfMissing = true)
+public class ConnectionAdmissionConfig {
+
+    @Bean
+    FilterRegistrationBean<ConnectionAdmissionFilter> connectionAdmissionFilter(
+            @Value("${masterclass.admission.max-concurrent:${spring.datasource.hikari.maximum-pool-size:10}}") int maxConcurrent,
+            @Value("${masterclass.admission.max-queue:200}") int maxQueue,
+            @Value("${masterclass.admission.max-wait:500ms}") Duration maxWait,
+            MeterRegistry registry) {
+        FilterRegistrationBean<ConnectionAdmissionFilter> registration =
+                new FilterRegistrationBean<>(new ConnectionAdmissionFilter(maxConcurrent, maxQueue, maxWait, registry));
+        registration.addUrlPatterns("/api/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,112 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// lets at most maxConcurrent api requests in at the same time, as many as there are connections in the pool
+// with virtual threads tomcat no longer stops at 200 worker threads: a spike would start thousands of requests that all
+// wait inside hikari for one of its 10 connections (and time out there after 30s, holding memory and sockets meanwhile)
+// here the extra requests wait for a permit for at most maxWait and only maxQueue of them,
+// the others get a 503 with Retry-After right away so clients back off instead of piling up
+// the semaphore isn't fair: a request that's already running takes a released permit instead of handing it to the oldest
+// waiter, which first has to be scheduled again (with virtual threads the permit would sit unused until then)
+// the wait is bounded by maxWait anyway
+// metrics: masterclass.admission.in-flight / .queued (gauges), .wait (timer), .rejected (counter, reason=queue-full|timeout)
+@Slf4j
+public class ConnectionAdmissionFilter extends OncePerRequestFilter {
+
+    private static final byte[] REJECTED = "Too many concurrent requests, retry later".getBytes(StandardCharsets.US_ASCII);
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final Timer waits;
+    private final Counter queueFull;
+    private final Counter timedOut;
+
+    public ConnectionAdmissionFilter(int maxConcurrent, int maxQueue, Duration maxWait, MeterRegistry registry) {
+        this.permits = new Semaphore(maxConcurrent, false);
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = maxWait.toNanos();
+        Gauge.builder("masterclass.admission.in-flight", permits, semaphore -> maxConcurrent - semaphore.availablePermits())
+                .description("Api requests holding a permit")
+                .register(registry);
+        Gauge.builder("masterclass.admission.queued", permits, Semaphore::getQueueLength)
+                .description("Api requests waiting for a permit")
+                .register(registry);
+        waits = Timer.builder("masterclass.admission.wait")
+                .description("Time api requests waited for a permit")
+                .publishPercentileHistogram()
+                .register(registry);
+        queueFull = rejected(registry, "queue-full");
+        timedOut = rejected(registry, "timeout");
+    }
+
+    private static Counter rejected(MeterRegistry registry, String reason) {
+        return Counter.builder("masterclass.admission.rejected")
+                .description("Api requests answered with 503 by ConnectionAdmissionFilter")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        // the queue length is an estimate, a few more than maxQueue may get in the queue at the same time and that's fine
+        if (permits.availablePermits() == 0 && permits.getQueueLength() >= maxQueue) {
+            queueFull.increment();
+            reject(response);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(response);
+            return;
+        }
+        waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!admitted) {
+            timedOut.increment();
+            reject(response);
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // written right here and not with sendError: the error page dispatch (BasicErrorController, json rendering) costs
+    // about as much as a small api call and shedding has to be cheap, it happens exactly when there's no cpu to spare
+    private void reject(HttpServletResponse response) throws IOException {
+        log.debug("Api request rejected, {} in flight and {} queued", maxConcurrent - permits.availablePermits(), permits.getQueueLength());
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setContentLength(REJECTED.length);
+        response.getOutputStream().write(REJECTED);
+    }
+}
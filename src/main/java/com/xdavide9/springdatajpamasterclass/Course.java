@@ -2,25 +2,46 @@ package com.xdavide9.springdatajpamasterclass;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 @Getter
 @Setter
-@EqualsAndHashCode(exclude = "enrolments")
+// no @EqualsAndHashCode, see equals below (and Student)
 @ToString(exclude = "enrolments")
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "course")
 @Entity(name = "Course")
+// courses are reference data so they are kept in the second level cache (shared between sessions, see application.conf)
+// READ_WRITE keeps the cache consistent with CourseRepository.save: the entry is locked while the update is in flight
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "course")
+// the students enrolled in a course (and their cards, see Student for why)
+@NamedEntityGraph(
+        name = "Course.roster",
+        attributeNodes = @NamedAttributeNode(value = "enrolments", subgraph = "enrolment.student"),
+        subgraphs = {
+                @NamedSubgraph(
+                        name = "enrolment.student",
+                        attributeNodes = @NamedAttributeNode(value = "student", subgraph = "student.studentIdCard")
+                ),
+                @NamedSubgraph(
+                        name = "student.studentIdCard",
+                        attributeNodes = @NamedAttributeNode("studentIdCard")
+                )
+        }
+)
 public class Course {
     @Id
     @SequenceGenerator(
             name = "course_sequence",
             sequenceName = "course_sequence",
-            allocationSize = 1
+            allocationSize = 50
     )
     @GeneratedValue(
             generator = "course_sequence",
@@ -43,29 +64,47 @@ public class Course {
             columnDefinition = "TEXT"
     )
     private String department;
+    // the most students the course takes, null for no limit
+    // changed by CourseSeats.setCapacity only, the free seats are counted in the course_seat table (see V4__course_seats.sql)
+    @Column(
+            name = "capacity",
+            updatable = false
+    )
+    private Integer capacity;
 
     @Builder.Default
+    // only the ids of the enrolments are cached here, the Enrolment entities themselves are in the enrolment region
+    // addEnrolment/removeEnrolment (and every persisted or removed Enrolment, see auto_evict_collection_cache) evict it
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "course-enrolments")
     @OneToMany(
             mappedBy = "course",
             cascade = CascadeType.ALL,
             fetch = FetchType.LAZY,
             orphanRemoval = true
     )
-    private List<Enrolment> enrolments = new ArrayList<>();
+    // a set so building a roster of n enrolments is O(n) instead of O(n^2) with List.contains (see CourseRosterBenchmark)
+    @OrderBy("createdAt")
+    private Set<Enrolment> enrolments = new LinkedHashSet<>();
 
     public boolean addEnrolment(Enrolment enrolment) {
-        if (!enrolments.contains(enrolment)) {
-            enrolments.add(enrolment);
-            return true;
-        }
-        return false;
+        return enrolments.add(enrolment);
     }
 
     public boolean removeEnrolment(Enrolment enrolment) {
-        if (enrolments.contains(enrolment)) {
-            enrolments.remove(enrolment);
+        return enrolments.remove(enrolment);
+    }
+
+    // by id like Student: the hash doesn't change when the course is persisted or renamed
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
             return true;
         }
-        return false;
+        return o instanceof Course other && id != null && id.equals(other.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Course.class.hashCode();
     }
 }
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// body of PUT /api/courses/{id}/capacity, null for no limit
+public record CourseCapacityRequest(Integer capacity) {
+}
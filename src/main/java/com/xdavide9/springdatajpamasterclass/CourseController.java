@@ -0,0 +1,68 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.AllArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+//   GET  /api/courses?department=
+//   GET  /api/courses/{id}
+//   POST /api/courses
+//   GET  /api/courses/{id}/seats                  capacity and free seats (see CourseSeats)
+//   PUT  /api/courses/{id}/capacity               {"capacity": 120}, null for no limit
+//   GET  /api/courses/{id}/students?from=&to=    the roster of the course, with from and to (iso dates, both included) the students who enrolled in that time
+//   GET  /api/courses/{id}/taken-with?size=      the courses its students take the most, from CoEnrolmentGraph
+@RestController
+@RequestMapping("/api/courses")
+@AllArgsConstructor
+public class CourseController {
+
+    private static final int MAX_SIZE = 100;
+
+    private final CourseService courseService;
+    private final CoEnrolmentGraph coEnrolmentGraph;
+
+    @GetMapping
+    public List<CourseResponse> list(@RequestParam(required = false) String department) {
+        return courseService.listCourses(department);
+    }
+
+    @GetMapping("/{id}")
+    public CourseResponse get(@PathVariable Long id) {
+        return courseService.getCourse(id);
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public CourseResponse create(@RequestBody CourseRequest request) {
+        return courseService.createCourse(request);
+    }
+
+    @GetMapping("/{id}/seats")
+    public CourseSeatsResponse seats(@PathVariable Long id) {
+        return courseService.getSeats(id);
+    }
+
+    @PutMapping("/{id}/capacity")
+    public CourseSeatsResponse setCapacity(@PathVariable Long id, @RequestBody CourseCapacityRequest request) {
+        return courseService.setCapacity(id, request.capacity());
+    }
+
+    @GetMapping("/{id}/students")
+    public List<StudentSnapshot> roster(@PathVariable Long id,
+                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return from == null && to == null ? courseService.getRoster(id) : courseService.getRoster(id, from, to);
+    }
+
+    @GetMapping("/{id}/taken-with")
+    public List<CoursePairResponse> takenWith(@PathVariable Long id, @RequestParam(defaultValue = "20") int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_SIZE);
+        }
+        return coEnrolmentGraph.coursesTakenWith(id, size);
+    }
+}
@@ -0,0 +1,9 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// an enrolment in a course without free seats (see CourseSeats), a 409 for the api
+public class CourseFullException extends RuntimeException {
+
+    public CourseFullException(Long courseId) {
+        super("Course " + courseId + " has no free seats");
+    }
+}
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// another course taken by students of a course: how many of them and which share of its students
+public record CoursePairResponse(Long courseId, int students, double share) {
+}
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// a course the student doesn't take, score adds up the similarity of the students who take it (see CoEnrolmentGraph)
+public record CourseRecommendationResponse(Long courseId, double score) {
+}
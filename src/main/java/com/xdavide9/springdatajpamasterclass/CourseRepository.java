@@ -1,8 +1,42 @@
 package com.xdavide9.springdatajpamasterclass;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
-public interface CourseRepository extends CrudRepository<Course, Long> {
+public interface CourseRepository extends CrudRepository<Course, Long>, CourseRepositoryCustom {
+
+    // the course with its enrolments and their students (see the Course.roster graph)
+    @EntityGraph("Course.roster")
+    @Query("SELECT c FROM Course c WHERE c.id = ?1")
+    Optional<Course> findWithRosterById(Long id);
+
+    // catalog lookups, their results are kept in the query cache (course-catalog region)
+    // hibernate drops them as soon as anything is written to the course table
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "course-catalog")
+    })
+    @Query("SELECT c FROM Course c WHERE c.department = ?1 ORDER BY c.name")
+    List<Course> findCoursesByDepartment(String department);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "course-catalog")
+    })
+    @Query("SELECT c FROM Course c WHERE c.name = ?1 AND c.department = ?2")
+    Optional<Course> findCourseByNameAndDepartment(String name, String department);
+
+    // course names are not unique on their own (the department is part of the key) so the caller matches the department
+    @Query("SELECT c FROM Course c WHERE c.name IN ?1")
+    List<Course> findCoursesByNameIn(Collection<String> names);
 }
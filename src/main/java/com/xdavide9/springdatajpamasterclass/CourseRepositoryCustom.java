@@ -0,0 +1,13 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// methods of CourseRepository that are implemented by hand in CourseRepositoryCustomImpl
+// targeted updates for CourseService, a single UPDATE without loading the courses, they return the number of courses updated
+public interface CourseRepositoryCustom {
+
+    int updateNameById(Long id, String name);
+
+    int updateDepartment(String department, String newDepartment);
+
+    // CourseSeats.setCapacity only, the free seats go with it
+    int updateCapacityById(Long id, Integer capacity);
+}
@@ -0,0 +1,59 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+
+import java.util.Objects;
+
+// like the targeted commands of StudentRepository: pending changes are flushed before the UPDATE, and afterwards only the
+// courses it changed that are managed in this persistence context are read again (em.refresh, with their loaded enrolments),
+// everything else the caller holds stays managed
+// an UPDATE on course evicts the whole course region and invalidates the course-catalog queries
+class CourseRepositoryCustomImpl implements CourseRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public int updateNameById(Long id, String name) {
+        entityManager.flush();
+        int updated = entityManager.createQuery("UPDATE Course c SET c.name = ?2 WHERE c.id = ?1")
+                .setParameter(1, id)
+                .setParameter(2, name)
+                .executeUpdate();
+        refreshCourse(id);
+        return updated;
+    }
+
+    @Override
+    @Transactional
+    public int updateDepartment(String department, String newDepartment) {
+        entityManager.flush();
+        int updated = entityManager.createQuery("UPDATE Course c SET c.department = ?2 WHERE c.department = ?1")
+                .setParameter(1, department)
+                .setParameter(2, newDepartment)
+                .executeUpdate();
+        ManagedEntities.matching(entityManager, Course.class, course -> department.equals(course.getDepartment()))
+                .forEach(entityManager::refresh);
+        return updated;
+    }
+
+    @Override
+    @Transactional
+    public int updateCapacityById(Long id, Integer capacity) {
+        entityManager.flush();
+        int updated = entityManager.createQuery("UPDATE Course c SET c.capacity = ?2 WHERE c.id = ?1")
+                .setParameter(1, id)
+                .setParameter(2, capacity)
+                .executeUpdate();
+        refreshCourse(id);
+        return updated;
+    }
+
+    private void refreshCourse(Long id) {
+        ManagedEntities.matching(entityManager, Course.class, course -> Objects.equals(course.getId(), id))
+                .forEach(entityManager::refresh);
+    }
+}
@@ -0,0 +1,9 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// body of POST /api/courses, capacity is optional (no limit)
+public record CourseRequest(String name, String department, Integer capacity) {
+
+    public CourseRequest(String name, String department) {
+        this(name, department, null);
+    }
+}
@@ -0,0 +1,9 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// the columns of a course as returned by CourseController
+public record CourseResponse(Long id, String name, String department, Integer capacity) {
+
+    static CourseResponse of(Course course) {
+        return new CourseResponse(course.getId(), course.getName(), course.getDepartment(), course.getCapacity());
+    }
+}
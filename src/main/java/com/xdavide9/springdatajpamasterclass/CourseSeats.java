@@ -0,0 +1,82 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the capacity of a course and its free seats (see V4__course_seats.sql): the triggers of the enrolment table take a seat for
+// every enrolment inserted and give it back when it's deleted, so the api, the import and the bulk deletes all go through them
+// - the free seats are split over masterclass.seats.stripes course_seat rows (fewer when there are fewer seats than that),
+//   enrolling locks one of them until the commit and the other enrolments take theirs from the stripes nobody holds
+// - a full course fails the insert with the check violation of course_seat_free, isCourseFull tells it apart
+// setCapacity recounts the enrolments and splits capacity minus them over new stripes, the free seats are always that
+@Component
+public class CourseSeats {
+
+    static final String FULL = "course_seat_free";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CourseRepository courseRepository;
+    private final int stripes;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public CourseSeats(JdbcTemplate jdbcTemplate,
+                       CourseRepository courseRepository,
+                       @Value("${masterclass.seats.stripes:16}") int stripes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.courseRepository = courseRepository;
+        this.stripes = stripes;
+    }
+
+    // in the transaction of the caller, false if there's no such course
+    // the course row and its stripes stay locked until it commits: the enrolments in flight are waited for (the trigger locks
+    // the course row in key share mode, the stripes it takes seats from for update) and the ones after read the new stripes
+    public boolean setCapacity(Long courseId, Integer capacity) {
+        if (capacity != null && capacity < 0) {
+            throw new IllegalArgumentException("capacity can't be negative");
+        }
+        entityManager.flush();   // a course created in the same transaction
+        if (jdbcTemplate.queryForList("SELECT id FROM course WHERE id = ? FOR UPDATE", Long.class, courseId).isEmpty()) {
+            return false;
+        }
+        jdbcTemplate.queryForList("SELECT stripe FROM course_seat WHERE course_id = ? ORDER BY stripe FOR UPDATE", Integer.class, courseId);
+        long enrolled = jdbcTemplate.queryForObject("SELECT count(*) FROM enrolment WHERE course_id = ?", Long.class, courseId);
+        if (capacity != null && capacity < enrolled) {
+            throw new IllegalArgumentException(enrolled + " students are enrolled in course " + courseId + ", capacity can't be lower");
+        }
+        courseRepository.updateCapacityById(courseId, capacity);
+        jdbcTemplate.update("DELETE FROM course_seat WHERE course_id = ?", courseId);
+        if (capacity != null) {
+            int free = (int) (capacity - enrolled);
+            int rows = Math.max(1, Math.min(stripes, free));
+            List<Object[]> seats = new ArrayList<>(rows);
+            for (int stripe = 0; stripe < rows; stripe++) {
+                seats.add(new Object[]{courseId, stripe, free / rows + (stripe < free % rows ? 1 : 0)});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO course_seat (course_id, stripe, free) VALUES (?, ?, ?)", seats);
+        }
+        return true;
+    }
+
+    // null for a course without capacity (or that doesn't exist)
+    public Long freeSeats(Long courseId) {
+        return jdbcTemplate.queryForObject("SELECT sum(free) FROM course_seat WHERE course_id = ?", Long.class, courseId);
+    }
+
+    // the constraint name comes out of the message of the trigger like it would for a real check violation
+    static boolean isCourseFull(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation && FULL.equals(violation.getConstraintName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// the capacity of a course and the seats left, both null for a course without limit
+public record CourseSeatsResponse(Long courseId, Integer capacity, Long freeSeats) {
+}
@@ -0,0 +1,120 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+// the course side of the REST api (CourseController), same rules as the api methods of StudentService
+@Service
+@AllArgsConstructor
+@Timed(value = "masterclass.course.service", histogram = true)
+public class CourseService {
+
+    private final CourseRepository courseRepository;
+    private final StudentRepository studentRepository;
+    private final EnrolmentStatistics enrolmentStatistics;
+    private final CourseSeats courseSeats;
+
+    // by department it's the cached catalog query, without it every course (there aren't many of them)
+    @Transactional(readOnly = true)
+    public List<CourseResponse> listCourses(String department) {
+        Iterable<Course> courses = department == null ? courseRepository.findAll() : courseRepository.findCoursesByDepartment(department);
+        return StreamSupport.stream(courses.spliterator(), false)
+                .map(CourseResponse::of)
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
+    public CourseResponse getCourse(Long courseId) {
+        return courseRepository.findById(courseId)
+                .map(CourseResponse::of)
+                .orElseThrow(() -> courseNotFound(courseId));
+    }
+
+    @Transactional
+    public CourseResponse createCourse(CourseRequest request) {
+        if (isBlank(request.name()) || isBlank(request.department())) {
+            throw new IllegalArgumentException("name and department are required");
+        }
+        Course course = courseRepository.save(Course.builder()
+                .name(request.name())
+                .department(request.department())
+                .capacity(request.capacity()).build());
+        if (request.capacity() != null) {
+            courseSeats.setCapacity(course.getId(), request.capacity());    // its stripes
+        }
+        return CourseResponse.of(course);
+    }
+
+    // null for no limit, not below the students enrolled already
+    @Transactional
+    public CourseSeatsResponse setCapacity(Long courseId, Integer capacity) {
+        if (!courseSeats.setCapacity(courseId, capacity)) {
+            throw courseNotFound(courseId);
+        }
+        return new CourseSeatsResponse(courseId, capacity, courseSeats.freeSeats(courseId));
+    }
+
+    @Transactional(readOnly = true)
+    public CourseSeatsResponse getSeats(Long courseId) {
+        Course course = courseRepository.findById(courseId).orElseThrow(() -> courseNotFound(courseId));
+        return new CourseSeatsResponse(courseId, course.getCapacity(), courseSeats.freeSeats(courseId));
+    }
+
+    // snapshots of the enrolled students with one query, not the Course.roster graph that loads entities
+    @Transactional(readOnly = true)
+    public List<StudentSnapshot> getRoster(Long courseId) {
+        if (!courseRepository.existsById(courseId)) {  // from the second level cache most of the time
+            throw courseNotFound(courseId);
+        }
+        return studentRepository.findSnapshotsByCourseId(courseId);
+    }
+
+    // the students who enrolled from from to to (both included), see StudentService.getStudentEnrolments
+    @Transactional(readOnly = true)
+    public List<StudentSnapshot> getRoster(Long courseId, LocalDate from, LocalDate to) {
+        StudentService.checkDates(from, to);
+        if (!courseRepository.existsById(courseId)) {
+            throw courseNotFound(courseId);
+        }
+        return studentRepository.findSnapshotsByCourseIdEnrolledBetween(courseId, from.atStartOfDay(), to.plusDays(1).atStartOfDay());
+    }
+
+    // single UPDATEs, the courses are not loaded (see CourseRepositoryCustomImpl, the managed ones are refreshed)
+    @Transactional
+    public void renameCourse(Long courseId, String name) {
+        if (isBlank(name)) {
+            throw new IllegalArgumentException("name is required");
+        }
+        if (courseRepository.updateNameById(courseId, name) == 0) {
+            throw courseNotFound(courseId);
+        }
+    }
+
+    // returns the number of courses moved, their enrolments are moved in EnrolmentStatistics too
+    @Transactional
+    public int renameDepartment(String department, String newDepartment) {
+        if (isBlank(department) || isBlank(newDepartment)) {
+            throw new IllegalArgumentException("department and newDepartment are required");
+        }
+        int moved = courseRepository.updateDepartment(department, newDepartment);
+        if (moved > 0) {
+            enrolmentStatistics.departmentRenamed(department, newDepartment);
+        }
+        return moved;
+    }
+
+    private static EntityNotFoundException courseNotFound(Long courseId) {
+        return new EntityNotFoundException("Course " + courseId + " not found");
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
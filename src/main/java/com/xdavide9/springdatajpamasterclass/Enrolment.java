@@ -2,6 +2,8 @@ package com.xdavide9.springdatajpamasterclass;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.time.LocalDateTime;
 
@@ -11,14 +13,27 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 @Entity(name = "Enrolment")
-@Table(name = "enrolment")
+// the primary key starts with course_id, so it doesn't help to find the enrolments of a student:
+// without this index loading Student.enrolments and checking enrolment_student_id_fk when a student is deleted scan the table
+@Table(
+        name = "enrolment",
+        indexes = @Index(
+                name = "enrolment_student_id_index",
+                columnList = "student_id"
+        )
+)
+// cached because the cached Course.enrolments collection only holds their ids
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "enrolment")
 @ToString
 public class Enrolment {
 
     @EmbeddedId // use the composite key
     private EnrolmentId id;
 
-    @ManyToOne  // use many to one for each piece of the composite key (many enrolments for a single student)
+    // many to one is EAGER by default, that is a select for the student and one for the course of every enrolment loaded
+    // they are LAZY here and the entity graphs in Student and Course say when they should be fetched
+    @ManyToOne(fetch = FetchType.LAZY)  // use many to one for each piece of the composite key (many enrolments for a single student)
     @MapsId(value = "studentId") // maps the studentId from the composite key (java field)
     @JoinColumn(
             name = "student_id",
@@ -28,7 +43,7 @@ public class Enrolment {
             )
     )
     private Student student;
-    @ManyToOne  // use many to one for each piece of the composite key (many enrolments for a course student)
+    @ManyToOne(fetch = FetchType.LAZY)  // use many to one for each piece of the composite key (many enrolments for a course student)
     @MapsId(value = "courseId") // maps the courseId from the composite key (java field)
     @JoinColumn(
             name = "course_id",
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// the enrolments of a bucket of enrolment_statistic, its stripes summed up (see EnrolmentStatisticRepository)
+public record EnrolmentCount(String bucket, Long enrolments) {
+}
@@ -0,0 +1,8 @@
+package com.xdavide9.springdatajpamasterclass;
+
+public enum EnrolmentImportFormat {
+    // header line followed by email,first_name,last_name,age,course_name,department,created_at
+    CSV,
+    // one json object per line with the fields of EnrolmentImportRecord (except lineNumber)
+    NDJSON
+}
@@ -0,0 +1,143 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// reads the feed one line at a time so only the current line is ever in memory
+class EnrolmentImportReader implements Iterator<EnrolmentImportRecord>, Closeable {
+
+    private final BufferedReader reader;
+    private final EnrolmentImportFormat format;
+    private final ObjectMapper objectMapper;
+    private long lineNumber;
+    private EnrolmentImportRecord next;
+
+    EnrolmentImportReader(BufferedReader reader, EnrolmentImportFormat format, ObjectMapper objectMapper) {
+        this.reader = reader;
+        this.format = format;
+        this.objectMapper = objectMapper;
+        if (format == EnrolmentImportFormat.CSV) {
+            readLine();    // skip the header
+        }
+        this.next = readRecord();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public EnrolmentImportRecord next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        EnrolmentImportRecord current = next;
+        next = readRecord();
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private EnrolmentImportRecord readRecord() {
+        String line;
+        do {
+            line = readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isBlank());
+        try {
+            return format == EnrolmentImportFormat.CSV ? parseCsv(line) : parseJson(line);
+        } catch (RuntimeException | IOException e) {
+            throw new IllegalArgumentException("Malformed enrolment record at line " + lineNumber + ": " + line, e);
+        }
+    }
+
+    private String readLine() {
+        try {
+            String line = reader.readLine();
+            if (line != null) {
+                lineNumber++;
+            }
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private EnrolmentImportRecord parseCsv(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 7) {
+            throw new IllegalArgumentException("expected 7 fields but got " + fields.size());
+        }
+        return new EnrolmentImportRecord(
+                lineNumber,
+                fields.get(0),
+                fields.get(1),
+                fields.get(2),
+                Integer.parseInt(fields.get(3)),
+                fields.get(4),
+                fields.get(5),
+                LocalDateTime.parse(fields.get(6)));
+    }
+
+    private EnrolmentImportRecord parseJson(String line) throws IOException {
+        JsonNode json = objectMapper.readTree(line);
+        JsonNode age = json.required("age");
+        if (!age.canConvertToInt()) {   // asInt() would silently turn anything that isn't a number into 0
+            throw new IllegalArgumentException("age is not a number: " + age);
+        }
+        return new EnrolmentImportRecord(
+                lineNumber,
+                json.required("email").asText(),
+                json.required("firstName").asText(),
+                json.required("lastName").asText(),
+                age.asInt(),
+                json.required("courseName").asText(),
+                json.required("department").asText(),
+                LocalDateTime.parse(json.required("createdAt").asText()));
+    }
+
+    // quoted fields may contain commas, a doubled quote inside a quoted field is a literal quote
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(7);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
@@ -0,0 +1,16 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.time.LocalDateTime;
+
+// one row of the registrar feed: a student enrolled in a course at a given time
+// the student is identified by email and the course by name and department
+public record EnrolmentImportRecord(
+        long lineNumber,
+        String email,
+        String firstName,
+        String lastName,
+        int age,
+        String courseName,
+        String department,
+        LocalDateTime createdAt) {
+}
@@ -0,0 +1,11 @@
+package com.xdavide9.springdatajpamasterclass;
+
+public record EnrolmentImportResult(
+        String jobName,
+        long resumedAfterLine,
+        long recordsImported,
+        int chunksCommitted,
+        long studentsCreated,
+        long coursesCreated,
+        long enrolmentsCreated) {
+}
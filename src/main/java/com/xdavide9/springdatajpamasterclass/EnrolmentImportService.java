@@ -0,0 +1,266 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// imports the registrar feed (students, courses and their enrolments) in fixed size chunks
+// - the file is streamed one record at a time, only the current chunk is kept in memory
+// - every chunk is its own transaction: flushed, cleared and committed together with the import checkpoint
+//   so if the job dies it can be started again with the same job name and continues after the last committed chunk
+// - courses and emails already seen are remembered between chunks, the ones that aren't are resolved with one query per chunk
+@Service
+@Slf4j
+public class EnrolmentImportService {
+
+    private final StudentRepository studentRepository;
+    private final CourseRepository courseRepository;
+    private final ImportCheckpointRepository importCheckpointRepository;
+    private final EntityManager entityManager;
+    // programmatic transactions because calling a @Transactional method of this same class would be a self-invocation
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final int emailCacheSize;
+
+    public EnrolmentImportService(StudentRepository studentRepository,
+                                  CourseRepository courseRepository,
+                                  ImportCheckpointRepository importCheckpointRepository,
+                                  EntityManager entityManager,
+                                  TransactionTemplate transactionTemplate,
+                                  ObjectMapper objectMapper,
+                                  @Value("${masterclass.import.chunk-size:1000}") int chunkSize,
+                                  @Value("${masterclass.import.email-cache-size:100000}") int emailCacheSize) {
+        this.studentRepository = studentRepository;
+        this.courseRepository = courseRepository;
+        this.importCheckpointRepository = importCheckpointRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.emailCacheSize = emailCacheSize;
+    }
+
+    public EnrolmentImportResult importFile(String jobName, Path file, EnrolmentImportFormat format) {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            return importFrom(jobName, reader, format);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public EnrolmentImportResult importFrom(String jobName, Reader reader, EnrolmentImportFormat format) {
+        long resumeAfter = importCheckpointRepository.findById(jobName)
+                .map(ImportCheckpoint::getLastCommittedLine)
+                .orElse(0L);
+        if (resumeAfter > 0) {
+            log.info("Resuming import {} after line {}", jobName, resumeAfter);
+        }
+        ImportRun run = new ImportRun(jobName);
+        List<EnrolmentImportRecord> chunk = new ArrayList<>(chunkSize);
+        BufferedReader buffered = reader instanceof BufferedReader b ? b : new BufferedReader(reader);
+        EnrolmentImportReader records = new EnrolmentImportReader(buffered, format, objectMapper);
+        while (records.hasNext()) {
+            EnrolmentImportRecord record = records.next();
+            if (record.lineNumber() <= resumeAfter) {
+                continue;   // already committed by a previous run
+            }
+            chunk.add(record);
+            if (chunk.size() == chunkSize) {
+                writeChunk(run, chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(run, chunk);
+        }
+        EnrolmentImportResult result = new EnrolmentImportResult(jobName, resumeAfter, run.recordsImported,
+                run.chunksCommitted, run.studentsCreated, run.coursesCreated, run.enrolmentsCreated);
+        log.info("Finished import {}", result);
+        return result;
+    }
+
+    public void resetCheckpoint(String jobName) {
+        importCheckpointRepository.deleteById(jobName);
+    }
+
+    private void writeChunk(ImportRun run, List<EnrolmentImportRecord> chunk) {
+        ChunkResult result = transactionTemplate.execute(status -> {
+            ChunkResult chunkResult = new ChunkResult();
+            Map<CourseKey, Long> courseIds = resolveCourses(run, chunk, chunkResult);
+            Map<String, Long> studentIds = resolveStudents(run, chunk, chunkResult);
+            Set<EnrolmentId> enrolled = findExistingEnrolments(chunkResult.existingStudentIds, courseIds.values());
+            for (EnrolmentImportRecord record : chunk) {
+                Long studentId = studentIds.get(record.email());
+                Long courseId = courseIds.get(CourseKey.of(record));
+                EnrolmentId enrolmentId = new EnrolmentId(studentId, courseId);
+                if (!enrolled.add(enrolmentId)) {
+                    continue;   // already in the database or twice in the feed
+                }
+                // references avoid loading (and initializing the collections of) students and courses
+                // which is also why the aggregate methods Student.addEnrolment and Course.addEnrolment aren't used here
+                entityManager.persist(Enrolment.builder()
+                        .id(enrolmentId)
+                        .student(entityManager.getReference(Student.class, studentId))
+                        .course(entityManager.getReference(Course.class, courseId))
+                        .createdAt(record.createdAt())
+                        .build());
+                chunkResult.enrolmentsCreated++;
+            }
+            importCheckpointRepository.save(ImportCheckpoint.builder()
+                    .jobName(run.jobName)
+                    .lastCommittedLine(chunk.get(chunk.size() - 1).lineNumber())
+                    .updatedAt(LocalDateTime.now())
+                    .build());
+            entityManager.flush();
+            entityManager.clear();  // nothing of this chunk stays managed
+            return chunkResult;
+        });
+        // only remember new ids once they are committed, a rolled back chunk must not leave ids of rows that don't exist
+        run.courseIds.putAll(result.courseIds);
+        run.emailIds.putAll(result.emailIds);
+        run.recordsImported += chunk.size();
+        run.chunksCommitted++;
+        run.studentsCreated += result.studentsCreated;
+        run.coursesCreated += result.coursesCreated;
+        run.enrolmentsCreated += result.enrolmentsCreated;
+        log.debug("Import {} committed chunk up to line {}", run.jobName, chunk.get(chunk.size() - 1).lineNumber());
+    }
+
+    private Map<CourseKey, Long> resolveCourses(ImportRun run, List<EnrolmentImportRecord> chunk, ChunkResult result) {
+        Map<CourseKey, Long> courseIds = new HashMap<>();
+        Set<CourseKey> unknown = new LinkedHashSet<>();
+        for (EnrolmentImportRecord record : chunk) {
+            CourseKey key = CourseKey.of(record);
+            Long id = run.courseIds.get(key);
+            if (id != null) {
+                courseIds.put(key, id);
+            } else {
+                unknown.add(key);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return courseIds;
+        }
+        Set<String> names = new HashSet<>();
+        unknown.forEach(key -> names.add(key.name()));
+        for (Course course : courseRepository.findCoursesByNameIn(names)) {
+            CourseKey key = new CourseKey(course.getName(), course.getDepartment());
+            if (unknown.remove(key)) {
+                courseIds.put(key, course.getId());
+                result.courseIds.put(key, course.getId());
+            }
+        }
+        for (CourseKey key : unknown) {
+            Course course = Course.builder()
+                    .name(key.name())
+                    .department(key.department())
+                    .build();
+            entityManager.persist(course);  // the id is assigned right away from the pooled sequence
+            courseIds.put(key, course.getId());
+            result.courseIds.put(key, course.getId());
+            result.coursesCreated++;
+        }
+        return courseIds;
+    }
+
+    private Map<String, Long> resolveStudents(ImportRun run, List<EnrolmentImportRecord> chunk, ChunkResult result) {
+        Map<String, Long> studentIds = new HashMap<>();
+        Map<String, EnrolmentImportRecord> unknown = new LinkedHashMap<>();
+        for (EnrolmentImportRecord record : chunk) {
+            Long id = run.emailIds.get(record.email());
+            if (id != null) {
+                studentIds.put(record.email(), id);
+                result.existingStudentIds.add(id);
+            } else {
+                unknown.putIfAbsent(record.email(), record);    // the first record of a student wins
+            }
+        }
+        if (unknown.isEmpty()) {
+            return studentIds;
+        }
+        for (Object[] row : studentRepository.findIdsAndEmailsByEmailIn(unknown.keySet())) {
+            Long id = (Long) row[0];
+            String email = (String) row[1];
+            unknown.remove(email);
+            studentIds.put(email, id);
+            result.emailIds.put(email, id);
+            result.existingStudentIds.add(id);
+        }
+        for (EnrolmentImportRecord record : unknown.values()) {
+            Student student = Student.builder()
+                    .firstName(record.firstName())
+                    .lastName(record.lastName())
+                    .email(record.email())
+                    .age(record.age())
+                    .build();
+            entityManager.persist(student);
+            studentIds.put(record.email(), student.getId());
+            result.emailIds.put(record.email(), student.getId());
+            result.studentsCreated++;
+        }
+        return studentIds;
+    }
+
+    // students created by this chunk can't have enrolments yet so only the existing ones are checked
+    private Set<EnrolmentId> findExistingEnrolments(Collection<Long> studentIds, Collection<Long> courseIds) {
+        if (studentIds.isEmpty() || courseIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(entityManager.createQuery(
+                        "SELECT e.id FROM Enrolment e WHERE e.id.studentId IN :studentIds AND e.id.courseId IN :courseIds",
+                        EnrolmentId.class)
+                .setParameter("studentIds", studentIds)
+                .setParameter("courseIds", new HashSet<>(courseIds))
+                .getResultList());
+    }
+
+    private record CourseKey(String name, String department) {
+        static CourseKey of(EnrolmentImportRecord record) {
+            return new CourseKey(record.courseName(), record.department());
+        }
+    }
+
+    // state kept between the chunks of a single run, bounded no matter how big the file is
+    // (courses are reference data, the emails are an lru cache)
+    private class ImportRun {
+        final String jobName;
+        final Map<CourseKey, Long> courseIds = new HashMap<>();
+        final Map<String, Long> emailIds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > emailCacheSize;
+            }
+        };
+        long recordsImported;
+        int chunksCommitted;
+        long studentsCreated;
+        long coursesCreated;
+        long enrolmentsCreated;
+
+        ImportRun(String jobName) {
+            this.jobName = jobName;
+        }
+    }
+
+    private static class ChunkResult {
+        final Map<CourseKey, Long> courseIds = new HashMap<>();
+        final Map<String, Long> emailIds = new HashMap<>();
+        final Set<Long> existingStudentIds = new HashSet<>();
+        long studentsCreated;
+        long coursesCreated;
+        long enrolmentsCreated;
+    }
+}
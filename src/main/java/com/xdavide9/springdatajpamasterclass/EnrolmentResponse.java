@@ -0,0 +1,7 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.time.LocalDateTime;
+
+// an enrolment of a student with the columns of its course as returned by StudentController
+public record EnrolmentResponse(Long courseId, String courseName, String department, LocalDateTime createdAt) {
+}
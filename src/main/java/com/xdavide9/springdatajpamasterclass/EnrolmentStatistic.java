@@ -0,0 +1,31 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// a counter of enrolments: per course (bucket is the course id), per department (the department name)
+// or per day the enrolments were created (the date as yyyy-MM-dd, so a range of days is a range of buckets)
+// a counter is split over stripes (rows with the same dimension and bucket), the enrolments are their sum
+// written by EnrolmentStatistics with plain sql upserts in the transaction of the enrolments they count, never through jpa
+// and not in the second level cache for that reason
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@Entity(name = "EnrolmentStatistic")
+@Table(name = "enrolment_statistic")
+public class EnrolmentStatistic {
+
+    public enum Dimension {
+        COURSE, DEPARTMENT, DAY
+    }
+
+    @EmbeddedId
+    private EnrolmentStatisticId id;
+    @Column(
+            name = "enrolments",
+            nullable = false
+    )
+    private long enrolments;
+}
@@ -0,0 +1,36 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import lombok.*;
+
+@Embeddable
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@EqualsAndHashCode
+@ToString
+public class EnrolmentStatisticId {
+    @Enumerated(EnumType.STRING)
+    @Column(
+            name = "dimension",
+            length = 16,
+            updatable = false
+    )
+    private EnrolmentStatistic.Dimension dimension;
+    @Column(
+            name = "bucket",
+            updatable = false,
+            columnDefinition = "TEXT"
+    )
+    private String bucket;
+    // the counter is the sum of its stripes, see V7__enrolment_statistic_stripes.sql
+    @Column(
+            name = "stripe",
+            updatable = false
+    )
+    private int stripe;
+}
@@ -0,0 +1,20 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface EnrolmentStatisticRepository extends CrudRepository<EnrolmentStatistic, EnrolmentStatisticId> {
+
+    // the stripes of a counter, a range of the primary key
+    @Query("SELECT coalesce(sum(s.enrolments), 0) FROM EnrolmentStatistic s WHERE s.id.dimension = ?1 AND s.id.bucket = ?2")
+    long sumByDimensionAndBucket(EnrolmentStatistic.Dimension dimension, String bucket);
+
+    // a range of the primary key, as many rows as buckets (days) times their stripes whatever the number of enrolments
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.EnrolmentCount(s.id.bucket, sum(s.enrolments)) FROM EnrolmentStatistic s " +
+            "WHERE s.id.dimension = ?1 AND s.id.bucket BETWEEN ?2 AND ?3 GROUP BY s.id.bucket ORDER BY s.id.bucket")
+    List<EnrolmentCount> sumByDimensionAndBucketBetween(EnrolmentStatistic.Dimension dimension, String from, String to);
+}
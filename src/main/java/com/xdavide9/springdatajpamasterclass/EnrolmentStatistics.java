@@ -0,0 +1,235 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// keeps the enrolment_statistic counters (see EnrolmentStatistic) in step with the enrolment table
+// - every Enrolment inserted or deleted through hibernate is picked up by the POST_INSERT/POST_DELETE listeners,
+//   bulk statements don't fire them so whoever runs one calls enrolmentsChanged (StudentRepositoryCustomImpl)
+// - the changes of a transaction are summed up per course and per day and written just before it commits
+//   (a BeforeTransactionCompletionProcess, after the last flush) with one upsert per dimension:
+//   3 statements whether the transaction enrolled 1 student or imported 100000 enrolments, and a rollback writes nothing
+// - a counter is split over masterclass.enrolment-statistics.stripes rows (see V7__enrolment_statistic_stripes.sql), a transaction
+//   adds its deltas to the rows of one stripe picked at random: a row is locked from the upsert to the commit, with one row per
+//   counter every enrolment in a course (and every enrolment of the day) would queue there, with stripes the transactions running
+//   at the same time mostly write different rows (two of them on the same stripe queue like before, only those two)
+// - the rows are upserted in key order (courses, then departments, then days) so two transactions touching
+//   the same counters lock them in the same order and can't deadlock, the department of a course is read by the upsert itself
+// reconcile recounts everything from the enrolment table and adds a correction to the counters that drifted
+// (a bug, a manual fix in the database)
+@Component
+@Slf4j
+public class EnrolmentStatistics implements PostInsertEventListener, PostDeleteEventListener, SmartInitializingSingleton {
+
+    private static final String UPSERT = " ON CONFLICT (dimension, bucket, stripe) DO UPDATE SET enrolments = enrolment_statistic.enrolments + excluded.enrolments";
+    private static final String UPSERT_COURSES = "INSERT INTO enrolment_statistic (dimension, bucket, stripe, enrolments) " +
+            "SELECT 'COURSE', d.course_id::text, ?, d.delta FROM unnest(?::bigint[], ?::bigint[]) AS d(course_id, delta) " +
+            "ORDER BY d.course_id" + UPSERT;
+    private static final String UPSERT_DEPARTMENTS = "INSERT INTO enrolment_statistic (dimension, bucket, stripe, enrolments) " +
+            "SELECT 'DEPARTMENT', c.department, ?, sum(d.delta) FROM unnest(?::bigint[], ?::bigint[]) AS d(course_id, delta) " +
+            "JOIN course c ON c.id = d.course_id GROUP BY c.department ORDER BY c.department" + UPSERT;
+    private static final String UPSERT_DAYS = "INSERT INTO enrolment_statistic (dimension, bucket, stripe, enrolments) " +
+            "SELECT 'DAY', d.day, ?, d.delta FROM unnest(?::text[], ?::bigint[]) AS d(day, delta) " +
+            "ORDER BY d.day" + UPSERT;
+    private static final String MOVE_DEPARTMENT = "WITH moved AS (DELETE FROM enrolment_statistic WHERE dimension = 'DEPARTMENT' AND bucket = ? RETURNING stripe, enrolments) " +
+            "INSERT INTO enrolment_statistic (dimension, bucket, stripe, enrolments) SELECT 'DEPARTMENT', ?, stripe, enrolments FROM moved " +
+            "ORDER BY stripe" + UPSERT;
+    // what the counters should be, compared with the sum of their stripes: the wrong ones get the difference added to their
+    // stripe 0 (the rows of the other stripes are left alone) and the ones without enrolments anymore are deleted,
+    // returns how many of them had a wrong value
+    private static final String RECONCILE = """
+            WITH expected AS (
+                SELECT 'COURSE' AS dimension, e.course_id::text AS bucket, count(*) AS enrolments FROM enrolment e GROUP BY e.course_id
+                UNION ALL
+                SELECT 'DEPARTMENT', c.department, count(*) FROM enrolment e JOIN course c ON c.id = e.course_id GROUP BY c.department
+                UNION ALL
+                SELECT 'DAY', to_char(e.created_at, 'YYYY-MM-DD'), count(*) FROM enrolment e GROUP BY to_char(e.created_at, 'YYYY-MM-DD')
+            ), counted AS (
+                SELECT dimension, bucket, sum(enrolments) AS enrolments FROM enrolment_statistic GROUP BY dimension, bucket
+            ), fixed AS (
+                INSERT INTO enrolment_statistic (dimension, bucket, stripe, enrolments)
+                SELECT x.dimension, x.bucket, 0, x.enrolments - coalesce(c.enrolments, 0) FROM expected x
+                LEFT JOIN counted c ON c.dimension = x.dimension AND c.bucket = x.bucket
+                WHERE c.enrolments IS DISTINCT FROM x.enrolments
+                ON CONFLICT (dimension, bucket, stripe) DO UPDATE SET enrolments = enrolment_statistic.enrolments + excluded.enrolments
+                RETURNING 1
+            ), removed AS (
+                DELETE FROM enrolment_statistic s
+                WHERE NOT EXISTS (SELECT 1 FROM expected x WHERE x.dimension = s.dimension AND x.bucket = s.bucket)
+                RETURNING s.dimension, s.bucket, s.enrolments
+            )
+            SELECT (SELECT count(*) FROM fixed)
+                 + (SELECT count(*) FROM (SELECT 1 FROM removed GROUP BY dimension, bucket HAVING sum(enrolments) <> 0) wrong)
+            """;
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final TransactionTemplate transactionTemplate;
+    private final int stripes;
+    @PersistenceContext
+    private EntityManager entityManager;
+    // the changes not written yet, by session (one session per transaction)
+    private final Map<SessionImplementor, Changes> pending = new ConcurrentHashMap<>();
+
+    public EnrolmentStatistics(EntityManagerFactory entityManagerFactory,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${masterclass.enrolment-statistics.stripes:16}") int stripes) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.transactionTemplate = transactionTemplate;
+        this.stripes = stripes;
+    }
+
+    // the listeners are registered after every singleton was created, see Outbox
+    @Override
+    public void afterSingletonsInstantiated() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Enrolment enrolment) {
+            enrolmentsChanged(event.getSession(), enrolment.getId().getCourseId(), enrolment.getCreatedAt().toLocalDate(), 1);
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Enrolment enrolment) {
+            enrolmentsChanged(event.getSession(), enrolment.getId().getCourseId(), enrolment.getCreatedAt().toLocalDate(), -1);
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    // delta enrolments of the course created on that day, written when the current transaction commits
+    public void enrolmentsChanged(Long courseId, LocalDate day, long delta) {
+        enrolmentsChanged(entityManager.unwrap(SessionImplementor.class), courseId, day, delta);
+    }
+
+    private void enrolmentsChanged(SessionImplementor session, Long courseId, LocalDate day, long delta) {
+        pending.computeIfAbsent(session, this::register).add(courseId, day, delta);
+    }
+
+    private Changes register(SessionImplementor session) {
+        session.getActionQueue().registerProcess(s -> {
+            Changes changes = pending.remove(s);
+            if (changes != null) {
+                s.doWork(changes::write);
+            }
+        });
+        // on a rollback the process above doesn't run
+        session.getActionQueue().registerProcess((success, s) -> pending.remove(s));
+        return new Changes(ThreadLocalRandom.current().nextInt(stripes));
+    }
+
+    // courses moved by CourseRepository.updateDepartment take their counter with them, right away
+    // (an enrolment committed between the two can still land on the old name, reconcile moves it)
+    public void departmentRenamed(String department, String newDepartment) {
+        entityManager.unwrap(SessionImplementor.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(MOVE_DEPARTMENT)) {
+                statement.setString(1, department);
+                statement.setString(2, newDepartment);
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    // the table is locked against the upserts (plain reads go on) so no transaction commits its enrolments between
+    // the recount and the fix: the ones that committed before are counted, the others wait and add their changes after
+    @Scheduled(cron = "${masterclass.enrolment-statistics.reconcile-cron:0 30 3 * * *}")
+    public long reconcile() {
+        long start = System.nanoTime();
+        long corrected = Objects.requireNonNull(transactionTemplate.execute(status -> {
+            long[] result = new long[1];
+            entityManager.unwrap(SessionImplementor.class).doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LOCK TABLE enrolment_statistic IN EXCLUSIVE MODE");
+                    try (ResultSet resultSet = statement.executeQuery(RECONCILE)) {
+                        resultSet.next();
+                        result[0] = resultSet.getLong(1);
+                    }
+                }
+            });
+            return result[0];
+        }));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (corrected > 0) {
+            log.warn("Enrolment statistics reconciled in {} ms, {} counters were wrong", millis, corrected);
+        } else {
+            log.info("Enrolment statistics reconciled in {} ms, nothing to fix", millis);
+        }
+        return corrected;
+    }
+
+    private static final class Changes {
+
+        private final int stripe;
+        private final Map<Long, Long> courses = new TreeMap<>();
+        private final Map<String, Long> days = new TreeMap<>();
+
+        Changes(int stripe) {
+            this.stripe = stripe;
+        }
+
+        synchronized void add(Long courseId, LocalDate day, long delta) {
+            courses.merge(courseId, delta, Long::sum);
+            days.merge(day.toString(), delta, Long::sum);
+        }
+
+        // the statements run outside the monitor, a virtual thread blocked on the database inside it would pin its carrier
+        void write(Connection connection) throws SQLException {
+            Map<Long, Long> courses;
+            Map<String, Long> days;
+            synchronized (this) {
+                courses = new TreeMap<>(this.courses);
+                days = new TreeMap<>(this.days);
+            }
+            courses.values().removeIf(delta -> delta == 0);
+            days.values().removeIf(delta -> delta == 0);
+            if (courses.isEmpty() && days.isEmpty()) {
+                return;
+            }
+            Long[] courseIds = courses.keySet().toArray(Long[]::new);
+            Long[] courseDeltas = courses.values().toArray(Long[]::new);
+            upsert(connection, UPSERT_COURSES, connection.createArrayOf("bigint", courseIds), courseDeltas);
+            upsert(connection, UPSERT_DEPARTMENTS, connection.createArrayOf("bigint", courseIds), courseDeltas);
+            upsert(connection, UPSERT_DAYS, connection.createArrayOf("text", days.keySet().toArray(String[]::new)),
+                    days.values().toArray(Long[]::new));
+        }
+
+        private void upsert(Connection connection, String sql, Array keys, Long[] deltas) throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setInt(1, stripe);
+                statement.setArray(2, keys);
+                statement.setArray(3, connection.createArrayOf("bigint", deltas));
+                statement.executeUpdate();
+            }
+        }
+    }
+}
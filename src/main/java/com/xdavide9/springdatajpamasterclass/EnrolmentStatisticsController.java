@@ -0,0 +1,35 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.AllArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+//   GET /api/statistics/enrolments/courses/{id}
+//   GET /api/statistics/enrolments/departments/{department}
+//   GET /api/statistics/enrolments/days?from=&to=     iso dates, both included
+@RestController
+@RequestMapping("/api/statistics/enrolments")
+@AllArgsConstructor
+public class EnrolmentStatisticsController {
+
+    private final EnrolmentStatisticsService enrolmentStatisticsService;
+
+    @GetMapping("/courses/{id}")
+    public long byCourse(@PathVariable Long id) {
+        return enrolmentStatisticsService.countByCourse(id);
+    }
+
+    @GetMapping("/departments/{department}")
+    public long byDepartment(@PathVariable String department) {
+        return enrolmentStatisticsService.countByDepartment(department);
+    }
+
+    @GetMapping("/days")
+    public Map<LocalDate, Long> byDay(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return enrolmentStatisticsService.countByDay(from, to);
+    }
+}
@@ -0,0 +1,49 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// the enrolment counts the dashboards ask for, read from the counters kept by EnrolmentStatistics:
+// a range of the primary key (the stripes of the counter, of every day) instead of a COUNT over the enrolment table
+@Service
+@AllArgsConstructor
+public class EnrolmentStatisticsService {
+
+    static final int MAX_DAYS = 366;
+
+    private final EnrolmentStatisticRepository enrolmentStatisticRepository;
+
+    @Transactional(readOnly = true)
+    public long countByCourse(Long courseId) {
+        return count(EnrolmentStatistic.Dimension.COURSE, courseId.toString());
+    }
+
+    @Transactional(readOnly = true)
+    public long countByDepartment(String department) {
+        return count(EnrolmentStatistic.Dimension.DEPARTMENT, department);
+    }
+
+    // every day from from to to (both included), 0 for the days without enrolments
+    @Transactional(readOnly = true)
+    public Map<LocalDate, Long> countByDay(LocalDate from, LocalDate to) {
+        if (to.isBefore(from) || from.plusDays(MAX_DAYS).isBefore(to)) {
+            throw new IllegalArgumentException("from must not be after to and they can be at most " + MAX_DAYS + " days apart");
+        }
+        Map<LocalDate, Long> days = new LinkedHashMap<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            days.put(day, 0L);
+        }
+        enrolmentStatisticRepository.sumByDimensionAndBucketBetween(EnrolmentStatistic.Dimension.DAY, from.toString(), to.toString())
+                .forEach(count -> days.put(LocalDate.parse(count.bucket()), count.enrolments()));
+        return days;
+    }
+
+    private long count(EnrolmentStatistic.Dimension dimension, String bucket) {
+        return enrolmentStatisticRepository.sumByDimensionAndBucket(dimension, bucket);
+    }
+}
@@ -0,0 +1,36 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// the last line of a feed whose chunk has been committed
+// written in the same transaction as the chunk itself, so a restarted import continues right after it
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@ToString
+@Entity(name = "ImportCheckpoint")
+@Table(name = "import_checkpoint")
+public class ImportCheckpoint {
+    @Id
+    @Column(
+            name = "job_name",
+            updatable = false,
+            columnDefinition = "TEXT"
+    )
+    private String jobName;
+    @Column(
+            name = "last_committed_line",
+            nullable = false
+    )
+    private long lastCommittedLine;
+    @Column(
+            name = "updated_at",
+            nullable = false
+    )
+    private LocalDateTime updatedAt;
+}
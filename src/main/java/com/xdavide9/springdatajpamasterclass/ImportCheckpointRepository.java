@@ -0,0 +1,8 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ImportCheckpointRepository extends CrudRepository<ImportCheckpoint, String> {
+}
@@ -0,0 +1,98 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metamodel.mapping.ForeignKeyDescriptor;
+import org.hibernate.metamodel.mapping.PluralAttributeMapping;
+import org.hibernate.metamodel.mapping.internal.ToOneAttributeMapping;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+// every association mapped by the entities is a join on the foreign key columns of one of the tables
+// (book.student_id for Student.books and Book.student...), postgres doesn't index them on its own
+// and without an index loading the association or deleting the row it points to scans the whole table
+// this check lists the join columns of every association from hibernate's metamodel and looks for an index
+// that starts with them (a primary key or a unique constraint count as well), the ones without one are logged at startup
+@Component
+@Slf4j
+public class JoinIndexCheck {
+
+    // the key columns of every index of a table, in index order
+    private static final String INDEXES = """
+            SELECT array_agg(a.attname::text ORDER BY k.position)
+            FROM pg_index i
+            CROSS JOIN LATERAL unnest(i.indkey::int2[]) WITH ORDINALITY AS k(attnum, position)
+            JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = k.attnum
+            WHERE i.indrelid = to_regclass(?) AND k.position <= i.indnkeyatts
+            GROUP BY i.indexrelid
+            """;
+
+    record Join(String table, List<String> columns, Set<String> associations) {
+
+        @Override
+        public String toString() {
+            return table + "(" + String.join(", ", columns) + ") for " + String.join(", ", associations);
+        }
+    }
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final JdbcTemplate jdbcTemplate;
+
+    public JoinIndexCheck(EntityManagerFactory entityManagerFactory, JdbcTemplate jdbcTemplate) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reportUnindexedJoins() {
+        List<Join> unindexed = unindexedJoins();
+        unindexed.forEach(join -> log.warn("No index starts with the join columns {}", join));
+        if (unindexed.isEmpty()) {
+            log.info("Every association of the entities has an index on its join columns");
+        }
+    }
+
+    public List<Join> unindexedJoins() {
+        return joins().stream()
+                .filter(join -> !indexed(join))
+                .toList();
+    }
+
+    // the joins of both sides of an association are the same columns, they're listed once with both names
+    List<Join> joins() {
+        Map<String, Join> joins = new TreeMap<>();
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class).getMappingMetamodel().forEachEntityDescriptor(entity ->
+                entity.forEachAttributeMapping(attribute -> {
+                    ForeignKeyDescriptor foreignKey = null;
+                    if (attribute instanceof ToOneAttributeMapping toOne && toOne.getSideNature() == ForeignKeyDescriptor.Nature.KEY) {
+                        foreignKey = toOne.getForeignKeyDescriptor();
+                    } else if (attribute instanceof PluralAttributeMapping plural) {
+                        foreignKey = plural.getKeyDescriptor();
+                    }
+                    if (foreignKey == null) {
+                        return;
+                    }
+                    List<String> columns = new ArrayList<>();
+                    foreignKey.getKeyPart().forEachSelectable((index, selectable) -> columns.add(selectable.getSelectionExpression()));
+                    String table = foreignKey.getKeyTable();
+                    joins.computeIfAbsent(table + columns, key -> new Join(table, columns, new TreeSet<>()))
+                            .associations()
+                            .add(entity.getJavaType().getJavaTypeClass().getSimpleName() + "." + attribute.getAttributeName());
+                }));
+        return new ArrayList<>(joins.values());
+    }
+
+    // the columns can be in any order as long as they're the first ones of the index
+    private boolean indexed(Join join) {
+        Set<String> columns = new HashSet<>(join.columns());
+        return jdbcTemplate.query(INDEXES, (resultSet, row) -> Arrays.asList((String[]) resultSet.getArray(1).getArray()), join.table())
+                .stream()
+                .anyMatch(index -> index.size() >= columns.size()
+                        && new HashSet<>(index.subList(0, columns.size())).equals(columns));
+    }
+}
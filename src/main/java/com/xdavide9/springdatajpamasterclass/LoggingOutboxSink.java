@@ -0,0 +1,15 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+// the sink when there is no broker: the events are only logged (at debug, turn it on to see them)
+@Slf4j
+public class LoggingOutboxSink implements OutboxSink {
+
+    @Override
+    public void publish(List<OutboxEvent> events) {
+        events.forEach(event -> log.debug("{} {} {}", event.getType(), event.getStudentId(), event.getPayload()));
+    }
+}
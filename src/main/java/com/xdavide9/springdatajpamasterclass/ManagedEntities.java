@@ -0,0 +1,30 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// the entities of the current persistence context a bulk statement changed behind its back, so only those are detached
+// or refreshed afterwards instead of clearing the whole context (which detaches everything the caller holds)
+// a walk over the entities of the session, nothing is read from the database
+final class ManagedEntities {
+
+    private ManagedEntities() {
+    }
+
+    static <T> List<T> matching(EntityManager entityManager, Class<T> type, Predicate<T> affected) {
+        List<T> matching = new ArrayList<>();
+        for (Map.Entry<Object, EntityEntry> entry : entityManager.unwrap(SessionImplementor.class).getPersistenceContextInternal().reentrantSafeEntityEntries()) {
+            if (type.isInstance(entry.getKey()) && entry.getValue().getStatus() == Status.MANAGED && affected.test(type.cast(entry.getKey()))) {
+                matching.add(type.cast(entry.getKey()));
+            }
+        }
+        return matching;
+    }
+}
@@ -0,0 +1,35 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// what ends up on /actuator/metrics and /actuator/prometheus (see management.metrics in application.yaml)
+// - spring.data.repository.invocations: every method of every repository, auto timed by spring boot
+// - masterclass.student.service: every StudentService operation, through @Timed and the aspect below
+// - hibernate.*: statements, entities loaded/flushed, second level cache hits and misses (hibernate.generate_statistics)
+// - hikaricp.connections.acquire: how long a thread waited for a connection from the pool
+// - cache.*: the second level cache regions (SecondLevelCacheSupport) and the email near cache (StudentEmailNearCache)
+@Configuration
+public class MetricsConfig {
+
+    // @Timed does nothing on its own outside of web controllers
+    @Bean
+    TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    // only when nothing else is set as statement inspector (some tests count statements with their own)
+    @Bean
+    HibernatePropertiesCustomizer sampledSqlLoggerCustomizer(@Value("${masterclass.sql-log.sample-rate:0}") double sampleRate) {
+        return properties -> {
+            if (sampleRate > 0) {
+                properties.putIfAbsent(AvailableSettings.STATEMENT_INSPECTOR, new SampledSqlLogger(sampleRate));
+            }
+        };
+    }
+}
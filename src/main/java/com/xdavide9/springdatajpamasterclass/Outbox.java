@@ -0,0 +1,194 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// writes an outbox_event row (see OutboxEvent) for every change of a student, in the transaction of the change
+// - students, books and enrolments inserted or deleted through hibernate are picked up by the POST_INSERT/POST_DELETE listeners
+//   (StudentService, the repositories, the import, cascades...), bulk and targeted statements don't fire them
+//   so whoever runs one calls append (StudentService, StudentRepositoryCustomImpl)
+// - a deleted student is a single STUDENT_DELETED, the books and enrolments that go with it don't get events of their own
+// - the enrolments and books of a partition detached by TimePartitions don't get events, they were archived and not removed
+// - the events of a transaction are inserted with one jdbc batch just before it commits (a BeforeTransactionCompletionProcess,
+//   after the last flush, the same way EnrolmentStatistics writes its counters), a rollback writes nothing
+// - the ids of a student's events follow the commits of its transactions (OutboxDispatcher publishes them by id): before nextval the
+//   insert takes an advisory lock per student (pg_advisory_xact_lock, kept until the commit), a second transaction of the student
+//   gets its ids once the first one committed. The insert is the last of the processes before the commit (the queue is polled, the
+//   one registered first registers it again at its end), holding a student's lock it doesn't wait for any row lock of another process
+// payloads:
+//   STUDENT_CREATED    studentId, firstName, lastName, email
+//   STUDENT_DELETED    studentId
+//   STUDENT_ENROLLED   studentId, courseId, createdAt
+//   STUDENT_UNENROLLED studentId, courseId
+//   BOOK_ADDED         studentId, bookId, bookName
+//   BOOK_REMOVED       studentId and bookId or bookName (whichever the targeted delete knew, both through hibernate)
+@Component
+public class Outbox implements PostInsertEventListener, PostDeleteEventListener, SmartInitializingSingleton {
+
+    private static final int LOCK_KEY = 0x0b0f;   // any constant, the same for every node, the student is the second key
+    private static final String LOCK = "SELECT pg_advisory_xact_lock(?, ?)";
+    private static final String INSERT = "INSERT INTO outbox_event (id, type, student_id, payload, created_at) " +
+            "VALUES (nextval('outbox_event_sequence'), ?, ?, ?, ?)";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final ObjectMapper objectMapper;
+    @PersistenceContext
+    private EntityManager entityManager;
+    // the events not written yet, by session (one session per transaction)
+    private final Map<SessionImplementor, List<OutboxEvent>> pending = new ConcurrentHashMap<>();
+
+    public Outbox(EntityManagerFactory entityManagerFactory, ObjectMapper objectMapper) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.objectMapper = objectMapper;
+    }
+
+    // once every singleton is created instead of @PostConstruct: the EntityManagerFactory is built in the background
+    // (bootstrap-mode deferred) and unwrapping it waits for hibernate, the beans created after this one shouldn't wait with it
+    @Override
+    public void afterSingletonsInstantiated() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        SessionImplementor session = event.getSession();
+        if (event.getEntity() instanceof Student student) {
+            append(session, OutboxEvent.Type.STUDENT_CREATED, student.getId(), payload(
+                    "studentId", student.getId(), "firstName", student.getFirstName(),
+                    "lastName", student.getLastName(), "email", student.getEmail()));
+        } else if (event.getEntity() instanceof Book book && book.getStudent() != null) {
+            append(session, OutboxEvent.Type.BOOK_ADDED, book.getStudent().getId(), payload(
+                    "studentId", book.getStudent().getId(), "bookId", book.getId(), "bookName", book.getBookName()));
+        } else if (event.getEntity() instanceof Enrolment enrolment) {
+            Long studentId = enrolment.getId().getStudentId();
+            append(session, OutboxEvent.Type.STUDENT_ENROLLED, studentId, payload(
+                    "studentId", studentId, "courseId", enrolment.getId().getCourseId(), "createdAt", enrolment.getCreatedAt()));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        SessionImplementor session = event.getSession();
+        if (event.getEntity() instanceof Student student) {
+            append(session, OutboxEvent.Type.STUDENT_DELETED, student.getId(), payload("studentId", student.getId()));
+        } else if (event.getEntity() instanceof Book book && book.getStudent() != null && !isDeleted(session, book.getStudent())) {
+            append(session, OutboxEvent.Type.BOOK_REMOVED, book.getStudent().getId(), payload(
+                    "studentId", book.getStudent().getId(), "bookId", book.getId(), "bookName", book.getBookName()));
+        } else if (event.getEntity() instanceof Enrolment enrolment && !isDeleted(session, enrolment.getStudent())) {
+            Long studentId = enrolment.getId().getStudentId();
+            append(session, OutboxEvent.Type.STUDENT_UNENROLLED, studentId, payload(
+                    "studentId", studentId, "courseId", enrolment.getId().getCourseId()));
+        }
+    }
+
+    // the student is deleted in the same flush (the cascade of em.remove), a proxy that was never loaded can't be
+    private static boolean isDeleted(SessionImplementor session, Student student) {
+        Object entity = student;
+        if (student instanceof HibernateProxy proxy) {
+            if (proxy.getHibernateLazyInitializer().isUninitialized()) {
+                return false;
+            }
+            entity = proxy.getHibernateLazyInitializer().getImplementation();
+        }
+        EntityEntry entry = session.getPersistenceContextInternal().getEntry(entity);
+        return entry != null && (entry.getStatus() == Status.DELETED || entry.getStatus() == Status.GONE);
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    // key value pairs, in this order in the json
+    public static Map<String, Object> payload(Object... keysAndValues) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            payload.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return payload;
+    }
+
+    // written when the current transaction commits
+    public void append(OutboxEvent.Type type, Long studentId, Map<String, Object> payload) {
+        append(entityManager.unwrap(SessionImplementor.class), type, studentId, payload);
+    }
+
+    private void append(SessionImplementor session, OutboxEvent.Type type, Long studentId, Map<String, Object> payload) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not write the payload of " + type, e);
+        }
+        List<OutboxEvent> events = pending.computeIfAbsent(session, this::register);
+        synchronized (events) {
+            events.add(new OutboxEvent(null, type, studentId, json, LocalDateTime.now()));
+        }
+    }
+
+    private List<OutboxEvent> register(SessionImplementor session) {
+        session.getActionQueue().registerProcess(s -> s.getActionQueue().registerProcess(last -> {
+            List<OutboxEvent> events = pending.remove(last);
+            if (events != null) {
+                last.doWork(connection -> insert(connection, events));
+            }
+        }));
+        // on a rollback the process above doesn't run
+        session.getActionQueue().registerProcess((success, s) -> pending.remove(s));
+        return new ArrayList<>();
+    }
+
+    // copied under the monitor, the batch runs outside it (a virtual thread blocked on the database inside it would pin its carrier)
+    private static void insert(Connection connection, List<OutboxEvent> pendingEvents) throws SQLException {
+        List<OutboxEvent> events;
+        synchronized (pendingEvents) {
+            events = List.copyOf(pendingEvents);
+        }
+        // in the same order in every transaction, two of them with the same students don't wait for each other
+        // (students with the same second key share a lock, they only wait a little longer)
+        SortedSet<Integer> students = new TreeSet<>();
+        events.forEach(event -> students.add(Long.hashCode(event.getStudentId())));
+        try (PreparedStatement lock = connection.prepareStatement(LOCK)) {
+            for (int student : students) {
+                lock.setInt(1, LOCK_KEY);
+                lock.setInt(2, student);
+                lock.executeQuery().close();
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            for (OutboxEvent event : events) {
+                statement.setString(1, event.getType().name());
+                statement.setLong(2, event.getStudentId());
+                statement.setString(3, event.getPayload());
+                statement.setTimestamp(4, Timestamp.valueOf(event.getCreatedAt()));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// the sink of OutboxDispatcher, a @Primary OutboxSink bean (a broker client, the recording sink of the tests) takes its place
+@Configuration
+public class OutboxConfig {
+
+    @Bean
+    OutboxSink loggingOutboxSink() {
+        return new LoggingOutboxSink();
+    }
+}
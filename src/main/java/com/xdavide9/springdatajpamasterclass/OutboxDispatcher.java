@@ -0,0 +1,163 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// publishes the outbox (see Outbox) to the OutboxSink in batches, the events of a student in the order of their ids, which is the
+// order their transactions committed in (the student locks of Outbox)
+// - every batch is a transaction: the oldest masterclass.outbox.batch-size events are locked with FOR UPDATE SKIP LOCKED,
+//   published and deleted, so the masterclass.outbox.workers threads of this node and the ones of the other nodes each take
+//   different events and none of them is published twice (unless the sink fails after publishing it, see OutboxSink)
+// - a batch leaves out the events of a student who has an earlier one in another batch (a row it skipped), they stay in the outbox
+//   and a later batch takes them once that one committed: the events of a student never overtake each other
+// a worker goes on with the next batch right away while they are full, and sleeps masterclass.outbox.poll-interval when it found less
+// - masterclass.outbox.dispatched: events published
+// - masterclass.outbox.lag: from the commit of an event (its created_at, close enough) to its publication
+// - masterclass.outbox.batch: how long a whole batch took (select, publish, delete, commit)
+@Component
+@Slf4j
+public class OutboxDispatcher {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxSink outboxSink;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int workers;
+    private final int batchSize;
+    private final Duration pollInterval;
+    private final Counter dispatched;
+    private final Timer lag;
+    private final Timer batch;
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    public OutboxDispatcher(OutboxEventRepository outboxEventRepository,
+                            OutboxSink outboxSink,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry registry,
+                            @Value("${masterclass.outbox.enabled:true}") boolean enabled,
+                            @Value("${masterclass.outbox.workers:2}") int workers,
+                            @Value("${masterclass.outbox.batch-size:500}") int batchSize,
+                            @Value("${masterclass.outbox.poll-interval:1s}") Duration pollInterval) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxSink = outboxSink;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+        this.dispatched = Counter.builder("masterclass.outbox.dispatched").register(registry);
+        this.lag = Timer.builder("masterclass.outbox.lag").publishPercentileHistogram().register(registry);
+        this.batch = Timer.builder("masterclass.outbox.batch").register(registry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "outbox-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::work);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                if (dispatchBatch() < batchSize) {
+                    Thread.sleep(pollInterval.toMillis());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // the batch was rolled back, its events are still there for the next attempt
+                log.warn("Outbox batch failed, retrying in {}: {}", pollInterval, e.getMessage());
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // publishes (and deletes) one batch, returns how many events it took (0: none to take right now), the ones it left out included
+    public int dispatchBatch() {
+        long start = System.nanoTime();
+        Batch result = Objects.requireNonNull(transactionTemplate.execute(status -> {
+            List<OutboxEvent> taken = outboxEventRepository.findUnpublished(Limit.of(batchSize));
+            if (taken.isEmpty()) {
+                return new Batch(0, List.of());
+            }
+            List<OutboxEvent> events = withoutHeldStudents(taken);
+            if (!events.isEmpty()) {
+                try {
+                    outboxSink.publish(events);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Outbox sink failed", e);
+                }
+                outboxEventRepository.deleteByIdIn(events.stream().map(OutboxEvent::getId).toList());
+            }
+            return new Batch(taken.size(), events);
+        }));
+        if (!result.published().isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            result.published().forEach(event -> lag.record(Duration.between(event.getCreatedAt(), now)));
+            dispatched.increment(result.published().size());
+            batch.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+        return result.taken();
+    }
+
+    // the events taken, but for the students with an earlier event in another batch: from the first of those on, the student's
+    // events of this batch would be published before it
+    private List<OutboxEvent> withoutHeldStudents(List<OutboxEvent> taken) {
+        Map<Long, Long> firstHeld = outboxEventRepository.findFirstHeldBefore(
+                        taken.get(taken.size() - 1).getId(), taken.stream().map(OutboxEvent::getId).toList())
+                .stream()
+                .collect(Collectors.toMap(OutboxEventKey::studentId, OutboxEventKey::id));
+        if (firstHeld.isEmpty()) {
+            return taken;
+        }
+        return taken.stream()
+                .filter(event -> !firstHeld.containsKey(event.getStudentId()) || event.getId() < firstHeld.get(event.getStudentId()))
+                .toList();
+    }
+
+    private record Batch(int taken, List<OutboxEvent> published) {
+    }
+}
@@ -0,0 +1,64 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// a change of a student waiting to be published by OutboxDispatcher, deleted once it has been
+// written by Outbox with plain sql in the transaction of the change itself, so it exists if and only if the change committed
+// the payload is json, what it holds depends on the type (see Outbox)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@Entity(name = "OutboxEvent")
+@Table(name = "outbox_event")
+public class OutboxEvent {
+
+    public enum Type {
+        STUDENT_CREATED, STUDENT_DELETED, STUDENT_ENROLLED, STUDENT_UNENROLLED, BOOK_ADDED, BOOK_REMOVED
+    }
+
+    @Id
+    @SequenceGenerator(
+            name = "outbox_event_sequence",
+            sequenceName = "outbox_event_sequence",
+            allocationSize = 1  // the ids are taken by Outbox with nextval, one per event
+    )
+    @GeneratedValue(
+            generator = "outbox_event_sequence",
+            strategy = GenerationType.SEQUENCE
+    )
+    @Column(
+            name = "id",
+            updatable = false
+    )
+    private Long id;
+    @Enumerated(EnumType.STRING)
+    @Column(
+            name = "type",
+            nullable = false,
+            length = 32
+    )
+    private Type type;
+    // the key downstream systems partition by, the events of a student are published in the order of their ids
+    @Column(
+            name = "student_id",
+            nullable = false
+    )
+    private Long studentId;
+    @Column(
+            name = "payload",
+            nullable = false,
+            columnDefinition = "TEXT"
+    )
+    private String payload;
+    @Column(
+            name = "created_at",
+            nullable = false,
+            columnDefinition = "TIMESTAMP WITHOUT TIME ZONE"
+    )
+    private LocalDateTime createdAt;
+}
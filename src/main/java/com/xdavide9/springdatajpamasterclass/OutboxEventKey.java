@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// the id of an outbox event and its student, without the payload (OutboxEventRepository.findFirstHeldBefore)
+public record OutboxEventKey(Long studentId, Long id) {
+}
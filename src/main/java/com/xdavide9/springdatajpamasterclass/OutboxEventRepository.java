@@ -0,0 +1,35 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends CrudRepository<OutboxEvent, Long> {
+
+    // the oldest events nobody else is publishing: SELECT ... FOR UPDATE SKIP LOCKED (a lock timeout of -2 is hibernate's SKIP_LOCKED)
+    // the rows stay locked until the transaction ends, so the other dispatchers (threads or nodes) take the next ones instead of waiting
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OutboxEvent e ORDER BY e.id")
+    List<OutboxEvent> findUnpublished(Limit limit);
+
+    // the first event of every student among the ones before the last of a batch that aren't in it: the rows findUnpublished skipped,
+    // held by the batches of other dispatchers or committed since (a range of the primary key, as long as the batches in flight)
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.OutboxEventKey(e.studentId, MIN(e.id)) FROM OutboxEvent e " +
+            "WHERE e.id < ?1 AND e.id NOT IN ?2 GROUP BY e.studentId")
+    List<OutboxEventKey> findFirstHeldBefore(long id, Collection<Long> batch);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM OutboxEvent e WHERE e.id IN ?1")
+    int deleteByIdIn(Collection<Long> ids);
+}
@@ -0,0 +1,13 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.util.List;
+
+// where OutboxDispatcher publishes the events: a broker client in production, LoggingOutboxSink by default
+// publish must not return before the broker has them, the events are deleted from the outbox right after
+// (if it throws they stay and are published again later, so the same event can be delivered twice: downstream dedups by id)
+// the events of a student come in the order they were written, in one call or in calls one after the other (never at the same time,
+// see OutboxDispatcher), the events of different students may be published in parallel by different workers
+public interface OutboxSink {
+
+    void publish(List<OutboxEvent> events) throws Exception;
+}
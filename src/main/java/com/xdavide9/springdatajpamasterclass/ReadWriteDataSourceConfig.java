@@ -0,0 +1,80 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+// two connection pools instead of the one spring boot would create, only when a replica is configured
+// - primary: spring.datasource.* (and spring.datasource.hikari.*) like before
+// - replica: masterclass.datasource.replica.* bound straight onto a HikariDataSource (jdbc-url, username, password, maximum-pool-size...)
+// both pools are beans so their hikaricp.* metrics are tagged with pool=primary and pool=replica
+// the DataSource everything else uses (jpa, JdbcTemplate) is the routing one, see ReadWriteRoutingDataSource
+// ReadYourWritesFilter tells it which client an api request is for
+@Configuration
+@ConditionalOnProperty(prefix = "masterclass.datasource.replica", name = "jdbc-url")
+@EnableScheduling
+public class ReadWriteDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("masterclass.datasource.replica")
+    HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);   // a write that ends up here by mistake fails instead of silently going to the replica
+        return dataSource;
+    }
+
+    @Bean
+    ReadWriteRoutingDataSource readWriteRoutingDataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                                          @Qualifier("replicaDataSource") DataSource replica,
+                                                          @Value("${masterclass.datasource.replica.read-your-writes-window:2s}") Duration readYourWritesWindow,
+                                                          MeterRegistry registry) {
+        return new ReadWriteRoutingDataSource(primary, replica, readYourWritesWindow, registry);
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    // right after ConnectionAdmissionFilter, a rejected request doesn't get this far
+    @Bean
+    FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(ReadWriteRoutingDataSource routingDataSource) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration = new FilterRegistrationBean<>(new ReadYourWritesFilter(routingDataSource));
+        registration.addUrlPatterns("/api/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+
+    @Bean
+    ReplicaLagMonitor replicaLagMonitor(@Qualifier("replicaDataSource") DataSource replica,
+                                        ReadWriteRoutingDataSource routingDataSource,
+                                        @Value("${masterclass.datasource.replica.lag-query}") String lagQuery,
+                                        @Value("${masterclass.datasource.replica.max-lag:1s}") Duration maxLag,
+                                        MeterRegistry registry) {
+        return new ReplicaLagMonitor(replica, routingDataSource, lagQuery, maxLag, registry);
+    }
+}
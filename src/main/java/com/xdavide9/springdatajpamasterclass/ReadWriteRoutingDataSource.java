@@ -0,0 +1,133 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+
+// sends the connections of read only transactions (@Transactional(readOnly = true), every read of a spring data repository)
+// to the replica pool and everything else to the primary
+// it has to be wrapped in a LazyConnectionDataSourceProxy: the transaction manager asks for a connection when the transaction
+// begins, before the read only flag is visible here, the proxy only gets the real one at the first statement
+// reads still go to the primary when
+// - the client committed a write less than readYourWritesWindow ago (the replica might not have it yet): the client of an api
+//   request is bound by ReadYourWritesFilter, which carries its last write between its requests whatever thread or node serves
+//   them, without a client (jobs, listeners, tests) it's the writes this thread committed
+// - ReplicaLagMonitor says the replica is too far behind
+// the commit times are wall clock millis, a client may be served by another node a little ahead or behind
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Target { PRIMARY, REPLICA }
+
+    // the client a request is served for, see ReadYourWritesFilter
+    interface Client {
+        // epoch millis, 0 if it made no write recently
+        long lastWriteCommittedAt();
+
+        void writeCommitted(long committedAt);
+    }
+
+    private final ThreadLocal<Client> client = new ThreadLocal<>();
+    private final ThreadLocal<Long> lastWriteCommittedAt = new ThreadLocal<>();
+
+    private final long readYourWritesWindowMillis;
+    private volatile boolean replicaLagging;
+    private final Counter writes;
+    private final Counter reads;
+    private final Counter readYourWrites;
+    private final Counter replicaLag;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, Duration readYourWritesWindow, MeterRegistry registry) {
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        readYourWritesWindowMillis = readYourWritesWindow.toMillis();
+        writes = routed(registry, Target.PRIMARY, "write");
+        reads = routed(registry, Target.REPLICA, "read-only");
+        readYourWrites = routed(registry, Target.PRIMARY, "read-your-writes");
+        replicaLag = routed(registry, Target.PRIMARY, "replica-lag");
+        afterPropertiesSet();
+    }
+
+    private static Counter routed(MeterRegistry registry, Target target, String reason) {
+        return Counter.builder("masterclass.datasource.routing")
+                .description("Connections handed out by ReadWriteRoutingDataSource")
+                .tag("target", target.name().toLowerCase())
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    void setReplicaLagging(boolean replicaLagging) {
+        this.replicaLagging = replicaLagging;
+    }
+
+    boolean isReplicaLagging() {
+        return replicaLagging;
+    }
+
+    Duration readYourWritesWindow() {
+        return Duration.ofMillis(readYourWritesWindowMillis);
+    }
+
+    // for the duration of a request, unbind in a finally
+    void bind(Client client) {
+        this.client.set(client);
+    }
+
+    void unbind() {
+        client.remove();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            rememberWriteOnCommit();
+            writes.increment();
+            return Target.PRIMARY;
+        }
+        if (readsItsOwnWrite()) {
+            readYourWrites.increment();
+            return Target.PRIMARY;
+        }
+        if (replicaLagging) {
+            replicaLag.increment();
+            return Target.PRIMARY;
+        }
+        reads.increment();
+        return Target.REPLICA;
+    }
+
+    // the window is open on both sides, a commit time from a node whose clock is ahead is still taken
+    private boolean readsItsOwnWrite() {
+        Client current = client.get();
+        Long lastWrite = current != null ? Long.valueOf(current.lastWriteCommittedAt()) : lastWriteCommittedAt.get();
+        if (lastWrite == null || lastWrite == 0) {
+            return false;
+        }
+        return Math.abs(System.currentTimeMillis() - lastWrite) < readYourWritesWindowMillis;
+    }
+
+    // a transaction that isn't read only is considered a write, once it commits the reads of the client (or of this thread)
+    // stay on the primary for a while
+    private void rememberWriteOnCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;     // auto commit connection outside of a transaction, nothing to wait for
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                long now = System.currentTimeMillis();
+                Client current = client.get();
+                if (current != null) {
+                    current.writeCommitted(now);
+                } else {
+                    lastWriteCommittedAt.set(now);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,77 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// the read your writes window of ReadWriteRoutingDataSource follows the client, not the thread: the next request of a client
+// that just wrote usually runs on another thread (or node), which knows nothing of that write
+// a request that commits a write answers with the masterclass-last-write cookie (the commit time in epoch millis, gone by
+// itself after the window), the requests that bring it back read from the primary until the window is over
+// several writes in one request send the cookie several times, the client keeps the last one
+// a client that drops cookies reads from the replica like any other, it may not see its write right away
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE = "masterclass-last-write";
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+    private final int maxAgeSeconds;
+
+    public ReadYourWritesFilter(ReadWriteRoutingDataSource routingDataSource) {
+        this.routingDataSource = routingDataSource;
+        this.maxAgeSeconds = (int) Math.max(1, (routingDataSource.readYourWritesWindow().toMillis() + 999) / 1000);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        routingDataSource.bind(new ReadWriteRoutingDataSource.Client() {
+            private long lastWrite = lastWrite(request);
+
+            @Override
+            public long lastWriteCommittedAt() {
+                return lastWrite;
+            }
+
+            @Override
+            public void writeCommitted(long committedAt) {
+                lastWrite = committedAt;
+                if (!response.isCommitted()) {
+                    Cookie cookie = new Cookie(COOKIE, Long.toString(committedAt));
+                    cookie.setPath("/");
+                    cookie.setMaxAge(maxAgeSeconds);
+                    cookie.setHttpOnly(true);
+                    response.addCookie(cookie);
+                }
+            }
+        });
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            routingDataSource.unbind();
+        }
+    }
+
+    // 0 without the cookie or with a value that isn't a number
+    private static long lastWrite(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
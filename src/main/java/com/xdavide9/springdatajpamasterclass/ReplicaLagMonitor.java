@@ -0,0 +1,52 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+// asks the replica how far behind the primary it is and turns the replica off for reads (ReadWriteRoutingDataSource)
+// while it's more than maxLag behind or can't be asked at all
+// the lag is exported as masterclass.datasource.replica.lag (seconds)
+@Slf4j
+public class ReplicaLagMonitor {
+
+    private final JdbcTemplate replica;
+    private final ReadWriteRoutingDataSource routingDataSource;
+    private final String lagQuery;
+    private final Duration maxLag;
+    private volatile double lagSeconds;
+
+    public ReplicaLagMonitor(DataSource replica, ReadWriteRoutingDataSource routingDataSource,
+                             String lagQuery, Duration maxLag, MeterRegistry registry) {
+        this.replica = new JdbcTemplate(replica);
+        this.routingDataSource = routingDataSource;
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+        Gauge.builder("masterclass.datasource.replica.lag", this, monitor -> monitor.lagSeconds)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${masterclass.datasource.replica.lag-check-interval:PT5S}")
+    public void check() {
+        boolean lagging;
+        try {
+            Double lag = replica.queryForObject(lagQuery, Double.class);
+            lagSeconds = lag == null ? 0 : lag;
+            lagging = lagSeconds * 1000 > maxLag.toMillis();
+        } catch (RuntimeException e) {
+            log.warn("Could not read the replica lag, reads go to the primary: {}", e.getMessage());
+            lagSeconds = Double.NaN;
+            lagging = true;
+        }
+        if (lagging != routingDataSource.isReplicaLagging()) {
+            log.info(lagging ? "Replica is {}s behind, reads go to the primary" : "Replica caught up ({}s), reads go to the replica", lagSeconds);
+        }
+        routingDataSource.setReplicaLagging(lagging);
+    }
+}
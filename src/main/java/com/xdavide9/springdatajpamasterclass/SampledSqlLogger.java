@@ -0,0 +1,26 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// logs a random sample of the sql statements instead of all of them like show_sql did
+// (slow statements are always logged by hibernate itself, see hibernate.log_slow_query in application.yaml)
+@Slf4j
+class SampledSqlLogger implements StatementInspector {
+
+    private final double sampleRate;
+
+    SampledSqlLogger(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        if (log.isInfoEnabled() && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            log.info("{}", sql);
+        }
+        return sql;  // the statement itself is never changed
+    }
+}
@@ -0,0 +1,53 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+// - exports hits, misses, puts and evictions of every second level cache region as cache.* metrics
+//   (tagged with cache=<region>, see /actuator/metrics/cache.gets)
+// - empties the regions on startup: the caffeine cache manager belongs to the jvm and not to the session factory,
+//   so a previous session factory of the same jvm (tests, devtools restarts) could have left entries of rows that were
+//   changed or removed while no session factory was running: the flyway clean of the tests (FlywayCleanMigrateConfig),
+//   a migration applied by the restart, the database changed by hand or by another node in between
+@Component
+public class SecondLevelCacheSupport implements MeterBinder, SmartInitializingSingleton {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public SecondLevelCacheSupport(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    // not in @PostConstruct, the EntityManagerFactory may still be bootstrapping in the background (see Outbox)
+    @Override
+    public void afterSingletonsInstantiated() {
+        entityManagerFactory.getCache().evictAll();
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class).getCache().evictQueryRegions();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        RegionFactory regionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(RegionFactory.class);
+        if (!(regionFactory instanceof JCacheRegionFactory jCacheRegionFactory)) {
+            return;     // second level cache turned off
+        }
+        CacheManager cacheManager = jCacheRegionFactory.getCacheManager();
+        for (String name : cacheManager.getCacheNames()) {
+            Cache<Object, Object> cache = cacheManager.getCache(name);
+            JCacheMetrics.monitor(registry, cache, Tags.of("cache.layer", "hibernate-l2"));
+        }
+    }
+}
@@ -5,15 +5,16 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @SpringBootApplication
+@EnableScheduling   // EnrolmentStatistics.reconcile, CoEnrolmentGraphUpdater.load
 @Slf4j
 public class SpringDataJpaMasterclassApplication {
 
@@ -24,10 +25,16 @@ public class SpringDataJpaMasterclassApplication {
         SpringApplication.run(SpringDataJpaMasterclassApplication.class, args);
     }
 
+    // only with the demo profile (--spring.profiles.active=demo), a production start doesn't write or read anything before the first request
+    // with the aot build (-Paot) the profiles are decided when the jar is built, this runner isn't in it
     @Bean
+    @Profile("demo")
     CommandLineRunner commandLineRunnerManyToMany(StudentRepository studentRepository, StudentService studentService, CourseRepository courseRepository) {
         return args -> {
-            studentService.persistStudentsWithEnrollment();
+            // the database outlives the application since the schema isn't dropped anymore, maria and john are added only once
+            if (studentRepository.findSnapshotByEmail("maria@gmail.com").isEmpty()) {
+                studentService.persistStudentsWithEnrollment();
+            }
             studentService.fetchStudentEnrolments(1L);
         };
     }
@@ -69,7 +76,7 @@ public class SpringDataJpaMasterclassApplication {
             // thanks to the default fetch Type LAZY we can't see books from this query (a join is not performed, it's many to one, one to many or many to many)
             // but we can see the studentIdCard because it has fetchType EAGER (one to one)
             studentRepository.findById(1L)
-                    .ifPresent(System.out::println);
+                    .ifPresent(student -> log.info("{}", student));
 
             // move the logic when we want to lazily load the student's books to a service so that
             // @Transactional will correctly create a transaction and avoid a self-invocation
@@ -84,7 +91,7 @@ public class SpringDataJpaMasterclassApplication {
 
             // we can see the student from the card
             studentIdCardRepository.findById(1L)
-                    .ifPresent(System.out::println);
+                    .ifPresent(card -> log.info("{}", card));
 
             // deleting also the student card and books thanks to the orphanRemoval = true in Student side of relationships
             studentRepository.deleteById(1L);
@@ -92,7 +99,7 @@ public class SpringDataJpaMasterclassApplication {
     }
 
     //@Bean   // experimenting with the methods provided by repository (standard crud operations)
-    CommandLineRunner commandLineRunner(StudentRepository repository) {
+    CommandLineRunner commandLineRunner(StudentRepository repository, StudentKeysetPager studentKeysetPager) {
         return args -> {
             Student maria = Student.builder()
                     .firstName("Maria")
@@ -133,7 +140,7 @@ public class SpringDataJpaMasterclassApplication {
 //            repository.findStudentsByFirstNameEqualsAndAgeEqualsNative("John", 36).forEach(System.out::println);
 //            log.warn("Deleting students with first name John, rows affect: {}", repository.deleteStudentsByFirstName("John"));
             log.info("Getting students in ascending order by first name");
-            repository.findAll(Sort.by("firstName").ascending()).forEach(System.out::println);  // this is implemented by PagingAndSortingRepository
+            repository.findAll(Sort.by("firstName").ascending()).forEach(student -> log.info("{}", student));  // this is implemented by PagingAndSortingRepository
             log.info("Saving maria and john 4 times with different emails");
             for (int i = 0; i < 4; i++) {
                 repository.save(Student.builder()
@@ -147,18 +154,17 @@ public class SpringDataJpaMasterclassApplication {
                         .email(String.format("john%d@gmail.com", i))
                         .age(36).build());
             }
-            PageRequest pageRequest = PageRequest.of(0, 5, Sort.by("firstName").ascending());
-            log.info("Getting students in ascending order by first name with pagination");
-            Page<Student> page = repository.findAll(pageRequest);
-            log.info("Total pages: {}", page.getTotalPages());
-            log.info("Page: {}", page.getNumber() + 1);
-            if (page.hasContent())
-                page.forEach(System.out::println);
-            while(page.hasNext()) {
-                page = repository.findAll(page.nextPageable());
-                log.info("Page: {}", page.getNumber() + 1);
-                if (page.hasContent())
-                    page.forEach(System.out::println);
+            // PageRequest.of(0, 5, Sort.by("firstName")) with page.nextPageable() would run an OFFSET query plus a count(*) for every page
+            // keyset pagination continues right after the last student of the previous page instead
+            log.info("Getting students in ascending order by first name with keyset pagination");
+            StudentKeysetPage page = studentKeysetPager.firstPage(5);
+            int pageNumber = 1;
+            log.info("Page: {}", pageNumber);
+            page.content().forEach(student -> log.info("{}", student));
+            while (page.next() != null) {
+                page = studentKeysetPager.page(page.next(), 5);
+                log.info("Page: {}", ++pageNumber);
+                page.content().forEach(student -> log.info("{}", student));
             }
         };
     }
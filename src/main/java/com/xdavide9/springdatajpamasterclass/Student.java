@@ -2,9 +2,10 @@ package com.xdavide9.springdatajpamasterclass;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static jakarta.persistence.GenerationType.*;
 
@@ -13,7 +14,8 @@ import static jakarta.persistence.GenerationType.*;
 @NoArgsConstructor
 @AllArgsConstructor
 @ToString(exclude = {"studentIdCard", "books", "enrolments"})    // excluding  studentIdCard to avoid a circular reference because of the bidirectional relationship
-@EqualsAndHashCode(exclude = {"studentIdCard", "books", "enrolments"})    // excluding books and enrolments because of lazy loading so it's not always garanteed to have books loaded
+// no @EqualsAndHashCode: the generated one used the id and the mutable fields, a new student in a set (Course.enrolments
+// through its enrolments, a LinkedHashSet anywhere) changed its hash when it was persisted or edited, see equals below
 @Entity(name = "Student")   // specify the name of the entity as good practice this is used in queries
                             // default is class name anyways like specified
 // @Table allows more granular control of uniqueContraints, table name, schema, indexes
@@ -31,17 +33,49 @@ import static jakarta.persistence.GenerationType.*;
         indexes = {
                 @Index(
                         name = "student_first_name_index",
-                        columnList = "first_name"
+                        columnList = "first_name, id"   // id as well so keyset pagination ordered by (first_name, id) is a pure index range scan
                 )
         }
 )
+// named fetch plans for the usual read shapes, used with @EntityGraph in StudentRepository
+// every graph also fetches studentIdCard because the inverse one to one would otherwise be loaded with a select per student:
+// hibernate can't put a proxy there (only student_id_card knows whether there is a card) and it can't batch those selects
+// either (they're by student_id, not by the id of the card), so every query returning students joins the card instead
+@NamedEntityGraph(
+        name = "Student.studentIdCard",
+        attributeNodes = @NamedAttributeNode("studentIdCard")
+)
+@NamedEntityGraph(
+        name = "Student.enrolmentsWithCourses",
+        attributeNodes = {
+                @NamedAttributeNode("studentIdCard"),
+                @NamedAttributeNode(value = "enrolments", subgraph = "enrolment.course")
+        },
+        subgraphs = @NamedSubgraph(
+                name = "enrolment.course",
+                attributeNodes = @NamedAttributeNode("course")
+        )
+)
+@NamedEntityGraph(
+        name = "Student.books",
+        attributeNodes = {
+                @NamedAttributeNode("studentIdCard"),
+                @NamedAttributeNode("books")
+        }
+)
+// the students behind lazy proxies (Enrolment.student, Book.student) are loaded up to 100 at a time when one of them is used,
+// a load by id joins the card so those come with them
+@BatchSize(size = 100)
 @Builder
 public class Student {
     // use a sequence to generate the id
     @SequenceGenerator(
             name = "student_sequence",
             sequenceName = "student_sequence",
-            allocationSize = 1  // how much the sequence should increment by
+            allocationSize = 50  // how much the sequence should increment by
+                                 // with 1 every insert needed its own nextval round trip before the INSERT,
+                                 // with 50 hibernate reserves a block of ids per nextval (pooled-lo optimizer, see application.yaml)
+                                 // and the inserts can be sent to the database in jdbc batches
     )
     @GeneratedValue(
             generator = "student_sequence",
@@ -105,12 +139,14 @@ public class Student {
             orphanRemoval = true,
             fetch = FetchType.LAZY  // default fetch type for one to many
     )
+    // a set so that add/remove don't have to scan the whole collection like List.contains did
+    // linked (and @OrderBy when loaded) so the books keep the order they were added in
+    @OrderBy("createdAt")
     @Builder.Default    // always initialize this field with the builder
-    private List<Book> books = new ArrayList<>();
+    private Set<Book> books = new LinkedHashSet<>();
 
     public boolean addBook(Book book) {
-        if (!books.contains(book)) {
-            books.add(book);
+        if (books.add(book)) {
             book.setStudent(this);  // maintain the bidirectional relationship
             return true;
         }
@@ -118,8 +154,7 @@ public class Student {
     }
 
     public boolean removeBook(Book book) {
-        if (books.contains(book)) {
-            books.remove(book);
+        if (books.remove(book)) {
             book.setStudent(null);
             return true;
         }
@@ -172,25 +207,32 @@ public class Student {
             mappedBy = "student",    // student field in Enrolment class
             orphanRemoval = true
     )
-    private List<Enrolment> enrolments = new ArrayList<>();
+    @OrderBy("createdAt")   // same as books, a set with the enrolments in the order they were made
+    private Set<Enrolment> enrolments = new LinkedHashSet<>();
 
     // it looks similar to before with the aggregate pattern but actually
     // student is not in charge of managing the courses
     // because they exist on their own and have their own repository
     // managing the bidirectional relationship is the most complex here
     public boolean addEnrolment(Enrolment enrolment) {
-        if (!enrolments.contains(enrolment)) {
-            enrolments.add(enrolment);
-            return true;
-        }
-        return false;
+        return enrolments.add(enrolment);
     }
     public boolean removeEnrolment(Enrolment enrolment) {
-        if (enrolments.contains(enrolment)) {
-            enrolments.remove(enrolment);
+        return enrolments.remove(enrolment);
+    }
+
+    // the same row is the same student (two loads in different sessions, a lazy proxy, which is a subclass), a new one is only
+    // equal to itself. the hash is the same for every student so it can't change when the id is assigned
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
             return true;
         }
-        return false;
+        return o instanceof Student other && id != null && id.equals(other.getId());
     }
 
+    @Override
+    public int hashCode() {
+        return Student.class.hashCode();
+    }
 }
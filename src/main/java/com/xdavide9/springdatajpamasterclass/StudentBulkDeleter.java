@@ -0,0 +1,70 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// deletes a large cohort of students with their books, enrolments and id cards
+// StudentRepository.deleteAllById removes every student through the persistence context:
+// the student is loaded, then each of its collections, then a DELETE is sent for every single row
+// here each chunk of ids is deleted with a statement per table (StudentRepository.deleteStudentsByIdIn)
+// every chunk is its own transaction, so locks are held briefly and a failure only rolls back the current chunk
+@Service
+@Slf4j
+public class StudentBulkDeleter {
+
+    private final StudentRepository studentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    public StudentBulkDeleter(StudentRepository studentRepository,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${masterclass.bulk.delete-chunk-size:1000}") int chunkSize) {
+        this.studentRepository = studentRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.chunkSize = chunkSize;
+    }
+
+    // returns the number of students deleted, ids that don't exist (anymore) are skipped
+    public int deleteAllById(Collection<Long> ids) {
+        List<Long> chunk = new ArrayList<>(chunkSize);
+        int deleted = 0;
+        for (Long id : ids) {
+            chunk.add(id);
+            if (chunk.size() == chunkSize) {
+                deleted += deleteChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            deleted += deleteChunk(chunk);
+        }
+        log.info("Bulk deleted {} students", deleted);
+        return deleted;
+    }
+
+    // the cohort is read a chunk at a time, the rows deleted by the previous chunk are simply not there anymore
+    public int deleteAllByFirstName(String firstName) {
+        int deleted = 0;
+        List<Long> chunk;
+        do {
+            chunk = studentRepository.findIdsByFirstName(firstName, Limit.of(chunkSize));
+            if (!chunk.isEmpty()) {
+                deleted += deleteChunk(chunk);
+            }
+        } while (chunk.size() == chunkSize);
+        log.info("Bulk deleted {} students named {}", deleted, firstName);
+        return deleted;
+    }
+
+    private int deleteChunk(List<Long> chunk) {
+        Integer deleted = transactionTemplate.execute(status -> studentRepository.deleteStudentsByIdIn(chunk));
+        return deleted == null ? 0 : deleted;
+    }
+}
@@ -0,0 +1,63 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// bulk persistence mode for loading a large number of students (with their cascaded books, enrolments and cards)
+// StudentRepository.saveAll keeps every saved student managed until the transaction commits,
+// so dirty checking and the flush get slower and slower as the persistence context grows
+// here students are saved in fixed size chunks: each chunk is flushed (sent as jdbc batches) and then cleared
+@Service
+@Slf4j
+public class StudentBulkLoader {
+
+    private final StudentRepository studentRepository;
+    private final EntityManager entityManager;
+    private final int batchSize;
+
+    public StudentBulkLoader(StudentRepository studentRepository,
+                             EntityManager entityManager,
+                             @Value("${masterclass.bulk.batch-size:500}") int batchSize) {
+        this.studentRepository = studentRepository;
+        this.entityManager = entityManager;
+        this.batchSize = batchSize;
+    }
+
+    // NOTE the students passed in are detached once their chunk has been flushed
+    @Transactional
+    public int saveAllInBatches(Iterable<Student> students) {
+        Session session = entityManager.unwrap(Session.class);
+        session.setJdbcBatchSize(batchSize);    // only for this session, the rest of the application keeps hibernate.jdbc.batch_size
+        session.setCacheMode(CacheMode.IGNORE); // nothing we insert here is going to be read back by this session
+        List<Student> chunk = new ArrayList<>(batchSize);
+        int saved = 0;
+        for (Student student : students) {
+            chunk.add(student);
+            if (chunk.size() == batchSize) {
+                saved += flushChunk(chunk);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            saved += flushChunk(chunk);
+        }
+        log.info("Bulk saved {} students", saved);
+        return saved;
+    }
+
+    private int flushChunk(List<Student> chunk) {
+        studentRepository.saveAll(chunk);   // new entities so this is a persist for each of them, cascading to books and enrolments
+        entityManager.flush();
+        entityManager.clear();
+        int size = chunk.size();
+        chunk.clear();
+        return size;
+    }
+}
@@ -0,0 +1,138 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityNotFoundException;
+import lombok.AllArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// students with their books and enrolments over http, every handler is a single call to a service
+// so the connection is held for one transaction and released before the response is written
+//   GET    /api/students?size=&page=          keyset pages in (firstName, id) order, page is the next/previous token
+//   GET    /api/students/{id}
+//   GET    /api/students/by-email?email=
+//   GET    /api/students/search?q=&size=       best matches first, see StudentSearchIndex
+//   POST   /api/students
+//   DELETE /api/students/{id}
+//   GET    /api/students/{id}/books?from=&to=            iso dates, both included, both or neither (made in that time, see TimePartitions)
+//   POST   /api/students/{id}/books
+//   DELETE /api/students/{id}/books/{bookId}
+//   GET    /api/students/{id}/enrolments?from=&to=
+//   PUT    /api/students/{id}/enrolments/{courseId}
+//   DELETE /api/students/{id}/enrolments/{courseId}
+//   GET    /api/students/{id}/classmates?size=              from CoEnrolmentGraph, like the two below (empty for an unknown student)
+//   GET    /api/students/{id}/course-recommendations?size=
+@RestController
+@RequestMapping("/api/students")
+@AllArgsConstructor
+public class StudentController {
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final StudentService studentService;
+    private final StudentKeysetPager studentKeysetPager;
+    private final StudentLookupService studentLookupService;
+    private final StudentSearchService studentSearchService;
+    private final CoEnrolmentGraph coEnrolmentGraph;
+
+    @GetMapping
+    public StudentSnapshotPage list(@RequestParam(defaultValue = "20") int size, @RequestParam(required = false) String page) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        StudentKeysetPage keysetPage = studentKeysetPager.page(page, size);
+        List<StudentSnapshot> content = keysetPage.content().stream()
+                .map(StudentSnapshot::of)
+                .toList();
+        return new StudentSnapshotPage(content, keysetPage.next(), keysetPage.previous());
+    }
+
+    @GetMapping("/{id}")
+    public StudentSnapshot get(@PathVariable Long id) {
+        return studentService.getStudent(id);
+    }
+
+    // through StudentEmailNearCache
+    @GetMapping("/by-email")
+    public StudentSnapshot getByEmail(@RequestParam String email) {
+        return studentLookupService.findSnapshotByEmail(email)
+                .orElseThrow(() -> new EntityNotFoundException("Student " + email + " not found"));
+    }
+
+    @GetMapping("/search")
+    public List<StudentSnapshot> search(@RequestParam String q, @RequestParam(defaultValue = "20") int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return studentSearchService.search(q, size);
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public StudentSnapshot create(@RequestBody StudentRequest request) {
+        return studentService.createStudent(request);
+    }
+
+    @DeleteMapping("/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void delete(@PathVariable Long id) {
+        studentService.deleteStudent(id);
+    }
+
+    @GetMapping("/{id}/books")
+    public List<BookResponse> books(@PathVariable Long id,
+                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return from == null && to == null ? studentService.getStudentBooks(id) : studentService.getStudentBooks(id, from, to);
+    }
+
+    @PostMapping("/{id}/books")
+    @ResponseStatus(HttpStatus.CREATED)
+    public BookResponse addBook(@PathVariable Long id, @RequestBody BookRequest request) {
+        return studentService.addBookToStudent(id, request.bookName());
+    }
+
+    @DeleteMapping("/{id}/books/{bookId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void removeBook(@PathVariable Long id, @PathVariable Long bookId) {
+        studentService.removeBookFromStudent(id, bookId);
+    }
+
+    @GetMapping("/{id}/enrolments")
+    public List<EnrolmentResponse> enrolments(@PathVariable Long id,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return from == null && to == null ? studentService.getStudentEnrolments(id) : studentService.getStudentEnrolments(id, from, to);
+    }
+
+    // a PUT because enrolling twice is the same as enrolling once
+    @PutMapping("/{id}/enrolments/{courseId}")
+    public EnrolmentResponse enrol(@PathVariable Long id, @PathVariable Long courseId) {
+        return studentService.enrolStudent(id, courseId);
+    }
+
+    @DeleteMapping("/{id}/enrolments/{courseId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void unenrol(@PathVariable Long id, @PathVariable Long courseId) {
+        studentService.unenrolStudent(id, courseId);
+    }
+
+    @GetMapping("/{id}/classmates")
+    public List<ClassmateResponse> classmates(@PathVariable Long id, @RequestParam(defaultValue = "20") int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return coEnrolmentGraph.classmates(id, size);
+    }
+
+    @GetMapping("/{id}/course-recommendations")
+    public List<CourseRecommendationResponse> courseRecommendations(@PathVariable Long id, @RequestParam(defaultValue = "20") int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return coEnrolmentGraph.recommendCourses(id, size);
+    }
+}
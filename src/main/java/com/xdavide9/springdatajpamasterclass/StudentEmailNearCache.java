@@ -0,0 +1,152 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+// email -> student snapshot cache in front of the email lookups of StudentLookupService
+// - misses are cached too (negative caching) but for a shorter time
+// - bounded by size and age
+// - entries are invalidated after the commit of every insert, update (old and new email) and delete of a Student
+//   through hibernate's post commit listeners, bulk deletes have to call evict themselves (see StudentRepositoryCustomImpl)
+@Component
+public class StudentEmailNearCache implements MeterBinder,
+        PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener, SmartInitializingSingleton {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final Cache<String, Optional<StudentSnapshot>> cache;
+
+    public StudentEmailNearCache(EntityManagerFactory entityManagerFactory,
+                                 @Value("${masterclass.student-lookup.maximum-size:100000}") long maximumSize,
+                                 @Value("${masterclass.student-lookup.ttl:10m}") Duration ttl,
+                                 @Value("${masterclass.student-lookup.negative-ttl:30s}") Duration negativeTtl) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Optional<StudentSnapshot>>() {
+                    @Override
+                    public long expireAfterCreate(String email, Optional<StudentSnapshot> snapshot, long currentTime) {
+                        return (snapshot.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String email, Optional<StudentSnapshot> snapshot, long currentTime, long currentDuration) {
+                        return expireAfterCreate(email, snapshot, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String email, Optional<StudentSnapshot> snapshot, long currentTime, long currentDuration) {
+                        return currentDuration;     // reading doesn't make an entry any fresher
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    // after the singletons like the other listeners (see Outbox)
+    @Override
+    public void afterSingletonsInstantiated() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    // the loader runs at most once per email at a time, concurrent callers wait for its result
+    Optional<StudentSnapshot> get(String email, Function<String, Optional<StudentSnapshot>> loader) {
+        return cache.get(email, loader);
+    }
+
+    public void evict(String email) {
+        cache.invalidate(email);
+    }
+
+    // right away and once more after the commit, so a lookup running in between can't keep the old row around
+    public void evictAfterCommit(Collection<String> emails) {
+        cache.invalidateAll(emails);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll(emails);
+                }
+            });
+        }
+    }
+
+    public void evictAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "student-email");
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            evict(student.getEmail());  // drops a cached miss
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            evict(student.getEmail());
+            Object[] oldState = event.getOldState();
+            if (oldState != null) {
+                int email = event.getPersister().getPropertyIndex("email");
+                evict((String) oldState[email]);
+            } else {
+                evictAll();     // we can't know the previous email
+            }
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            evict(student.getEmail());
+        }
+    }
+
+    // nothing was committed so there is nothing to evict
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return Objects.equals(persister.getEntityName(), Student.class.getName());
+    }
+}
@@ -0,0 +1,9 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDateTime;
+
+// a book row as loaded for a batch of exported students, studentId is only used to group them
+public record StudentExportBook(@JsonIgnore Long studentId, String bookName, LocalDateTime createdAt) {
+}
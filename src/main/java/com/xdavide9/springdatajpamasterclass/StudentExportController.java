@@ -0,0 +1,30 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.AllArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+// GET /api/students/export?format=ndjson|csv
+// the export is written straight to the response output stream while the students are read from the database
+@RestController
+@RequestMapping("/api/students/export")
+@AllArgsConstructor
+public class StudentExportController {
+
+    private final StudentExportService studentExportService;
+
+    @GetMapping
+    public void export(@RequestParam(defaultValue = "ndjson") String format, HttpServletResponse response) throws IOException {
+        StudentExportFormat exportFormat = StudentExportFormat.valueOf(format.toUpperCase());
+        response.setContentType(exportFormat == StudentExportFormat.CSV ? "text/csv;charset=UTF-8" : "application/x-ndjson;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"students." + exportFormat.name().toLowerCase() + "\"");
+        studentExportService.export(exportFormat, response.getOutputStream());
+    }
+}
@@ -0,0 +1,9 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDateTime;
+
+// an enrolment (with the columns of its course) as loaded for a batch of exported students
+public record StudentExportEnrolment(@JsonIgnore Long studentId, Long courseId, String courseName, String department, LocalDateTime createdAt) {
+}
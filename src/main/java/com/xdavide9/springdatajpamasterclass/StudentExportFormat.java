@@ -0,0 +1,8 @@
+package com.xdavide9.springdatajpamasterclass;
+
+public enum StudentExportFormat {
+    // one json object per line, books and enrolments nested in it
+    NDJSON,
+    // one row per student, book names and course names joined with ';'
+    CSV
+}
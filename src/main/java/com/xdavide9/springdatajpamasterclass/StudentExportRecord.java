@@ -0,0 +1,14 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.util.List;
+
+// one exported student (one NDJSON line or CSV row) with its books and enrolments
+public record StudentExportRecord(
+        Long id,
+        String firstName,
+        String lastName,
+        String email,
+        int age,
+        List<StudentExportBook> books,
+        List<StudentExportEnrolment> enrolments) {
+}
@@ -0,0 +1,137 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// dumps every student with its books and enrolments without ever holding more than a batch of them in memory
+// - students are streamed from a cursor (StudentRepository.streamAllSnapshots) as snapshots, not entities
+// - books and enrolments are loaded with one query each per batch of students
+// - every batch is written out and then cleared from the persistence context before the next one is read
+@Service
+@Slf4j
+public class StudentExportService {
+
+    private static final String CSV_HEADER = "id,first_name,last_name,email,age,books,courses";
+
+    private final StudentRepository studentRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+
+    public StudentExportService(StudentRepository studentRepository,
+                                EntityManager entityManager,
+                                ObjectMapper objectMapper,
+                                @Value("${masterclass.export.batch-size:500}") int batchSize) {
+        this.studentRepository = studentRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+    }
+
+    // the output stream is flushed but not closed, it belongs to the caller
+    // spring's @Transactional because jakarta's has no read only flag (hibernate then skips flushing and dirty checking)
+    @Transactional(readOnly = true)
+    public long export(StudentExportFormat format, OutputStream out) throws IOException {
+        return switch (format) {
+            case NDJSON -> exportNdjson(out);
+            case CSV -> exportCsv(out);
+        };
+    }
+
+    private long exportNdjson(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory()
+                .createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(generator)) {
+            long exported = exportBatches(batch -> {
+                for (StudentExportRecord record : batch) {
+                    writer.write(record);
+                }
+                writer.flush();
+            });
+            generator.writeRaw('\n');
+            generator.flush();
+            return exported;
+        }
+    }
+
+    private long exportCsv(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        long exported = exportBatches(batch -> {
+            for (StudentExportRecord record : batch) {
+                writer.write(record.id() + "," + csv(record.firstName()) + "," + csv(record.lastName()) + ","
+                        + csv(record.email()) + "," + record.age() + ","
+                        + csv(record.books().stream().map(StudentExportBook::bookName).collect(Collectors.joining(";"))) + ","
+                        + csv(record.enrolments().stream().map(StudentExportEnrolment::courseName).collect(Collectors.joining(";"))));
+                writer.write('\n');
+            }
+            writer.flush();
+        });
+        writer.flush();
+        return exported;
+    }
+
+    private long exportBatches(BatchWriter batchWriter) throws IOException {
+        long exported = 0;
+        List<StudentSnapshot> students = new ArrayList<>(batchSize);
+        try (Stream<StudentSnapshot> stream = studentRepository.streamAllSnapshots()) {
+            Iterator<StudentSnapshot> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                students.add(iterator.next());
+                if (students.size() == batchSize) {
+                    exported += writeBatch(students, batchWriter);
+                }
+            }
+            if (!students.isEmpty()) {
+                exported += writeBatch(students, batchWriter);
+            }
+        }
+        log.info("Exported {} students", exported);
+        return exported;
+    }
+
+    private int writeBatch(List<StudentSnapshot> students, BatchWriter batchWriter) throws IOException {
+        List<Long> ids = students.stream().map(StudentSnapshot::id).toList();
+        Map<Long, List<StudentExportBook>> books = studentRepository.findExportBooksByStudentIdIn(ids).stream()
+                .collect(Collectors.groupingBy(StudentExportBook::studentId));
+        Map<Long, List<StudentExportEnrolment>> enrolments = studentRepository.findExportEnrolmentsByStudentIdIn(ids).stream()
+                .collect(Collectors.groupingBy(StudentExportEnrolment::studentId));
+        List<StudentExportRecord> batch = new ArrayList<>(students.size());
+        for (StudentSnapshot student : students) {
+            batch.add(new StudentExportRecord(student.id(), student.firstName(), student.lastName(), student.email(), student.age(),
+                    books.getOrDefault(student.id(), List.of()),
+                    enrolments.getOrDefault(student.id(), List.of())));
+        }
+        batchWriter.write(batch);
+        entityManager.clear();  // nothing should be managed here but whatever hibernate kept around for this batch goes away
+        int size = students.size();
+        students.clear();
+        return size;
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter {
+        void write(List<StudentExportRecord> batch) throws IOException;
+    }
+}
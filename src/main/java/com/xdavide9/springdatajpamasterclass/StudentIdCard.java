@@ -26,7 +26,7 @@ public class StudentIdCard {
     @SequenceGenerator(
             name = "student_id_card_sequence",
             sequenceName = "student_id_card_sequence",
-            allocationSize = 1
+            allocationSize = 50
     )
     @GeneratedValue(
             generator = "student_id_card_sequence",
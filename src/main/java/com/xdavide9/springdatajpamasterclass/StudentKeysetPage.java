@@ -0,0 +1,7 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.util.List;
+
+// students in (firstName, id) order, next and previous are null when there is nothing more in that direction
+public record StudentKeysetPage(List<Student> content, String next, String previous) {
+}
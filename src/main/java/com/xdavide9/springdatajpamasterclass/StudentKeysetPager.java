@@ -0,0 +1,81 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.AllArgsConstructor;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// pages through all students ordered by (firstName, id) without OFFSET and without count(*)
+// one row more than the page size is fetched to know if there is another page in the same direction
+@Service
+@AllArgsConstructor
+public class StudentKeysetPager {
+
+    // the students of a page are loaded as entities and held until it's handed out, StudentController allows fewer
+    static final int MAX_SIZE = 1000;
+
+    private final StudentRepository studentRepository;
+
+    public StudentKeysetPage firstPage(int size) {
+        checkSize(size);
+        List<Student> students = studentRepository.findFirstStudents(Limit.of(size + 1));
+        boolean hasNext = students.size() > size;
+        List<Student> content = trim(students, size);
+        return new StudentKeysetPage(content, hasNext ? after(content) : null, null);
+    }
+
+    public StudentKeysetPage page(String token, int size) {
+        checkSize(size);
+        if (token == null) {
+            return firstPage(size);
+        }
+        StudentKeysetToken position = StudentKeysetToken.decode(token);
+        if (position.direction() == StudentKeysetToken.Direction.AFTER) {
+            List<Student> students = studentRepository.findStudentsAfter(position.firstName(), position.id(), Limit.of(size + 1));
+            boolean hasNext = students.size() > size;
+            List<Student> content = trim(students, size);
+            // the row of the token comes before this page so there always is a previous page
+            String previous = content.isEmpty() ? before(position) : before(content);
+            return new StudentKeysetPage(content, hasNext ? after(content) : null, previous);
+        }
+        List<Student> students = studentRepository.findStudentsBefore(position.firstName(), position.id(), Limit.of(size + 1));
+        boolean hasPrevious = students.size() > size;
+        List<Student> content = new ArrayList<>(trim(students, size));
+        Collections.reverse(content);   // fetched closest first, handed out in ascending order
+        String next = content.isEmpty() ? after(position) : after(content);
+        return new StudentKeysetPage(content, next, hasPrevious ? before(content) : null);
+    }
+
+    // an empty page would have no row to build the next token from
+    private static void checkSize(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_SIZE);
+        }
+    }
+
+    private static List<Student> trim(List<Student> students, int size) {
+        return students.size() > size ? students.subList(0, size) : students;
+    }
+
+    private static String after(List<Student> content) {
+        Student last = content.get(content.size() - 1);
+        return new StudentKeysetToken(StudentKeysetToken.Direction.AFTER, last.getFirstName(), last.getId()).encode();
+    }
+
+    private static String before(List<Student> content) {
+        Student first = content.get(0);
+        return new StudentKeysetToken(StudentKeysetToken.Direction.BEFORE, first.getFirstName(), first.getId()).encode();
+    }
+
+    // an empty page still lets the client turn back from where it was
+    private static String after(StudentKeysetToken position) {
+        return new StudentKeysetToken(StudentKeysetToken.Direction.AFTER, position.firstName(), position.id() - 1).encode();
+    }
+
+    private static String before(StudentKeysetToken position) {
+        return new StudentKeysetToken(StudentKeysetToken.Direction.BEFORE, position.firstName(), position.id() + 1).encode();
+    }
+}
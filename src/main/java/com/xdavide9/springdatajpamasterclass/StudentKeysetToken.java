@@ -0,0 +1,33 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// continuation token of StudentKeysetPager: the direction and the (firstName, id) key to continue from
+// it's handed to clients base64 encoded, they are not supposed to look inside it
+record StudentKeysetToken(Direction direction, String firstName, long id) {
+
+    enum Direction {
+        AFTER, BEFORE
+    }
+
+    String encode() {
+        String raw = (direction == Direction.AFTER ? "A" : "B") + ":" + id + ":" + firstName;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static StudentKeysetToken decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);     // the first name is last because it may contain ':'
+            Direction direction = switch (parts[0]) {
+                case "A" -> Direction.AFTER;
+                case "B" -> Direction.BEFORE;
+                default -> throw new IllegalArgumentException("unknown direction " + parts[0]);
+            };
+            return new StudentKeysetToken(direction, parts[2], Long.parseLong(parts[1]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page token: " + token, e);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// interface based projection for listing screens
+// spring data backs it with the columns of the query (matched by alias) instead of a Student entity
+public interface StudentListItem {
+    Long getId();
+
+    String getFirstName();
+
+    String getLastName();
+
+    String getEmail();
+
+    int getAge();
+}
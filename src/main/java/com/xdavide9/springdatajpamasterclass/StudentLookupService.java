@@ -0,0 +1,29 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+// email lookups (login and search traffic) served through StudentEmailNearCache
+// email is unique (student_email_unique) so an email resolves to a single snapshot or to nothing
+@Service
+@AllArgsConstructor
+public class StudentLookupService {
+
+    private final StudentRepository studentRepository;
+    private final StudentEmailNearCache studentEmailNearCache;
+
+    public Optional<StudentSnapshot> findSnapshotByEmail(String email) {
+        return studentEmailNearCache.get(email, studentRepository::findSnapshotByEmail);
+    }
+
+    public Optional<Long> findStudentIdByEmail(String email) {
+        return findSnapshotByEmail(email).map(StudentSnapshot::id);
+    }
+
+    // a cached miss doesn't touch the database at all, a hit becomes a lookup by primary key
+    public Optional<Student> findStudentByEmail(String email) {
+        return findStudentIdByEmail(email).flatMap(studentRepository::findById);
+    }
+}
@@ -1,49 +1,228 @@
 package com.xdavide9.springdatajpamasterclass;
 
-import jakarta.transaction.Transactional;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 // can extend JpaRepository, PagingAndSortingRepository, CrudRepository
 // JpaRepository extends PagingAndSortingRepository which extends CrudRepository
 @Repository
-public interface StudentRepository  extends JpaRepository<Student, Long> {
+public interface StudentRepository  extends JpaRepository<Student, Long>, StudentRepositoryCustom {
     // Spring Data JPA will automatically generate the query based on the naming convention of the method
 
+    // the finders inherited from JpaRepository with the card joined (see Student for why every query returning students does it)
+    // findById doesn't need it, hibernate joins the card of a student loaded by id on its own
+    @Override
+    @EntityGraph("Student.studentIdCard")
+    List<Student> findAll();
+
+    @Override
+    @EntityGraph("Student.studentIdCard")
+    List<Student> findAll(Sort sort);
+
+    @Override
+    @EntityGraph("Student.studentIdCard")
+    Page<Student> findAll(Pageable pageable);
+
+    @Override
+    @EntityGraph("Student.studentIdCard")
+    List<Student> findAllById(Iterable<Long> ids);
+
     // return optional because we know that email is unique
     // even if Spring Data JPA can generate queries automatically it's good practice to always use @Query to have full control
     // ?1 is a positional parameter that maps to the first argument passed to the method ?2 to the second and so on...
+    @EntityGraph("Student.studentIdCard")
     @Query("SELECT s FROM Student s WHERE s.email = ?1")
     // Student is the entity name specified in @Entity in Student.java
     // The querying language is JPQL (Java Persistence Query Language) which garantees that if you switch database at some point the queries will still work
     Optional<Student> findStudentByEmail(String email);
 
     // return list because there might be more people with same firstName and age
+    @EntityGraph("Student.studentIdCard")
     @Query("SELECT s FROM Student s WHERE s.firstName = ?1 AND s.age = ?2")
     // now I could even change that long name to something shorter
     List<Student> findStudentsByFirstNameEqualsAndAgeEquals(String firstName, Integer age);
 
     // I could also use native sql queries but it's better to stick with JPQL
+    // (entity graphs don't apply to native queries, this one still loads the card of each student with a select of its own)
     @Query(value = "SELECT * FROM student WHERE first_name = ?1 AND age = ?2", nativeQuery = true)
     List<Student> findStudentsByFirstNameEqualsAndAgeEqualsNative(String firstName, Integer age);
 
     // instead of positional parameters it's possible to use named parameters for more complex queries
+    @EntityGraph("Student.studentIdCard")
     @Query("SELECT s FROM Student s WHERE s.firstName = :firstName AND s.age = :age")
     List<Student> findStudentsByFirstNameEqualsAndAgeEqualsNamedParameters(
             @Param("firstName") String firstName,
             @Param("age") Integer age);
 
+    // the same student loaded with one of the fetch plans declared with @NamedEntityGraph in Student
+    // the collections (and what's inside them) come back in the same query instead of being lazily loaded one by one
+    @EntityGraph("Student.enrolmentsWithCourses")
+    @Query("SELECT s FROM Student s WHERE s.id = ?1")
+    Optional<Student> findWithEnrolmentsById(Long id);
+
+    @EntityGraph("Student.enrolmentsWithCourses")
+    @Query("SELECT s FROM Student s WHERE s.id IN ?1")
+    List<Student> findWithEnrolmentsByIdIn(Collection<Long> ids);
+
+    @EntityGraph("Student.books")
+    @Query("SELECT s FROM Student s WHERE s.id = ?1")
+    Optional<Student> findWithBooksById(Long id);
+
+    // resolves a whole chunk of emails with a single query (used by EnrolmentImportService)
+    // each row is {id, email}, no Student entity is loaded
+    @Query("SELECT s.id, s.email FROM Student s WHERE s.email IN ?1")
+    List<Object[]> findIdsAndEmailsByEmailIn(Collection<String> emails);
+
+    // projection variants of the queries above for listing screens that only need id, names, email and age
+    // no Student entity is created, so there is no dirty checking snapshot and no studentIdCard to load for every row
+    // the read only hint tells hibernate it doesn't have to keep anything around for a flush either
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE s.firstName = ?1 AND s.age = ?2")
+    List<StudentSnapshot> findSnapshotsByFirstNameEqualsAndAgeEquals(String firstName, Integer age);
+
+    // with a native query the column aliases have to match the getters of the interface
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(value = "SELECT id AS id, first_name AS firstName, last_name AS lastName, email AS email, age AS age FROM student WHERE first_name = ?1 AND age = ?2", nativeQuery = true)
+    List<StudentListItem> findListItemsByFirstNameEqualsAndAgeEqualsNative(String firstName, Integer age);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT s.id AS id, s.firstName AS firstName, s.lastName AS lastName, s.email AS email, s.age AS age FROM Student s WHERE s.firstName = :firstName AND s.age = :age")
+    List<StudentListItem> findListItemsByFirstNameEqualsAndAgeEqualsNamedParameters(
+            @Param("firstName") String firstName,
+            @Param("age") Integer age);
+
+    // same as findAll(Sort) but with projections, the sort uses the properties of Student (e.g. Sort.by("firstName"))
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s")
+    List<StudentSnapshot> findAllSnapshots(Sort sort);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT s.id AS id, s.firstName AS firstName, s.lastName AS lastName, s.email AS email, s.age AS age FROM Student s")
+    List<StudentListItem> findAllListItems(Sort sort);
+
+    // every student streamed from a database cursor for StudentExportService
+    // the jdbc fetch size makes the driver read 1000 rows at a time instead of the whole result set
+    // (postgres only does that inside a transaction), the stream must be closed by the caller
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s ORDER BY s.id")
+    Stream<StudentSnapshot> streamAllSnapshots();
+
+    // books and enrolments of a batch of exported students, a query per batch instead of one per student
+    // there is no BookRepository because books are part of the Student aggregate
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentExportBook(b.student.id, b.bookName, b.createdAt) FROM Book b WHERE b.student.id IN ?1 ORDER BY b.createdAt")
+    List<StudentExportBook> findExportBooksByStudentIdIn(Collection<Long> studentIds);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentExportEnrolment(e.student.id, c.id, c.name, c.department, e.createdAt) FROM Enrolment e JOIN e.course c WHERE e.student.id IN ?1 ORDER BY e.createdAt")
+    List<StudentExportEnrolment> findExportEnrolmentsByStudentIdIn(Collection<Long> studentIds);
+
+    // keyset (seek) pagination ordered by (firstName, id), see StudentKeysetPager
+    // instead of skipping OFFSET rows the query starts right after (or before) the last row that was seen
+    // so every page costs the same and no count query is needed
+    @EntityGraph("Student.studentIdCard")
+    @Query("SELECT s FROM Student s WHERE (s.firstName, s.id) > (?1, ?2) ORDER BY s.firstName ASC, s.id ASC")
+    List<Student> findStudentsAfter(String firstName, Long id, Limit limit);
+
+    @EntityGraph("Student.studentIdCard")
+    @Query("SELECT s FROM Student s WHERE (s.firstName, s.id) < (?1, ?2) ORDER BY s.firstName DESC, s.id DESC")
+    List<Student> findStudentsBefore(String firstName, Long id, Limit limit);   // closest first, so in descending order
+
+    @EntityGraph("Student.studentIdCard")
+    @Query("SELECT s FROM Student s ORDER BY s.firstName ASC, s.id ASC")
+    List<Student> findFirstStudents(Limit limit);
+
+    // the columns of a student by email without loading the entity (what StudentEmailNearCache keeps)
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE s.email = ?1")
+    Optional<StudentSnapshot> findSnapshotByEmail(String email);
+
+    // the next chunk of a cohort for StudentBulkDeleter, an index only scan of student_first_name_index
+    @Query("SELECT s.id FROM Student s WHERE s.firstName = ?1 ORDER BY s.id")
+    List<Long> findIdsByFirstName(String firstName, Limit limit);
+
+    // what StudentSearchIndexer reads to (re)build the search index
+    @Query("SELECT min(s.id) FROM Student s")
+    Optional<Long> findMinId();
+
+    @Query("SELECT max(s.id) FROM Student s")
+    Optional<Long> findMaxId();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE s.id BETWEEN ?1 AND ?2")
+    List<StudentSnapshot> findSnapshotsByIdBetween(Long from, Long to);
+
+    // each row is {student id, book name}
+    @Query("SELECT b.student.id, b.bookName FROM Book b WHERE b.student.id BETWEEN ?1 AND ?2")
+    List<Object[]> findBookNamesByStudentIdBetween(Long from, Long to);
+
+    // the students found by StudentSearchService, in no particular order
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE s.id IN ?1")
+    List<StudentSnapshot> findSnapshotsByIdIn(Collection<Long> ids);
+
+    // what the REST api (StudentController) returns, straight from the columns without managed entities
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Student s WHERE s.id = ?1")
+    Optional<StudentSnapshot> findSnapshotById(Long id);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.BookResponse(b.id, b.bookName, b.createdAt) FROM Book b WHERE b.student.id = ?1 ORDER BY b.createdAt")
+    List<BookResponse> findBookResponsesByStudentId(Long studentId);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.EnrolmentResponse(c.id, c.name, c.department, e.createdAt) FROM Enrolment e JOIN e.course c WHERE e.student.id = ?1 ORDER BY e.createdAt")
+    List<EnrolmentResponse> findEnrolmentResponsesByStudentId(Long studentId);
+
+    // the students of a course in the same (firstName, id) order as the keyset pages
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Enrolment e JOIN e.student s WHERE e.course.id = ?1 ORDER BY s.firstName, s.id")
+    List<StudentSnapshot> findSnapshotsByCourseId(Long courseId);
+
+    // the same three bounded on created_at (from included, to excluded): book and enrolment are partitioned by month of created_at
+    // so only the partitions of those months are read, the ones above look into every partition (see V3__time_partitions.sql)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.BookResponse(b.id, b.bookName, b.createdAt) FROM Book b WHERE b.student.id = ?1 AND b.createdAt >= ?2 AND b.createdAt < ?3 ORDER BY b.createdAt")
+    List<BookResponse> findBookResponsesByStudentIdCreatedBetween(Long studentId, LocalDateTime from, LocalDateTime to);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.EnrolmentResponse(c.id, c.name, c.department, e.createdAt) FROM Enrolment e JOIN e.course c WHERE e.student.id = ?1 AND e.createdAt >= ?2 AND e.createdAt < ?3 ORDER BY e.createdAt")
+    List<EnrolmentResponse> findEnrolmentResponsesByStudentIdCreatedBetween(Long studentId, LocalDateTime from, LocalDateTime to);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT new com.xdavide9.springdatajpamasterclass.StudentSnapshot(s.id, s.firstName, s.lastName, s.email, s.age) FROM Enrolment e JOIN e.student s WHERE e.course.id = ?1 AND e.createdAt >= ?2 AND e.createdAt < ?3 ORDER BY s.firstName, s.id")
+    List<StudentSnapshot> findSnapshotsByCourseIdEnrolledBetween(Long courseId, LocalDateTime from, LocalDateTime to);
+
+
     // all the methods above return the Student entity as Java class
     // but if my query is not about selecting data but updating or deleting I can use @Modifying
-    // additionally I should use @Transactional
-    @Modifying
-    @Transactional
-    @Query("DELETE FROM Student s WHERE s.firstName = ?1")
-    int deleteStudentsByFirstName(String firstName);    // returns the number of rows affected
+    // additionally I should use @Transactional (the StudentService methods calling them are)
+    // the targeted commands (declared in StudentRepositoryCustom) change a single row (or a set of rows) with one statement
+    // instead of loading the aggregate and its whole collection to remove one element, they return the number of rows affected
+    // a bulk statement doesn't go through the persistence context, so pending changes are flushed before it
+    // HQL statements evict the second level cache regions of their table themselves: a DELETE on enrolment drops
+    // the whole enrolment and course-enrolments regions, not only the roster of that course
+    // - the book deletes only detach the books they deleted (see StudentRepositoryCustomImpl)
+    // - deleteStudentsByFirstName, deleteStudentsByIdIn, updateAgeByIdIn and deleteEnrolmentByStudentIdAndCourseId clear the
+    //   persistence context after them, the rows they change can be in the collections of any student or course loaded
+    //   earlier: entities held by the caller are detached, read them again
 }
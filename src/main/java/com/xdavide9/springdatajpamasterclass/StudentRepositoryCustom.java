@@ -0,0 +1,26 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.util.Collection;
+
+// methods of StudentRepository that are implemented by hand in StudentRepositoryCustomImpl
+// (spring data finds the implementation by the Impl suffix and uses it instead of deriving a query)
+public interface StudentRepositoryCustom {
+
+    // both delete the students together with their books, enrolments and id cards, a statement per table
+    // returns the number of students deleted
+    int deleteStudentsByFirstName(String firstName);
+
+    // keep the collection to a few thousand ids (every id is a bind parameter), StudentBulkDeleter splits larger cohorts
+    int deleteStudentsByIdIn(Collection<Long> ids);
+
+    // a single UPDATE for all of them, returns the number of students updated
+    int updateAgeByIdIn(Collection<Long> ids, int age);
+
+    // a targeted DELETE, returns 0 or 1
+    int deleteEnrolmentByStudentIdAndCourseId(Long studentId, Long courseId);
+
+    // every book of the student with that name (names aren't unique)
+    int deleteBooksByStudentIdAndBookName(Long studentId, String bookName);
+
+    int deleteBookByStudentIdAndId(Long studentId, Long bookId);
+}
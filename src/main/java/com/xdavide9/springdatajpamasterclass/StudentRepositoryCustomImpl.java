@@ -0,0 +1,173 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import org.hibernate.Hibernate;
+import org.springframework.context.annotation.Lazy;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+class StudentRepositoryCustomImpl implements StudentRepositoryCustom {
+
+    // the children first (their foreign keys point to student), then the students themselves
+    private static final List<String> CASCADE = List.of(
+            "DELETE FROM Enrolment e WHERE e.student.id IN (%s)",
+            "DELETE FROM Book b WHERE b.student.id IN (%s)",
+            "DELETE FROM StudentIdCard c WHERE c.student.id IN (%s)",
+            "DELETE FROM Student s WHERE s.id IN (%s)");
+
+    @PersistenceContext
+    private EntityManager entityManager;
+    private final StudentEmailNearCache studentEmailNearCache;
+    private final StudentSearchIndexer studentSearchIndexer;
+    private final EnrolmentStatistics enrolmentStatistics;
+    private final Outbox outbox;
+    private final CoEnrolmentGraphUpdater coEnrolmentGraphUpdater;
+
+    StudentRepositoryCustomImpl(@Lazy StudentEmailNearCache studentEmailNearCache, @Lazy StudentSearchIndexer studentSearchIndexer,
+                                @Lazy EnrolmentStatistics enrolmentStatistics, @Lazy Outbox outbox,
+                                @Lazy CoEnrolmentGraphUpdater coEnrolmentGraphUpdater) {
+        this.studentEmailNearCache = studentEmailNearCache;
+        this.studentSearchIndexer = studentSearchIndexer;
+        this.enrolmentStatistics = enrolmentStatistics;
+        this.outbox = outbox;
+        this.coEnrolmentGraphUpdater = coEnrolmentGraphUpdater;
+    }
+
+    @Override
+    @Transactional
+    public int deleteStudentsByFirstName(String firstName) {
+        return deleteCascading("SELECT x.id FROM Student x WHERE x.firstName = ?1", firstName);
+    }
+
+    @Override
+    @Transactional
+    public int deleteStudentsByIdIn(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return deleteCascading("SELECT x.id FROM Student x WHERE x.id IN ?1", ids);
+    }
+
+    // same rules as the bulk deletes below: flush before, clear after and the near cache evicted (it keeps the age too)
+    @Override
+    @Transactional
+    public int updateAgeByIdIn(Collection<Long> ids, int age) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        entityManager.flush();
+        List<String> emails = entityManager.createQuery("SELECT s.email FROM Student s WHERE s.id IN ?1", String.class)
+                .setParameter(1, ids)
+                .getResultList();
+        int updated = entityManager.createQuery("UPDATE Student s SET s.age = ?2 WHERE s.id IN ?1")
+                .setParameter(1, ids)
+                .setParameter(2, age)
+                .executeUpdate();
+        entityManager.clear();
+        studentEmailNearCache.evictAfterCommit(emails);
+        return updated;
+    }
+
+    // the creation date goes into the day counter of EnrolmentStatistics, so it's read before (one more statement)
+    @Override
+    @Transactional
+    public int deleteEnrolmentByStudentIdAndCourseId(Long studentId, Long courseId) {
+        entityManager.flush();
+        List<LocalDateTime> createdAt = entityManager.createQuery("SELECT e.createdAt FROM Enrolment e WHERE e.id.studentId = ?1 AND e.id.courseId = ?2", LocalDateTime.class)
+                .setParameter(1, studentId)
+                .setParameter(2, courseId)
+                .getResultList();
+        if (createdAt.isEmpty()) {
+            return 0;
+        }
+        int deleted = entityManager.createQuery("DELETE FROM Enrolment e WHERE e.id.studentId = ?1 AND e.id.courseId = ?2")
+                .setParameter(1, studentId)
+                .setParameter(2, courseId)
+                .executeUpdate();
+        entityManager.clear();
+        enrolmentStatistics.enrolmentsChanged(courseId, createdAt.get(0).toLocalDate(), -deleted);
+        coEnrolmentGraphUpdater.unenrolled(studentId, courseId);
+        outbox.append(OutboxEvent.Type.STUDENT_UNENROLLED, studentId, Outbox.payload("studentId", studentId, "courseId", courseId));
+        return deleted;
+    }
+
+    @Override
+    @Transactional
+    public int deleteBooksByStudentIdAndBookName(Long studentId, String bookName) {
+        return deleteBooks(studentId, book -> bookName.equals(book.getBookName()),
+                "DELETE FROM Book b WHERE b.student.id = ?1 AND b.bookName = ?2", bookName);
+    }
+
+    @Override
+    @Transactional
+    public int deleteBookByStudentIdAndId(Long studentId, Long bookId) {
+        return deleteBooks(studentId, book -> bookId.equals(book.getId()),
+                "DELETE FROM Book b WHERE b.student.id = ?1 AND b.id = ?2", bookId);
+    }
+
+    // only the books that are gone leave the persistence context, not everything the caller holds
+    // - the student is managed with its books loaded: they're removed from Student.books instead (orphan removal deletes them
+    //   at the flush), a deleted book left in the collection would be cascaded to at the next flush
+    // - otherwise the DELETE, then the deleted books that were loaded on their own (no collection holds them) are detached
+    private int deleteBooks(Long studentId, Predicate<Book> deleted, String delete, Object parameter) {
+        List<Student> loaded = ManagedEntities.matching(entityManager, Student.class,
+                student -> studentId.equals(student.getId()) && Hibernate.isInitialized(student.getBooks()));
+        if (!loaded.isEmpty()) {
+            Student student = loaded.get(0);
+            List<Book> books = student.getBooks().stream().filter(deleted).toList();
+            books.forEach(student::removeBook);
+            entityManager.flush();
+            return books.size();
+        }
+        entityManager.flush();
+        int removed = entityManager.createQuery(delete)
+                .setParameter(1, studentId)
+                .setParameter(2, parameter)
+                .executeUpdate();
+        ManagedEntities.matching(entityManager, Book.class, book -> book.getStudent() != null && studentId.equals(book.getStudent().getId()) && deleted.test(book))
+                .forEach(entityManager::detach);
+        return removed;
+    }
+
+    // JPQL bulk DELETEs instead of em.remove for every student: 4 statements whatever the size of the cohort
+    // instead of loading each student with its collections and deleting its rows one by one
+    // they don't go through the persistence context so
+    // - cascade = REMOVE and orphanRemoval don't apply, the children are deleted explicitly
+    // - pending changes are flushed before (they could touch the same rows) and the persistence context is cleared after,
+    //   like @Modifying(flushAutomatically = true, clearAutomatically = true), so no managed entity points to a deleted row
+    // - no hibernate event is fired for the deleted students: their ids and emails are read first to evict them
+    //   from the near cache and the search index (and to write their STUDENT_DELETED events to the Outbox),
+    //   and their enrolments are counted by course and day for EnrolmentStatistics (CoEnrolmentGraph only needs the student ids)
+    // the second level cache regions of the affected tables (enrolment, course-enrolments) are evicted by hibernate itself
+    private int deleteCascading(String studentIds, Object parameter) {
+        entityManager.flush();
+        List<Object[]> students = entityManager.createQuery("SELECT s.id, s.email FROM Student s WHERE s.id IN (" + studentIds + ")", Object[].class)
+                .setParameter(1, parameter)
+                .getResultList();
+        List<Object[]> enrolments = entityManager.createQuery("SELECT e.id.courseId, cast(e.createdAt AS LocalDate), count(e) FROM Enrolment e " +
+                        "WHERE e.student.id IN (" + studentIds + ") GROUP BY e.id.courseId, cast(e.createdAt AS LocalDate)", Object[].class)
+                .setParameter(1, parameter)
+                .getResultList();
+        int deleted = 0;
+        for (String statement : CASCADE) {
+            deleted = entityManager.createQuery(statement.formatted(studentIds))
+                    .setParameter(1, parameter)
+                    .executeUpdate();
+        }
+        entityManager.clear();
+        for (Object[] enrolment : enrolments) {
+            enrolmentStatistics.enrolmentsChanged((Long) enrolment[0], (LocalDate) enrolment[1], -(Long) enrolment[2]);
+        }
+        studentEmailNearCache.evictAfterCommit(students.stream().map(student -> (String) student[1]).toList());
+        studentSearchIndexer.removeAfterCommit(students.stream().map(student -> (Long) student[0]).toList());
+        coEnrolmentGraphUpdater.studentsRemoved(students.stream().map(student -> (Long) student[0]).toList());
+        students.forEach(student -> outbox.append(OutboxEvent.Type.STUDENT_DELETED, (Long) student[0], Outbox.payload("studentId", student[0])));
+        return deleted;     // the last statement is the one deleting the students
+    }
+}
@@ -0,0 +1,5 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// body of POST /api/students
+public record StudentRequest(String firstName, String lastName, String email, int age) {
+}
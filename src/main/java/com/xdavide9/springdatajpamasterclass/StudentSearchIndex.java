@@ -0,0 +1,287 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.UnaryOperator;
+
+// in memory inverted index over the first name, last name, email and book names of every student
+// (StudentSearchIndexer fills it at startup and keeps it up to date, StudentSearchService runs the searches)
+// - the terms are the lowercase words of each field (maria@gmail.com is maria, gmail and com)
+// - the posting of a term says in which students it appears and with which weight: the best field it was found in,
+//   names weigh more than emails and emails more than books
+// - a query matches the students that match every one of its words, the score adds up for each word
+//   field weight x how the word matched: exact 1, prefix 0.6, with a typo 0.4
+// - typos are up to 1 edit for words of 3 to 5 characters and 2 for longer ones, they are only looked for
+//   when the exact and prefix matches of the word don't fill the page (see collectTypos)
+// writes to the same student are serialized by the compute of documents, the rest (searches included) doesn't lock
+// so a search can see a student halfway through an update
+@Component
+public class StudentSearchIndex {
+
+    enum Field {
+        FIRST_NAME(3), LAST_NAME(3), EMAIL(2), BOOK(1);
+
+        private final int weight;
+
+        Field(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    record Document(Long id, String firstName, String lastName, String email, List<String> books) {
+
+        Document withStudent(String firstName, String lastName, String email) {
+            return new Document(id, firstName, lastName, email, books);
+        }
+
+        Document withBook(String bookName) {
+            List<String> added = new ArrayList<>(books);
+            added.add(bookName);
+            return new Document(id, firstName, lastName, email, added);
+        }
+
+        Document withoutBook(String bookName) {
+            List<String> removed = new ArrayList<>(books);
+            removed.remove(bookName);   // only one of them, a student can have the same book twice
+            return new Document(id, firstName, lastName, email, removed);
+        }
+    }
+
+    record Hit(Long studentId, double score) {
+    }
+
+    private static final double EXACT = 1;
+    private static final double PREFIX = 0.6;
+    private static final double TYPO = 0.4;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MAX_PREFIX_EXPANSIONS = 1000;  // terms a short prefix can expand to
+
+    private final Map<Long, Document> documents = new ConcurrentHashMap<>();
+    private final Map<String, Map<Long, Integer>> postings = new ConcurrentHashMap<>();
+    private final NavigableSet<String> terms = new ConcurrentSkipListSet<>();   // sorted for the prefix lookups
+
+    public void put(Document document) {
+        documents.compute(document.id(), (id, old) -> {
+            if (old != null) {
+                unindex(old);
+            }
+            index(document);
+            return document;
+        });
+    }
+
+    // keeps the books of the student, they have their own events
+    public void putStudent(Long studentId, String firstName, String lastName, String email) {
+        documents.compute(studentId, (id, old) -> {
+            Document document = old == null
+                    ? new Document(id, firstName, lastName, email, List.of())
+                    : old.withStudent(firstName, lastName, email);
+            if (old != null) {
+                unindex(old);
+            }
+            index(document);
+            return document;
+        });
+    }
+
+    // a student that isn't in the index is skipped, its books come with it when it's indexed
+    public void addBook(Long studentId, String bookName) {
+        update(studentId, old -> old.withBook(bookName));
+    }
+
+    public void removeBook(Long studentId, String bookName) {
+        update(studentId, old -> old.withoutBook(bookName));
+    }
+
+    public void remove(Long studentId) {
+        documents.computeIfPresent(studentId, (id, old) -> {
+            unindex(old);
+            return null;
+        });
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    private void update(Long studentId, UnaryOperator<Document> change) {
+        documents.computeIfPresent(studentId, (id, old) -> {
+            Document document = change.apply(old);
+            unindex(old);
+            index(document);
+            return document;
+        });
+    }
+
+    private void index(Document document) {
+        termWeights(document).forEach((term, weight) -> postings.compute(term, (key, posting) -> {
+            if (posting == null) {
+                posting = new ConcurrentHashMap<>();
+                terms.add(term);
+            }
+            posting.put(document.id(), weight);
+            return posting;
+        }));
+    }
+
+    private void unindex(Document document) {
+        termWeights(document).keySet().forEach(term -> postings.computeIfPresent(term, (key, posting) -> {
+            posting.remove(document.id());
+            if (posting.isEmpty()) {
+                terms.remove(term);
+                return null;
+            }
+            return posting;
+        }));
+    }
+
+    // every term of the document with the weight of the best field it appears in
+    private static Map<String, Integer> termWeights(Document document) {
+        Map<String, Integer> weights = new HashMap<>();
+        addTerms(weights, document.firstName(), Field.FIRST_NAME);
+        addTerms(weights, document.lastName(), Field.LAST_NAME);
+        addTerms(weights, document.email(), Field.EMAIL);
+        document.books().forEach(book -> addTerms(weights, book, Field.BOOK));
+        return weights;
+    }
+
+    private static void addTerms(Map<String, Integer> weights, String text, Field field) {
+        for (String term : tokens(text)) {
+            weights.merge(term, field.weight, Math::max);
+        }
+    }
+
+    static List<String> tokens(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(token -> !token.isEmpty())
+                .distinct()
+                .toList();
+    }
+
+    // the best limit students, highest score first (then lowest id)
+    public List<Hit> search(String query, int limit) {
+        if (limit < 1) {
+            return List.of();
+        }
+        Map<Long, Double> scores = null;
+        for (String word : tokens(query)) {
+            Map<Long, Double> matches = match(word, limit);
+            if (scores == null) {
+                scores = matches;
+            } else {
+                Map<Long, Double> both = new HashMap<>();
+                for (Map.Entry<Long, Double> score : scores.entrySet()) {
+                    Double match = matches.get(score.getKey());
+                    if (match != null) {
+                        both.put(score.getKey(), score.getValue() + match);
+                    }
+                }
+                scores = both;
+            }
+            if (scores.isEmpty()) {
+                return List.of();
+            }
+        }
+        if (scores == null) {
+            return List.of();
+        }
+        // a heap of the best limit hits instead of sorting all of them, a common word matches most of the students
+        Comparator<Hit> ranking = Comparator.comparingDouble(Hit::score).reversed().thenComparing(Hit::studentId);
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, ranking.reversed());
+        scores.forEach((studentId, score) -> {
+            Hit hit = new Hit(studentId, score);
+            if (best.size() < limit) {
+                best.add(hit);
+            } else if (ranking.compare(hit, best.peek()) < 0) {
+                best.poll();
+                best.add(hit);
+            }
+        });
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(ranking);
+        return hits;
+    }
+
+    private Map<Long, Double> match(String word, int limit) {
+        Map<Long, Double> matches = new HashMap<>();
+        collect(matches, postings.get(word), EXACT);
+        if (word.length() >= MIN_PREFIX_LENGTH) {
+            int expansions = 0;
+            for (String term : terms.subSet(word, false, word + Character.MAX_VALUE, false)) {
+                if (++expansions > MAX_PREFIX_EXPANSIONS) {
+                    break;
+                }
+                collect(matches, postings.get(term), PREFIX);
+            }
+        }
+        int maxEdits = word.length() < 3 ? 0 : word.length() <= 5 ? 1 : 2;
+        if (matches.size() < limit && maxEdits > 0) {
+            collectTypos(matches, word, maxEdits);
+        }
+        return matches;
+    }
+
+    // walks the sorted terms like a trie: the rows of the edit distance matrix computed for a prefix are reused
+    // by every term that starts with it, and once a whole row is above maxEdits every term starting with that prefix
+    // is skipped (student42 is close to student4242, student9 isn't and neither is any of the 10000 terms after it)
+    private void collectTypos(Map<Long, Double> matches, String word, int maxEdits) {
+        int maxLength = word.length() + maxEdits;
+        int[][] rows = new int[maxLength + 1][word.length() + 1];
+        for (int j = 0; j <= word.length(); j++) {
+            rows[0][j] = j;
+        }
+        String computed = "";  // the prefix rows[1..length] were computed for
+        String term = terms.isEmpty() ? null : terms.first();
+        while (term != null) {
+            int depth = commonPrefixLength(computed, term);
+            int end = Math.min(term.length(), maxLength);
+            boolean skip = false;
+            while (depth < end && !skip) {
+                depth++;
+                int[] previous = rows[depth - 1];
+                int[] row = rows[depth];
+                row[0] = depth;
+                int rowMin = depth;
+                char c = term.charAt(depth - 1);
+                for (int j = 1; j <= word.length(); j++) {
+                    int substitution = previous[j - 1] + (c == word.charAt(j - 1) ? 0 : 1);
+                    row[j] = Math.min(substitution, Math.min(previous[j], row[j - 1]) + 1);
+                    rowMin = Math.min(rowMin, row[j]);
+                }
+                skip = rowMin > maxEdits;
+            }
+            computed = term.substring(0, depth);
+            if (skip || term.length() > maxLength) {
+                // every following term with this prefix is as far or (being longer) too long
+                term = terms.higher(computed + Character.MAX_VALUE);
+                continue;
+            }
+            if (rows[depth][word.length()] <= maxEdits && !term.equals(word)) {
+                collect(matches, postings.get(term), TYPO);
+            }
+            term = terms.higher(term);
+        }
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static void collect(Map<Long, Double> matches, Map<Long, Integer> posting, double quality) {
+        if (posting != null) {
+            posting.forEach((studentId, weight) -> matches.merge(studentId, weight * quality, Math::max));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+// keeps StudentSearchIndex in line with the database
+// - at startup the whole index is built from the database: the id range of the students is split in
+//   masterclass.search.rebuild-batch-size ids and the pieces are loaded and indexed by masterclass.search.rebuild-threads threads
+// - then every committed insert, update and delete of a Student or a Book is applied to the index
+//   through hibernate's post commit listeners (the same way StudentEmailNearCache is kept up to date)
+// - bulk statements don't fire those events, whoever runs them calls removeAfterCommit/removeBooksAfterCommit/reindexAfterCommit
+//   (StudentRepositoryCustomImpl, StudentService)
+// students changed while the rebuild is running are read again once it's over, the rebuild could have read them before the change
+@Component
+@Slf4j
+public class StudentSearchIndexer implements
+        PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener, SmartInitializingSingleton {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final StudentSearchIndex index;
+    private final StudentRepository studentRepository;
+    // the reads of this class run after the commit of someone else's transaction (or inside hibernate's completion of it)
+    // so they always get a new one
+    private final TransactionTemplate readOnlyTransaction;
+    private final int rebuildThreads;
+    private final int rebuildBatchSize;
+    private final CountDownLatch rebuilt = new CountDownLatch(1);
+    private final Set<Long> changedDuringRebuild = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebuilding = true;
+
+    public StudentSearchIndexer(EntityManagerFactory entityManagerFactory,
+                                StudentSearchIndex index,
+                                @Lazy StudentRepository studentRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${masterclass.search.rebuild-threads:4}") int rebuildThreads,
+                                @Value("${masterclass.search.rebuild-batch-size:10000}") int rebuildBatchSize) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.index = index;
+        this.studentRepository = studentRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.rebuildThreads = rebuildThreads;
+        this.rebuildBatchSize = rebuildBatchSize;
+    }
+
+    // registered once every singleton exists, unwrapping the EntityManagerFactory waits for its background bootstrap (see Outbox)
+    @Override
+    public void afterSingletonsInstantiated() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    // on a thread of its own so the application doesn't wait for it, searches see a partial index until it's done
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildInBackground() {
+        Thread thread = new Thread(this::rebuild, "student-search-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void rebuild() {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(rebuildThreads);
+        try {
+            Optional<Long> min = studentRepository.findMinId();
+            Optional<Long> max = studentRepository.findMaxId();
+            List<Future<?>> batches = new ArrayList<>();
+            if (min.isPresent() && max.isPresent()) {
+                for (long from = min.get(); from <= max.get(); from += rebuildBatchSize) {
+                    long to = Math.min(from + rebuildBatchSize - 1, max.get());
+                    long batchStart = from;
+                    batches.add(executor.submit(() -> indexRange(batchStart, to)));
+                }
+            }
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+            rebuilding = false;
+            changedDuringRebuild.forEach(this::reindex);
+            changedDuringRebuild.clear();
+            log.info("Search index rebuilt with {} students in {} ms", index.size(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) {
+            log.error("Search index rebuild failed, only the students changed from now on can be found", e);
+        } finally {
+            rebuilding = false;
+            executor.shutdown();
+            rebuilt.countDown();
+        }
+    }
+
+    public boolean awaitRebuild(Duration timeout) throws InterruptedException {
+        return rebuilt.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void indexRange(long from, long to) {
+        readOnlyTransaction.executeWithoutResult(status -> {
+            Map<Long, List<String>> books = new HashMap<>();
+            for (Object[] row : studentRepository.findBookNamesByStudentIdBetween(from, to)) {
+                books.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add((String) row[1]);
+            }
+            for (StudentSnapshot student : studentRepository.findSnapshotsByIdBetween(from, to)) {
+                index.put(new StudentSearchIndex.Document(student.id(), student.firstName(), student.lastName(), student.email(),
+                        books.getOrDefault(student.id(), List.of())));
+            }
+        });
+    }
+
+    // reads the student and its books again, or removes it if it's gone
+    private void reindex(Long studentId) {
+        readOnlyTransaction.executeWithoutResult(status -> {
+            Optional<StudentSnapshot> student = studentRepository.findSnapshotById(studentId);
+            if (student.isEmpty()) {
+                index.remove(studentId);
+                return;
+            }
+            List<String> books = studentRepository.findBookNamesByStudentIdBetween(studentId, studentId).stream()
+                    .map(row -> (String) row[1])
+                    .toList();
+            StudentSnapshot snapshot = student.get();
+            index.put(new StudentSearchIndex.Document(studentId, snapshot.firstName(), snapshot.lastName(), snapshot.email(), books));
+        });
+    }
+
+    public void removeAfterCommit(Collection<Long> studentIds) {
+        afterCommit(() -> studentIds.forEach(this::removed));
+    }
+
+    // when the name of the deleted books is known there is nothing to read again
+    public void removeBooksAfterCommit(Long studentId, String bookName, int count) {
+        afterCommit(() -> {
+            for (int i = 0; i < count; i++) {
+                index.removeBook(studentId, bookName);
+            }
+            changed(studentId);
+        });
+    }
+
+    public void reindexAfterCommit(Long studentId) {
+        afterCommit(() -> {
+            reindex(studentId);
+            changed(studentId);
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void removed(Long studentId) {
+        index.remove(studentId);
+        changed(studentId);
+    }
+
+    private void changed(Long studentId) {
+        if (rebuilding) {
+            changedDuringRebuild.add(studentId);
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            index.putStudent(student.getId(), student.getFirstName(), student.getLastName(), student.getEmail());
+            changed(student.getId());
+        } else if (event.getEntity() instanceof Book book && book.getStudent() != null) {
+            index.addBook(book.getStudent().getId(), book.getBookName());
+            changed(book.getStudent().getId());
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            index.putStudent(student.getId(), student.getFirstName(), student.getLastName(), student.getEmail());
+            changed(student.getId());
+        } else if (event.getEntity() instanceof Book book && book.getStudent() != null) {
+            Object[] oldState = event.getOldState();
+            if (oldState != null) {
+                index.removeBook(book.getStudent().getId(), (String) oldState[event.getPersister().getPropertyIndex("bookName")]);
+                index.addBook(book.getStudent().getId(), book.getBookName());
+            } else {
+                reindex(book.getStudent().getId());     // we can't know the previous name
+            }
+            changed(book.getStudent().getId());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Student student) {
+            removed(student.getId());
+        } else if (event.getEntity() instanceof Book book && book.getStudent() != null) {
+            index.removeBook(book.getStudent().getId(), book.getBookName());
+            changed(book.getStudent().getId());
+        }
+    }
+
+    // nothing was committed so there is nothing to change
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return Objects.equals(persister.getEntityName(), Student.class.getName())
+                || Objects.equals(persister.getEntityName(), Book.class.getName());
+    }
+}
@@ -0,0 +1,51 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// prefix and typo tolerant search over names, emails and book names through StudentSearchIndex
+// the index only gives back ranked student ids, the students are then read in batches of
+// masterclass.search.hydrate-batch-size ids with one query each and returned in the order of the ranking
+// (a student deleted in the meantime is simply left out)
+@Service
+public class StudentSearchService {
+
+    private final StudentSearchIndex studentSearchIndex;
+    private final StudentRepository studentRepository;
+    private final int hydrateBatchSize;
+
+    public StudentSearchService(StudentSearchIndex studentSearchIndex,
+                                StudentRepository studentRepository,
+                                @Value("${masterclass.search.hydrate-batch-size:50}") int hydrateBatchSize) {
+        this.studentSearchIndex = studentSearchIndex;
+        this.studentRepository = studentRepository;
+        this.hydrateBatchSize = hydrateBatchSize;
+    }
+
+    // no database access at all
+    public List<Long> searchIds(String query, int limit) {
+        return studentSearchIndex.search(query, limit).stream()
+                .map(StudentSearchIndex.Hit::studentId)
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
+    public List<StudentSnapshot> search(String query, int limit) {
+        List<Long> ids = searchIds(query, limit);
+        Map<Long, StudentSnapshot> students = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += hydrateBatchSize) {
+            List<Long> batch = ids.subList(from, Math.min(from + hydrateBatchSize, ids.size()));
+            studentRepository.findSnapshotsByIdIn(batch).forEach(student -> students.put(student.id(), student));
+        }
+        return ids.stream()
+                .map(students::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+}
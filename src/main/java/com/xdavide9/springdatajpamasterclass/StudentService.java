@@ -1,14 +1,24 @@
 package com.xdavide9.springdatajpamasterclass;
 
-import jakarta.transaction.Transactional;
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityNotFoundException;
 import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 @Service
 @AllArgsConstructor
+@Slf4j
+// a timer for every public method (masterclass.student.service with class and method tags, see TimedAspect in MetricsConfig)
+@Timed(value = "masterclass.student.service", histogram = true)
 public class StudentService {
 
     // @Transactional should be used in the service layer
@@ -28,24 +38,45 @@ public class StudentService {
     // therefore always throw unchecked exceptions in the service layer
     // never throw checked exceptions
 
+    // spring's @Transactional instead of jakarta's because of readOnly: hibernate skips dirty checking and flushing
+    // and with a replica configured the transaction runs there (see ReadWriteRoutingDataSource)
+
     private StudentRepository studentRepository;
     private final CourseRepository courseRepository;
+    // the targeted deletes of books don't fire hibernate events, these two are told about them
+    private final StudentSearchIndexer studentSearchIndexer;
+    private final Outbox outbox;
 
-    @Transactional  // the transaction will work here because it's not a self-invocation
+    // the fetch methods use the entity graphs of StudentRepository/CourseRepository so that the data they print
+    // is loaded in a single query instead of 1 (student) + 1 (collection) + N (course of each enrolment) queries
+    @Transactional(readOnly = true)  // the transaction will work here because it's not a self-invocation
     public void fetchStudentBooks(Long studentId) {
-        studentRepository.findById(studentId).ifPresent(student -> {
-            List<Book> books = student.getBooks();
-            System.out.println(student);
-            System.out.println(books);
+        studentRepository.findWithBooksById(studentId).ifPresent(student -> {
+            Set<Book> books = student.getBooks();
+            log.debug("{} {}", student, books);
         });
     }
 
-    @Transactional()
+    @Transactional(readOnly = true)
     public void fetchStudentEnrolments(Long studentId) {
-        studentRepository.findById(studentId).ifPresent(student -> {
-            List<Enrolment> enrolments = student.getEnrolments();
-            System.out.println(student);
-            System.out.println(enrolments);
+        studentRepository.findWithEnrolmentsById(studentId).ifPresent(student -> {
+            Set<Enrolment> enrolments = student.getEnrolments();
+            log.debug("{} {}", student, enrolments);
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public void fetchStudentsEnrolments(Collection<Long> studentIds) {
+        studentRepository.findWithEnrolmentsByIdIn(studentIds).forEach(student -> {
+            log.debug("{} {}", student, student.getEnrolments());
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public void fetchCourseRoster(Long courseId) {
+        courseRepository.findWithRosterById(courseId).ifPresent(course -> {
+            log.debug("{}", course);
+            course.getEnrolments().forEach(enrolment -> log.debug("{}", enrolment.getStudent()));
         });
     }
 
@@ -109,20 +140,180 @@ public class StudentService {
         // there is a lot of flexibility depending on what you are currently trying to do
     }
 
+    // a DELETE by student and name instead of loading the student with all of its books to find the one to remove
+    // see the targeted commands of StudentRepository for what happens to the persistence context (only the deleted books leave it)
     @Transactional
     public void removeBookFromStudent(Long studentId, String bookName) {
-        studentRepository.findById(studentId).ifPresent(student -> {
-            List<Book> books = student.getBooks();
-            Book bookToRemove = books.stream()
-                    .filter(book -> book.getBookName().equals(bookName))
-                    .findFirst()
-                    .orElse(null);
-            if (bookToRemove != null) {
-                student.removeBook(bookToRemove);
-                System.out.println("Book removed: " + bookToRemove.getBookName());
-            } else {
-                System.out.println("Book not found.");
+        int removed = studentRepository.deleteBooksByStudentIdAndBookName(studentId, bookName);
+        if (removed > 0) {
+            studentSearchIndexer.removeBooksAfterCommit(studentId, bookName, removed);
+            for (int i = 0; i < removed; i++) {
+                outbox.append(OutboxEvent.Type.BOOK_REMOVED, studentId, Outbox.payload("studentId", studentId, "bookName", bookName));
             }
-        });
+            log.info("Book removed: {}", bookName);
+        } else {
+            log.info("Book not found: {}", bookName);
+        }
+    }
+
+    // the methods behind the REST api (StudentController), they return records instead of entities
+    // so nothing lazy is touched after the transaction is over
+    // a student or course that doesn't exist is an EntityNotFoundException (404, see ApiExceptionHandler)
+
+    @Transactional(readOnly = true)
+    public StudentSnapshot getStudent(Long studentId) {
+        return studentRepository.findSnapshotById(studentId).orElseThrow(() -> studentNotFound(studentId));
+    }
+
+    // the existence of the student is only checked when there are no rows, a student with books doesn't pay for it
+    @Transactional(readOnly = true)
+    public List<BookResponse> getStudentBooks(Long studentId) {
+        List<BookResponse> books = studentRepository.findBookResponsesByStudentId(studentId);
+        if (books.isEmpty() && !studentRepository.existsById(studentId)) {
+            throw studentNotFound(studentId);
+        }
+        return books;
+    }
+
+    @Transactional(readOnly = true)
+    public List<EnrolmentResponse> getStudentEnrolments(Long studentId) {
+        List<EnrolmentResponse> enrolments = studentRepository.findEnrolmentResponsesByStudentId(studentId);
+        if (enrolments.isEmpty() && !studentRepository.existsById(studentId)) {
+            throw studentNotFound(studentId);
+        }
+        return enrolments;
+    }
+
+    // the books and enrolments made from from to to (both included), a term or a month, see TimePartitions
+    @Transactional(readOnly = true)
+    public List<BookResponse> getStudentBooks(Long studentId, LocalDate from, LocalDate to) {
+        checkDates(from, to);
+        List<BookResponse> books = studentRepository.findBookResponsesByStudentIdCreatedBetween(studentId, from.atStartOfDay(), to.plusDays(1).atStartOfDay());
+        if (books.isEmpty() && !studentRepository.existsById(studentId)) {
+            throw studentNotFound(studentId);
+        }
+        return books;
+    }
+
+    @Transactional(readOnly = true)
+    public List<EnrolmentResponse> getStudentEnrolments(Long studentId, LocalDate from, LocalDate to) {
+        checkDates(from, to);
+        List<EnrolmentResponse> enrolments = studentRepository.findEnrolmentResponsesByStudentIdCreatedBetween(studentId, from.atStartOfDay(), to.plusDays(1).atStartOfDay());
+        if (enrolments.isEmpty() && !studentRepository.existsById(studentId)) {
+            throw studentNotFound(studentId);
+        }
+        return enrolments;
+    }
+
+    // a duplicated email fails on the student_email_unique constraint at commit (409)
+    @Transactional
+    public StudentSnapshot createStudent(StudentRequest request) {
+        if (isBlank(request.firstName()) || isBlank(request.lastName()) || isBlank(request.email())) {
+            throw new IllegalArgumentException("firstName, lastName and email are required");
+        }
+        Student student = studentRepository.save(Student.builder()
+                .firstName(request.firstName())
+                .lastName(request.lastName())
+                .email(request.email())
+                .age(request.age()).build());
+        return StudentSnapshot.of(student);
+    }
+
+    // books, enrolments and the id card go with the student (cascade REMOVE)
+    @Transactional
+    public void deleteStudent(Long studentId) {
+        Student student = studentRepository.findById(studentId).orElseThrow(() -> studentNotFound(studentId));
+        studentRepository.delete(student);
+    }
+
+    @Transactional
+    public BookResponse addBookToStudent(Long studentId, String bookName) {
+        if (isBlank(bookName)) {
+            throw new IllegalArgumentException("bookName is required");
+        }
+        Student student = studentRepository.findWithBooksById(studentId).orElseThrow(() -> studentNotFound(studentId));
+        Book book = Book.builder()
+                .bookName(bookName)
+                .createdAt(LocalDateTime.now()).build();
+        student.addBook(book);
+        studentRepository.flush();  // the book is persisted by the cascade at flush time, that's when it gets its id
+        return new BookResponse(book.getId(), book.getBookName(), book.getCreatedAt());
+    }
+
+    // the student is only looked for when nothing was deleted, to tell a missing student from a missing book
+    @Transactional
+    public void removeBookFromStudent(Long studentId, Long bookId) {
+        if (studentRepository.deleteBookByStudentIdAndId(studentId, bookId) == 0) {
+            throw studentRepository.existsById(studentId)
+                    ? new EntityNotFoundException("Book " + bookId + " of student " + studentId + " not found")
+                    : studentNotFound(studentId);
+        }
+        studentSearchIndexer.reindexAfterCommit(studentId);
+        outbox.append(OutboxEvent.Type.BOOK_REMOVED, studentId, Outbox.payload("studentId", studentId, "bookId", bookId));
+    }
+
+    // enrolling twice in the same course returns the enrolment that's already there
+    // only Student.enrolments is updated: Course.addEnrolment would load the whole roster of the course just to add one row
+    // (the cached Course.enrolments is evicted anyway, see auto_evict_collection_cache)
+    // the insert takes a seat of a course with capacity (see CourseSeats), it's flushed here to tell a full course apart
+    @Transactional
+    public EnrolmentResponse enrolStudent(Long studentId, Long courseId) {
+        Student student = studentRepository.findWithEnrolmentsById(studentId).orElseThrow(() -> studentNotFound(studentId));
+        Course course = courseRepository.findById(courseId).orElseThrow(() -> courseNotFound(courseId));
+        Enrolment enrolment = student.getEnrolments().stream()
+                .filter(existing -> existing.getCourse().getId().equals(courseId))
+                .findFirst()
+                .orElseGet(() -> {
+                    Enrolment created = Enrolment.builder()
+                            .id(new EnrolmentId(studentId, courseId))
+                            .createdAt(LocalDateTime.now())
+                            .student(student)
+                            .course(course)
+                            .build();
+                    student.addEnrolment(created);
+                    try {
+                        studentRepository.flush();
+                    } catch (DataIntegrityViolationException e) {
+                        throw CourseSeats.isCourseFull(e) ? new CourseFullException(courseId) : e;
+                    }
+                    return created;
+                });
+        return new EnrolmentResponse(course.getId(), course.getName(), course.getDepartment(), enrolment.getCreatedAt());
+    }
+
+    @Transactional
+    public void unenrolStudent(Long studentId, Long courseId) {
+        if (studentRepository.deleteEnrolmentByStudentIdAndCourseId(studentId, courseId) == 0) {
+            throw studentRepository.existsById(studentId)
+                    ? new EntityNotFoundException("Student " + studentId + " is not enrolled in course " + courseId)
+                    : studentNotFound(studentId);
+        }
+    }
+
+    // students that don't exist are skipped, returns the number of students updated
+    @Transactional
+    public int updateStudentAges(Collection<Long> studentIds, int age) {
+        if (age < 0) {
+            throw new IllegalArgumentException("age can't be negative");
+        }
+        return studentRepository.updateAgeByIdIn(studentIds, age);
+    }
+
+    private static EntityNotFoundException studentNotFound(Long studentId) {
+        return new EntityNotFoundException("Student " + studentId + " not found");
+    }
+
+    private static EntityNotFoundException courseNotFound(Long courseId) {
+        return new EntityNotFoundException("Course " + courseId + " not found");
+    }
+
+    static void checkDates(LocalDate from, LocalDate to) {
+        if (from == null || to == null || to.isBefore(from)) {
+            throw new IllegalArgumentException("from and to are both required and from must not be after to");
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
     }
 }
@@ -0,0 +1,9 @@
+package com.xdavide9.springdatajpamasterclass;
+
+// the plain columns of a student, without any association and not managed by the persistence context
+public record StudentSnapshot(Long id, String firstName, String lastName, String email, int age) {
+
+    static StudentSnapshot of(Student student) {
+        return new StudentSnapshot(student.getId(), student.getFirstName(), student.getLastName(), student.getEmail(), student.getAge());
+    }
+}
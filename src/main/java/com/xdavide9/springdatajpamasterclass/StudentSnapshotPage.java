@@ -0,0 +1,7 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import java.util.List;
+
+// a StudentKeysetPage as returned by StudentController, the entities are turned into snapshots before they leave the service
+public record StudentSnapshotPage(List<StudentSnapshot> content, String next, String previous) {
+}
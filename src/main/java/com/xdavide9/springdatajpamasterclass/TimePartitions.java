@@ -0,0 +1,177 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// the monthly partitions of enrolment and book (see V3__time_partitions.sql): created ahead of time, detached once they're old
+// - at startup and then every night (masterclass.partitions.maintenance-cron) the partitions of the current month and of the
+//   masterclass.partitions.months-ahead next ones are created, and the ones of the months with rows in the default partition
+//   (an import of old enrolments...) with those rows moved in
+// - with masterclass.partitions.retention-months the partitions of the months before that are detached: the rows leave the table
+//   with a change to the catalog instead of a DELETE going through them and stay in a table of their own (enrolment_2024_01...)
+//   to archive or drop. The detach doesn't fire hibernate events, the rows of the detached table are read in the same transaction
+//   and handed to EnrolmentStatistics, CoEnrolmentGraphUpdater and StudentSearchIndexer like a bulk delete does (see StudentRepositoryCustomImpl)
+//   nor the delete trigger of enrolment, the seats of its courses are given back with release_course_seats (see CourseSeats)
+//   the second level cache doesn't see it either: once it committed the enrolment and course-enrolments regions are emptied
+//   (the detached enrolments would be served from there until they expire), like an HQL statement on enrolment does
+//   no outbox events: the enrolments were archived, not ended, a STUDENT_UNENROLLED for every one of them would tell the
+//   consumers the students left their courses (and write millions of events in one transaction), the consumers keep them
+// every partition is created or detached in a transaction of its own holding an advisory lock, two nodes don't do it at the same time
+// a detach needs the parent table for itself for an instant, it waits masterclass.partitions.lock-timeout for the queries running on it
+// and is tried again next time if they take longer
+@Component
+@Slf4j
+public class TimePartitions {
+
+    static final List<String> TABLES = List.of("enrolment", "book");
+    private static final long LOCK_KEY = 0x7a3e11;   // any constant, the same for every node
+    private static final Pattern PARTITION = Pattern.compile("(\\w+)_(\\d{4}_\\d{2})");
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String PARTITIONS = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = to_regclass(?) ORDER BY c.relname";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EnrolmentStatistics enrolmentStatistics;
+    private final CoEnrolmentGraphUpdater coEnrolmentGraphUpdater;
+    private final StudentSearchIndexer studentSearchIndexer;
+    private final EntityManagerFactory entityManagerFactory;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private final Duration lockTimeout;
+
+    public TimePartitions(JdbcTemplate jdbcTemplate,
+                          TransactionTemplate transactionTemplate,
+                          EnrolmentStatistics enrolmentStatistics,
+                          CoEnrolmentGraphUpdater coEnrolmentGraphUpdater,
+                          StudentSearchIndexer studentSearchIndexer,
+                          EntityManagerFactory entityManagerFactory,
+                          @Value("${masterclass.partitions.months-ahead:3}") int monthsAhead,
+                          @Value("${masterclass.partitions.retention-months:0}") int retentionMonths,
+                          @Value("${masterclass.partitions.lock-timeout:2s}") Duration lockTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enrolmentStatistics = enrolmentStatistics;
+        this.coEnrolmentGraphUpdater = coEnrolmentGraphUpdater;
+        this.studentSearchIndexer = studentSearchIndexer;
+        this.entityManagerFactory = entityManagerFactory;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+        this.lockTimeout = lockTimeout;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${masterclass.partitions.maintenance-cron:0 0 2 * * *}")
+    public void maintain() {
+        YearMonth current = YearMonth.now();
+        int created = createPartitions(current);
+        List<String> detached = retentionMonths > 0 ? detachPartitionsBefore(current.minusMonths(retentionMonths)) : List.of();
+        log.info("Time partitions maintained, {} created, {} detached {}", created, detached.size(), detached);
+    }
+
+    // returns how many were created
+    public int createPartitions(YearMonth current) {
+        int created = 0;
+        for (String table : TABLES) {
+            SortedSet<YearMonth> months = new TreeSet<>(monthsInDefaultPartition(table));
+            for (int i = 0; i <= monthsAhead; i++) {
+                months.add(current.plusMonths(i));
+            }
+            for (YearMonth month : months) {
+                // the rows of a month past the retention stay in the default partition, its partition would be detached right away
+                if (retentionMonths > 0 && month.isBefore(current.minusMonths(retentionMonths))) {
+                    continue;
+                }
+                if (createPartition(table, month)) {
+                    created++;
+                }
+            }
+        }
+        return created;
+    }
+
+    boolean createPartition(String table, YearMonth month) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+            return jdbcTemplate.queryForObject("SELECT create_month_partition(?::regclass, ?)", Boolean.class, table, Date.valueOf(month.atDay(1)));
+        }));
+    }
+
+    private List<YearMonth> monthsInDefaultPartition(String table) {
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForList(
+                        "SELECT DISTINCT to_char(created_at, 'YYYY_MM') FROM " + table + "_default", String.class)
+                .stream()
+                .map(month -> YearMonth.parse(month, MONTH))
+                .toList());
+    }
+
+    // the partitions of the months before oldest, returns the ones that were detached
+    public List<String> detachPartitionsBefore(YearMonth oldest) {
+        List<String> detached = new ArrayList<>();
+        for (String table : TABLES) {
+            for (String partition : partitions(table)) {
+                Matcher name = PARTITION.matcher(partition);
+                if (name.matches() && name.group(1).equals(table) && YearMonth.parse(name.group(2), MONTH).isBefore(oldest)
+                        && detach(table, partition)) {
+                    detached.add(partition);
+                }
+            }
+        }
+        return detached;
+    }
+
+    public List<String> partitions(String table) {
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForList(PARTITIONS, String.class, table));
+    }
+
+    boolean detach(String table, String partition) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+                jdbcTemplate.execute("SET LOCAL lock_timeout = " + lockTimeout.toMillis());
+                jdbcTemplate.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+                // nothing can be written to it anymore, what's there is what left the table
+                if (table.equals("enrolment")) {
+                    jdbcTemplate.query("SELECT course_id, created_at::date, count(*) FROM " + partition + " GROUP BY 1, 2", resultSet -> {
+                        enrolmentStatistics.enrolmentsChanged(resultSet.getLong(1), resultSet.getDate(2).toLocalDate(), -resultSet.getLong(3));
+                    });
+                    jdbcTemplate.query("SELECT student_id, course_id FROM " + partition, resultSet -> {
+                        coEnrolmentGraphUpdater.unenrolled(resultSet.getLong(1), resultSet.getLong(2));
+                    });
+                    jdbcTemplate.execute("SELECT release_course_seats(course_id, count(*)::integer) FROM " + partition +
+                            " GROUP BY course_id ORDER BY course_id");
+                } else {
+                    jdbcTemplate.queryForList("SELECT DISTINCT student_id FROM " + partition, Long.class)
+                            .forEach(studentSearchIndexer::reindexAfterCommit);
+                }
+            });
+            if (table.equals("enrolment")) {
+                entityManagerFactory.getCache().evict(Enrolment.class);
+                entityManagerFactory.unwrap(SessionFactoryImplementor.class).getCache().evictCollectionData(Course.class.getName() + ".enrolments");
+            }
+            log.info("Detached {} from {} in {} ms", partition, table, Duration.ofNanos(System.nanoTime() - start).toMillis());
+            return true;
+        } catch (DataAccessException e) {
+            log.warn("Could not detach {} from {}, it's tried again next time", partition, table, e);
+            return false;
+        }
+    }
+}
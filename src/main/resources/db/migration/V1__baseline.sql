@@ -0,0 +1,80 @@
+-- the schema as hibernate generated it with ddl-auto create-drop, before the migrations took over
+
+CREATE SEQUENCE student_sequence START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE student_id_card_sequence START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE book_sequence START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE course_sequence START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE outbox_event_sequence START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE student (
+    id bigint NOT NULL,
+    first_name TEXT NOT NULL,
+    last_name TEXT NOT NULL,
+    email TEXT NOT NULL,
+    age integer NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT student_email_unique UNIQUE (email)
+);
+
+CREATE INDEX student_first_name_index ON student (first_name, id);
+
+CREATE TABLE student_id_card (
+    id bigint NOT NULL,
+    card_number TEXT NOT NULL,
+    student_id bigint UNIQUE,
+    PRIMARY KEY (id),
+    CONSTRAINT student_id_card_number_unique UNIQUE (card_number),
+    CONSTRAINT student_id_card_fk FOREIGN KEY (student_id) REFERENCES student
+);
+
+CREATE TABLE book (
+    id bigint NOT NULL,
+    book_name varchar(255) NOT NULL,
+    created_at timestamp(6) NOT NULL,
+    student_id bigint NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT student_book_fk FOREIGN KEY (student_id) REFERENCES student
+);
+
+CREATE INDEX book_student_id_index ON book (student_id);
+
+CREATE TABLE course (
+    id bigint NOT NULL,
+    name TEXT NOT NULL,
+    department TEXT NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE enrolment (
+    student_id bigint NOT NULL,
+    course_id bigint NOT NULL,
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    PRIMARY KEY (course_id, student_id),
+    CONSTRAINT enrolment_student_id_fk FOREIGN KEY (student_id) REFERENCES student,
+    CONSTRAINT enrolment_course_id_fk FOREIGN KEY (course_id) REFERENCES course
+);
+
+CREATE INDEX enrolment_student_id_index ON enrolment (student_id);
+
+CREATE TABLE import_checkpoint (
+    job_name TEXT NOT NULL,
+    last_committed_line bigint NOT NULL,
+    updated_at timestamp(6) NOT NULL,
+    PRIMARY KEY (job_name)
+);
+
+CREATE TABLE enrolment_statistic (
+    dimension varchar(16) NOT NULL CHECK (dimension IN ('COURSE', 'DEPARTMENT', 'DAY')),
+    bucket TEXT NOT NULL,
+    enrolments bigint NOT NULL,
+    PRIMARY KEY (dimension, bucket)
+);
+
+CREATE TABLE outbox_event (
+    id bigint NOT NULL,
+    type varchar(32) NOT NULL CHECK (type IN ('STUDENT_CREATED', 'STUDENT_DELETED', 'STUDENT_ENROLLED', 'STUDENT_UNENROLLED', 'BOOK_ADDED', 'BOOK_REMOVED')),
+    student_id bigint NOT NULL,
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    PRIMARY KEY (id)
+);
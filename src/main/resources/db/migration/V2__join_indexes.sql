@@ -0,0 +1,18 @@
+-- every join between the tables of the entities starts from an index (JoinIndexCheck reports the ones that don't)
+-- book.student_id         book_student_id_index (V1)
+-- student_id_card         the unique constraint on student_id (V1)
+-- enrolment.course_id     the primary key, course_id first (V1)
+-- enrolment.student_id    enrolment_student_id_index (V1)
+-- the two enrolment indexes cover every column of the table so Student.enrolments, Course.enrolments (the roster),
+-- the export and the cascading delete are index only scans once vacuum has marked the pages all visible
+
+ALTER TABLE enrolment
+    DROP CONSTRAINT enrolment_pkey,
+    ADD CONSTRAINT enrolment_pkey PRIMARY KEY (course_id, student_id) INCLUDE (created_at);
+
+DROP INDEX enrolment_student_id_index;
+CREATE INDEX enrolment_student_id_index ON enrolment (student_id) INCLUDE (course_id, created_at);
+
+-- not a join but the other lookup of the course catalog: CourseRepository.findCoursesByDepartment (ordered by name)
+-- and findCourseByNameAndDepartment, the query cache only helps after the first of them
+CREATE INDEX course_department_name_index ON course (department, name);
@@ -0,0 +1,97 @@
+-- enrolment and book partitioned by month of created_at: enrolment_2024_01, book_2024_01... (TimePartitions creates them
+-- ahead of time and detaches the old ones), a query bounded on created_at only reads the partitions of its months
+-- - rows of a month without partition go to the default partition, create_month_partition moves them out when it creates theirs
+-- - a partitioned table can only have unique constraints that contain the partition key, the primary keys get created_at:
+--   book ids come from book_sequence anyway, the (student_id, course_id) of an enrolment stays unique through the
+--   enrolment_unique_key trigger instead
+-- - the existing rows are copied into partitions made for the months they have, the indexes and constraints are built after
+
+-- creates <parent>_<yyyy>_<mm> for the month of day, false if the table exists already (also once it has been detached)
+-- the partition is made as a table of its own and attached: that locks the parent against ddl only (share update exclusive),
+-- not against reads and writes like CREATE TABLE ... PARTITION OF would, only the default partition is locked while it's checked
+-- for rows of the month (none left after the move), and the check constraint spares the scan of the new table
+CREATE FUNCTION create_month_partition(parent regclass, day date) RETURNS boolean
+LANGUAGE plpgsql AS $$
+DECLARE
+    month date := date_trunc('month', day)::date;
+    next_month date := (date_trunc('month', day) + interval '1 month')::date;
+    partition_name text := parent::text || '_' || to_char(day, 'YYYY_MM');
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TABLE %I (LIKE %s INCLUDING DEFAULTS)', partition_name, parent);
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I CHECK (created_at >= %L AND created_at < %L)',
+                   partition_name, partition_name || '_range', month, next_month);
+    EXECUTE format('WITH moved AS (DELETE FROM %I WHERE created_at >= %L AND created_at < %L RETURNING *) INSERT INTO %I SELECT * FROM moved',
+                   parent::text || '_default', month, next_month, partition_name);
+    EXECUTE format('ALTER TABLE %s ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)', parent, partition_name, month, next_month);
+    EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', partition_name, partition_name || '_range');
+    RETURN true;
+END
+$$;
+
+ALTER TABLE enrolment RENAME TO enrolment_unpartitioned;
+ALTER TABLE book RENAME TO book_unpartitioned;
+
+CREATE TABLE enrolment (
+    student_id bigint NOT NULL,
+    course_id bigint NOT NULL,
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE enrolment_default PARTITION OF enrolment DEFAULT;
+
+CREATE TABLE book (
+    id bigint NOT NULL,
+    book_name varchar(255) NOT NULL,
+    created_at timestamp(6) NOT NULL,
+    student_id bigint NOT NULL
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE book_default PARTITION OF book DEFAULT;
+
+SELECT create_month_partition('enrolment', month) FROM (SELECT DISTINCT date_trunc('month', created_at)::date AS month FROM enrolment_unpartitioned) months;
+SELECT create_month_partition('book', month) FROM (SELECT DISTINCT date_trunc('month', created_at)::date AS month FROM book_unpartitioned) months;
+
+INSERT INTO enrolment (student_id, course_id, created_at) SELECT student_id, course_id, created_at FROM enrolment_unpartitioned;
+INSERT INTO book (id, book_name, created_at, student_id) SELECT id, book_name, created_at, student_id FROM book_unpartitioned;
+
+DROP TABLE enrolment_unpartitioned;
+DROP TABLE book_unpartitioned;
+
+-- the same indexes as V2, course_id first in the primary key, both still cover every column
+ALTER TABLE enrolment
+    ADD CONSTRAINT enrolment_pkey PRIMARY KEY (course_id, student_id, created_at),
+    ADD CONSTRAINT enrolment_student_id_fk FOREIGN KEY (student_id) REFERENCES student,
+    ADD CONSTRAINT enrolment_course_id_fk FOREIGN KEY (course_id) REFERENCES course;
+
+CREATE INDEX enrolment_student_id_index ON enrolment (student_id) INCLUDE (course_id, created_at);
+
+ALTER TABLE book
+    ADD CONSTRAINT book_pkey PRIMARY KEY (id, created_at),
+    ADD CONSTRAINT student_book_fk FOREIGN KEY (student_id) REFERENCES student;
+
+CREATE INDEX book_student_id_index ON book (student_id);
+
+-- what the primary key on (course_id, student_id) did: a second enrolment of a student in a course fails with a unique violation (409)
+-- the lock on the student row makes a concurrent enrolment of the same student wait for the first one to commit or roll back,
+-- then the lookup sees it (read committed, every statement of the function takes a new snapshot)
+-- a row lock is kept in the row itself, an advisory lock per enrolment would fill the shared lock table
+-- (max_locks_per_transaction) on an insert of some thousand enrolments in one transaction. no key update doesn't conflict with
+-- the key share lock of the foreign keys, books and enrolments of other students go on
+-- the lookup goes through enrolment_student_id_index of every partition, one index probe each
+CREATE FUNCTION enrolment_unique_key() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM 1 FROM student WHERE id = NEW.student_id FOR NO KEY UPDATE;
+    IF EXISTS (SELECT 1 FROM enrolment WHERE student_id = NEW.student_id AND course_id = NEW.course_id) THEN
+        RAISE EXCEPTION 'duplicate key value violates unique constraint "enrolment_student_course_unique"'
+            USING ERRCODE = 'unique_violation', CONSTRAINT = 'enrolment_student_course_unique',
+                  DETAIL = format('Key (student_id, course_id)=(%s, %s) already exists.', NEW.student_id, NEW.course_id);
+    END IF;
+    RETURN NEW;
+END
+$$;
+
+CREATE TRIGGER enrolment_unique_key BEFORE INSERT ON enrolment FOR EACH ROW EXECUTE FUNCTION enrolment_unique_key();
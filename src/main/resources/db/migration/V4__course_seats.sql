@@ -0,0 +1,76 @@
+-- course capacity: a course with a capacity takes as many enrolments as it has seats, a course without one (null) any number
+-- the free seats are split over a few course_seat rows (stripes, see CourseSeats) instead of a counter on the course row:
+-- an enrolment locks the stripe it takes its seat from until it commits, with one counter every enrolment in the course
+-- would queue on that lock, with stripes the enrolments running at the same time take their seats from different rows
+-- free can't go below zero, whatever path the enrolment came from (api, import) a course is never overbooked
+ALTER TABLE course ADD COLUMN capacity integer CHECK (capacity >= 0);
+
+CREATE TABLE course_seat (
+    course_id bigint NOT NULL REFERENCES course ON DELETE CASCADE,
+    stripe integer NOT NULL,
+    free integer NOT NULL,
+    CONSTRAINT course_seat_pkey PRIMARY KEY (course_id, stripe),
+    CONSTRAINT course_seat_free CHECK (free >= 0)
+);
+
+-- a seat for every enrolment inserted into a course with a capacity
+-- - the course row is locked in key share mode like the foreign key check does (no new conflict): CourseSeats.setCapacity
+--   locks it for update, so it waits for the enrolments in flight and the ones after it read the new capacity
+-- - first a stripe with free seats that no other enrolment holds (skip locked), the random order spreads the enrolments over them
+-- - if every stripe with free seats is held it waits for one of them, another enrolment may have taken its last seat in the
+--   meantime (free > 0 is checked again on the row it waited for) and it looks again
+-- - no stripe with free seats: the course is full, the check violation of course_seat_free taking the last seat twice would
+--   raise (the same message so hibernate reads the constraint name out of it, see CourseSeats.isCourseFull)
+CREATE FUNCTION enrolment_take_seat() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    course_capacity integer;
+BEGIN
+    SELECT capacity INTO course_capacity FROM course WHERE id = NEW.course_id FOR KEY SHARE;
+    IF course_capacity IS NULL THEN
+        RETURN NEW;
+    END IF;
+    LOOP
+        UPDATE course_seat SET free = free - 1
+        WHERE (course_id, stripe) = (SELECT course_id, stripe FROM course_seat WHERE course_id = NEW.course_id AND free > 0
+                                     ORDER BY random() LIMIT 1 FOR UPDATE SKIP LOCKED);
+        IF FOUND THEN
+            RETURN NEW;
+        END IF;
+        UPDATE course_seat SET free = free - 1
+        WHERE (course_id, stripe) = (SELECT course_id, stripe FROM course_seat WHERE course_id = NEW.course_id AND free > 0
+                                     ORDER BY random() LIMIT 1)
+          AND free > 0;
+        IF FOUND THEN
+            RETURN NEW;
+        END IF;
+        IF NOT EXISTS (SELECT 1 FROM course_seat WHERE course_id = NEW.course_id AND free > 0) THEN
+            RAISE EXCEPTION 'new row for relation "course_seat" violates check constraint "course_seat_free"'
+                USING ERRCODE = 'check_violation', CONSTRAINT = 'course_seat_free', TABLE = 'course_seat',
+                      DETAIL = format('Course %s has no free seats.', NEW.course_id);
+        END IF;
+    END LOOP;
+END
+$$;
+
+CREATE TRIGGER enrolment_take_seat BEFORE INSERT ON enrolment FOR EACH ROW EXECUTE FUNCTION enrolment_take_seat();
+
+-- seats given back to a random stripe of the course (nothing happens for a course without capacity, it has no stripes)
+-- also called by TimePartitions for the enrolments of a detached partition, a detach doesn't fire the delete trigger
+CREATE FUNCTION release_course_seats(course bigint, seats integer) RETURNS void
+LANGUAGE sql AS $$
+    UPDATE course_seat SET free = free + seats
+    WHERE course_id = course AND stripe = (SELECT stripe FROM course_seat WHERE course_id = course ORDER BY random() LIMIT 1);
+$$;
+
+-- once per statement with the deleted rows, a bulk delete of students gives back the seats of a course in one update
+CREATE FUNCTION enrolment_release_seats() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM release_course_seats(course_id, count(*)::integer) FROM removed GROUP BY course_id ORDER BY course_id;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER enrolment_release_seats AFTER DELETE ON enrolment REFERENCING OLD TABLE AS removed
+    FOR EACH STATEMENT EXECUTE FUNCTION enrolment_release_seats();
@@ -0,0 +1,8 @@
+-- the outbox split by student in 16 partitions, dispatched one worker at a time each (see OutboxDispatcher, which has the same count)
+-- the index has the events of a partition in the order they were written: a batch is a range of it, an empty partition a single probe
+CREATE FUNCTION outbox_partition(student_id bigint) RETURNS integer
+LANGUAGE sql IMMUTABLE PARALLEL SAFE AS $$
+    SELECT abs(student_id % 16)::integer;
+$$;
+
+CREATE INDEX outbox_event_partition_index ON outbox_event (outbox_partition(student_id), id);
@@ -0,0 +1,15 @@
+-- the BEFORE INSERT triggers of enrolment fire in the order of their names, enrolment_take_seat (V4) came before
+-- enrolment_unique_key (V3): a duplicate enrolment took a seat (and held its stripe) before it was refused, and in a full
+-- course it failed as "course full" instead of as the duplicate it is. the number in the name is the order they fire in now
+-- (a trigger added later picks its place with its number), the functions stay the same
+ALTER TRIGGER enrolment_unique_key ON enrolment RENAME TO enrolment_1_unique_key;
+ALTER TRIGGER enrolment_take_seat ON enrolment RENAME TO enrolment_2_take_seat;
+
+-- what enrolment_unique_key costs: the FOR NO KEY UPDATE lock on the student row is held until the enrolment commits
+-- - the enrolments of one student are serialized, a second one (any course) waits for the transaction of the first
+-- - an UPDATE of the student row (age, name, email) takes the same lock and waits too, and so does an enrolment for a
+--   student whose row an open transaction has updated
+-- - an import of many enrolments in one transaction holds the rows of all its students until it commits
+-- enrolments of different students and the key share locks of the foreign keys (books, cards) don't wait for it
+-- no weaker row lock conflicts with itself, and a lock per (student, course) pair would be an advisory lock per enrolment,
+-- which an import fills the shared lock table with (see V3)
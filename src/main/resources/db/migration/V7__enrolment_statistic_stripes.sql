@@ -0,0 +1,10 @@
+-- a counter of enrolment_statistic is split over stripes like the free seats of a course (see V4): a transaction adds its deltas
+-- to the rows of one stripe (see EnrolmentStatistics) and the count is the sum of the stripes. with a single row per counter
+-- every enrolment in a course (and every enrolment of the day) queued on that row from its upsert to its commit, behind the
+-- stripes of course_seat they had just taken their seats from
+-- the existing counters become stripe 0, the readers sum whatever stripes there are so their number can change any time
+ALTER TABLE enrolment_statistic ADD COLUMN stripe integer NOT NULL DEFAULT 0;
+ALTER TABLE enrolment_statistic ALTER COLUMN stripe DROP DEFAULT;
+ALTER TABLE enrolment_statistic
+    DROP CONSTRAINT enrolment_statistic_pkey,
+    ADD CONSTRAINT enrolment_statistic_pkey PRIMARY KEY (dimension, bucket, stripe);
@@ -0,0 +1,4 @@
+-- the outbox is dispatched with FOR UPDATE SKIP LOCKED again, by id (the primary key), and no longer by partition (see OutboxDispatcher)
+-- the events of a student are kept in order by the student locks of Outbox and the batches leaving out what another one holds
+DROP INDEX outbox_event_partition_index;
+DROP FUNCTION outbox_partition(bigint);
@@ -0,0 +1,118 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// slices of 2 ids so every query forks, and a compaction after a few replaced ids
+class CoEnrolmentGraphTests {
+
+    private final CoEnrolmentGraph graph = new CoEnrolmentGraph(2, 2, 8);
+
+    // student 1: courses 10, 20, 30 / 2: 10, 20 / 3: 20, 30, 40 / 4: 40 (the first pair twice)
+    @BeforeEach
+    void load() {
+        long[] students = {1, 1, 1, 2, 2, 3, 3, 3, 4, 1};
+        long[] courses = {10, 20, 30, 10, 20, 20, 30, 40, 40, 10};
+        graph.load(students, courses, students.length);
+    }
+
+    @AfterEach
+    void shutdown() {
+        graph.shutdown();
+    }
+
+    @Test
+    void bothDirectionsAreLoadedWithoutDuplicates() {
+        assertThat(graph.coursesOf(1L)).containsExactly(10L, 20L, 30L);
+        assertThat(graph.studentsOf(20L)).containsExactly(1L, 2L, 3L);
+        assertThat(graph.coursesOf(5L)).isEmpty();
+        assertThat(graph.studentCount()).isEqualTo(4);
+        assertThat(graph.courseCount()).isEqualTo(4);
+        assertThat(graph.enrolmentCount()).isEqualTo(9);
+    }
+
+    @Test
+    void classmatesShareTheMostCourses() {
+        assertThat(graph.classmates(1L, 10)).containsExactly(
+                new ClassmateResponse(2L, 2, 2.0 / 3),
+                new ClassmateResponse(3L, 2, 0.5));
+        assertThat(graph.classmates(1L, 1)).extracting(ClassmateResponse::studentId).containsExactly(2L);
+        assertThat(graph.classmates(5L, 10)).isEmpty();
+    }
+
+    @Test
+    void recommendedCoursesAreTheOnesOfSimilarStudents() {
+        assertThat(graph.recommendCourses(1L, 10)).containsExactly(new CourseRecommendationResponse(40L, 0.5));
+        assertThat(graph.recommendCourses(2L, 10)).extracting(CourseRecommendationResponse::courseId).containsExactly(30L, 40L);
+    }
+
+    @Test
+    void coursesTakenWithACourseAreCountedByStudent() {
+        assertThat(graph.coursesTakenWith(20L, 10)).containsExactly(
+                new CoursePairResponse(10L, 2, 2.0 / 3),
+                new CoursePairResponse(30L, 2, 2.0 / 3),
+                new CoursePairResponse(40L, 1, 1.0 / 3));
+    }
+
+    @Test
+    void changesReplaceTheRowsTheyTouch() {
+        CoEnrolmentGraph.Changes changes = new CoEnrolmentGraph.Changes();
+        changes.enrolled(4L, 10L);
+        changes.unenrolled(1L, 30L);
+        changes.enrolled(2L, 30L);
+        changes.unenrolled(2L, 30L);    // the last change wins
+        changes.removed(3L);
+        graph.apply(changes);
+
+        assertThat(graph.coursesOf(1L)).containsExactly(10L, 20L);
+        assertThat(graph.coursesOf(2L)).containsExactly(10L, 20L);
+        assertThat(graph.coursesOf(3L)).isEmpty();
+        assertThat(graph.coursesOf(4L)).containsExactly(10L, 40L);
+        assertThat(graph.studentsOf(10L)).containsExactly(1L, 2L, 4L);
+        assertThat(graph.studentsOf(30L)).isEmpty();
+        assertThat(graph.studentCount()).isEqualTo(3);
+        assertThat(graph.courseCount()).isEqualTo(3);
+        assertThat(graph.enrolmentCount()).isEqualTo(6);
+
+        graph.compact();
+
+        assertThat(graph.coursesOf(4L)).containsExactly(10L, 40L);
+        assertThat(graph.studentsOf(10L)).containsExactly(1L, 2L, 4L);
+        assertThat(graph.studentCount()).isEqualTo(3);
+        assertThat(graph.enrolmentCount()).isEqualTo(6);
+    }
+
+    // how CoEnrolmentGraphUpdater replays the transactions that committed while the graph was loading
+    @Test
+    void applyingChangesAgainChangesNothing() {
+        CoEnrolmentGraph.Changes changes = new CoEnrolmentGraph.Changes();
+        changes.enrolled(1L, 10L);
+        changes.enrolled(5L, 50L);
+        changes.unenrolled(4L, 20L);
+        graph.apply(changes);
+        graph.apply(changes);
+
+        assertThat(graph.coursesOf(1L)).containsExactly(10L, 20L, 30L);
+        assertThat(graph.coursesOf(5L)).containsExactly(50L);
+        assertThat(graph.coursesOf(4L)).containsExactly(40L);
+        assertThat(graph.enrolmentCount()).isEqualTo(10);
+    }
+
+    @Test
+    void manyChangesCompactTheArrays() {
+        for (long student = 100; student < 200; student++) {
+            CoEnrolmentGraph.Changes changes = new CoEnrolmentGraph.Changes();
+            changes.enrolled(student, 10L);
+            changes.enrolled(student, 20L);
+            graph.apply(changes);
+        }
+
+        assertThat(graph.studentsOf(10L)).hasSize(102);
+        assertThat(graph.studentCount()).isEqualTo(104);
+        assertThat(graph.enrolmentCount()).isEqualTo(209);
+        assertThat(graph.classmates(100L, 3)).extracting(ClassmateResponse::studentId).containsExactly(2L, 101L, 102L);
+    }
+}
@@ -0,0 +1,136 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// every test enrols its own students in courses of its own
+@SpringBootTest
+class CoEnrolmentGraphUpdaterTests {
+
+    @Autowired
+    private CoEnrolmentGraph coEnrolmentGraph;
+    @Autowired
+    private CoEnrolmentGraphUpdater coEnrolmentGraphUpdater;
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Long firstCourse;
+    private Long secondCourse;
+
+    @BeforeEach
+    void createCourses() throws InterruptedException {
+        assertThat(coEnrolmentGraphUpdater.awaitLoad(Duration.ofSeconds(30))).isTrue();
+        firstCourse = courseService.createCourse(new CourseRequest("Graphs", "Co-enrolment " + UUID.randomUUID())).id();
+        secondCourse = courseService.createCourse(new CourseRequest("Trees", "Co-enrolment " + UUID.randomUUID())).id();
+    }
+
+    @Test
+    void committedEnrolmentsAreInTheGraph() {
+        Long first = student("first");
+        Long second = student("second");
+        studentService.enrolStudent(first, firstCourse);
+        studentService.enrolStudent(first, secondCourse);
+        studentService.enrolStudent(second, firstCourse);
+
+        assertThat(coEnrolmentGraph.coursesOf(first)).containsExactly(firstCourse, secondCourse);
+        assertThat(coEnrolmentGraph.studentsOf(firstCourse)).containsExactly(first, second);
+        assertThat(coEnrolmentGraph.recommendCourses(second, 10)).extracting(CourseRecommendationResponse::courseId).containsExactly(secondCourse);
+
+        studentService.unenrolStudent(first, secondCourse);    // a bulk DELETE
+        studentService.deleteStudent(second);   // cascades to the enrolment
+
+        assertThat(coEnrolmentGraph.coursesOf(first)).containsExactly(firstCourse);
+        assertThat(coEnrolmentGraph.studentsOf(firstCourse)).containsExactly(first);
+        assertThat(coEnrolmentGraph.coursesOf(second)).isEmpty();
+    }
+
+    @Test
+    void rolledBackEnrolmentsAreNotInTheGraph() {
+        Long student = student("rolledback");
+        transactionTemplate.executeWithoutResult(status -> {
+            studentService.enrolStudent(student, firstCourse);
+            status.setRollbackOnly();
+        });
+
+        assertThat(coEnrolmentGraph.studentsOf(firstCourse)).isEmpty();
+    }
+
+    @Test
+    void bulkDeletedStudentsLeaveTheGraph() {
+        String firstName = "Bulk-" + UUID.randomUUID();
+        Long deleted = student(firstName);
+        Long stays = student("stays");
+        studentService.enrolStudent(deleted, firstCourse);
+        studentService.enrolStudent(deleted, secondCourse);
+        studentService.enrolStudent(stays, firstCourse);
+
+        assertThat(studentRepository.deleteStudentsByFirstName(firstName)).isEqualTo(1);
+
+        assertThat(coEnrolmentGraph.coursesOf(deleted)).isEmpty();
+        assertThat(coEnrolmentGraph.studentsOf(firstCourse)).containsExactly(stays);
+        assertThat(coEnrolmentGraph.studentsOf(secondCourse)).isEmpty();
+    }
+
+    // the callback of the enrolment is held back (by a process registered before the one of the updater) until the unenrolment,
+    // which committed after it, went all the way through on another thread: the enrolment mustn't come back
+    @Test
+    void changesAreAppliedInCommitOrder() {
+        Long student = student("ordered");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                entityManager.unwrap(SessionImplementor.class).getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, session) -> {
+                    try {
+                        executor.submit(() -> studentService.unenrolStudent(student, firstCourse)).get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                studentService.enrolStudent(student, firstCourse);
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(coEnrolmentGraph.coursesOf(student)).isEmpty();
+        assertThat(coEnrolmentGraph.studentsOf(firstCourse)).isEmpty();
+    }
+
+    @Test
+    void loadingReadsTheEnrolmentTable() {
+        Long student = student("loaded");
+        studentService.enrolStudent(student, firstCourse);
+        coEnrolmentGraph.load(new long[0], new long[0], 0);
+
+        coEnrolmentGraphUpdater.load();
+
+        assertThat(coEnrolmentGraph.coursesOf(student)).containsExactly(firstCourse);
+    }
+
+    private Long student(String firstName) {
+        return studentService.createStudent(new StudentRequest(firstName, "Graphed", UUID.randomUUID() + "@co-enrolment.test", 20)).id();
+    }
+}
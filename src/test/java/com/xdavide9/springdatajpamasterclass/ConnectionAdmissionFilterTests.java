@@ -0,0 +1,65 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionAdmissionFilterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void requestsBeyondThePermitsWaitAndThenGetA503() throws Exception {
+        ConnectionAdmissionFilter filter = new ConnectionAdmissionFilter(1, 10, Duration.ofMillis(50), registry);
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch leave = new CountDownLatch(1);
+        CompletableFuture<MockHttpServletResponse> first = CompletableFuture.supplyAsync(() -> {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            try {
+                filter.doFilter(new MockHttpServletRequest(), response, (request, ignored) -> {
+                    inside.countDown();
+                    try {
+                        leave.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return response;
+        });
+        inside.await();
+
+        MockHttpServletResponse second = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest(), second, (request, response) -> { });
+        assertThat(second.getStatus()).isEqualTo(503);
+        assertThat(second.getHeader("Retry-After")).isEqualTo("1");
+        assertThat(registry.get("masterclass.admission.in-flight").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("masterclass.admission.rejected").tag("reason", "timeout").counter().count()).isEqualTo(1);
+
+        leave.countDown();
+        assertThat(first.get().getStatus()).isEqualTo(200);
+        MockHttpServletResponse third = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest(), third, (request, response) -> { });
+        assertThat(third.getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void aFullQueueIsRejectedWithoutWaiting() throws Exception {
+        ConnectionAdmissionFilter filter = new ConnectionAdmissionFilter(0, 0, Duration.ofSeconds(10), registry);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest(), response, (request, ignored) -> { });
+
+        assertThat(response.getStatus()).isEqualTo(503);
+        assertThat(registry.get("masterclass.admission.rejected").tag("reason", "queue-full").counter().count()).isEqualTo(1);
+    }
+}
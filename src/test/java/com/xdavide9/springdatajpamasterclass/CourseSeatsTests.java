@@ -0,0 +1,132 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class CourseSeatsTests {
+
+    private static final int CAPACITY = 300;
+    private static final int STUDENTS = 1200;
+    // the connections of the pool (spring.datasource.hikari.maximum-pool-size): the api lets that many requests in at a time and
+    // queues the others in order (ConnectionAdmissionFilter), more threads here would measure who wins the next free connection
+    private static final int THREADS = 10;
+
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private EnrolmentStatisticsService enrolmentStatisticsService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // registration day: four students for every seat, all of them at once through StudentService.enrolStudent
+    // the course ends up with exactly its capacity, the others are told it's full (how fast: EnrolmentRushBenchmark)
+    @Test
+    void anEnrolmentRushNeverOverbooksTheCourse() throws Exception {
+        Long courseId = courseService.createCourse(new CourseRequest("Rush", "Seats " + UUID.randomUUID(), CAPACITY)).id();
+        List<Long> studentIds = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            studentIds.add(student());
+        }
+
+        AtomicInteger enrolled = new AtomicInteger();
+        AtomicInteger full = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> enrolments = new ArrayList<>();
+            for (int i = 0; i < STUDENTS; i++) {
+                int student = i;
+                enrolments.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        studentService.enrolStudent(studentIds.get(student), courseId);
+                        enrolled.incrementAndGet();
+                    } catch (CourseFullException e) {
+                        full.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> enrolment : enrolments) {
+                enrolment.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(enrolled.get()).isEqualTo(CAPACITY);
+        assertThat(full.get()).isEqualTo(STUDENTS - CAPACITY);
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM enrolment WHERE course_id = ?", Long.class, courseId)).isEqualTo(CAPACITY);
+        assertThat(courseService.getSeats(courseId)).isEqualTo(new CourseSeatsResponse(courseId, CAPACITY, 0L));
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isEqualTo(CAPACITY);
+    }
+
+    @Test
+    void seatsComeBackWhenEnrolmentsAreDeleted() {
+        Long courseId = courseService.createCourse(new CourseRequest("Small", "Seats " + UUID.randomUUID(), 2)).id();
+        Long first = student();
+        Long second = student();
+        Long third = student();
+        studentService.enrolStudent(first, courseId);
+        studentService.enrolStudent(second, courseId);
+        studentService.enrolStudent(second, courseId);   // already enrolled, no seat taken
+
+        assertThatThrownBy(() -> studentService.enrolStudent(third, courseId)).isInstanceOf(CourseFullException.class);
+
+        studentService.unenrolStudent(first, courseId);
+        assertThat(courseService.getSeats(courseId).freeSeats()).isEqualTo(1);
+        studentService.enrolStudent(third, courseId);
+        studentService.deleteStudent(second);   // its enrolments go with it
+        assertThat(courseService.getSeats(courseId).freeSeats()).isEqualTo(1);
+    }
+
+    // the uniqueness trigger fires before the seat trigger (see V6__enrolment_trigger_order.sql), in a full course a duplicate
+    // is refused as a duplicate, not as a course without seats
+    @Test
+    void aDuplicateEnrolmentIsRefusedBeforeItTakesASeat() {
+        Long courseId = courseService.createCourse(new CourseRequest("Single", "Seats " + UUID.randomUUID(), 1)).id();
+        Long studentId = student();
+        studentService.enrolStudent(studentId, courseId);
+
+        assertThatThrownBy(() -> jdbcTemplate.update("INSERT INTO enrolment (student_id, course_id, created_at) VALUES (?, ?, now())", studentId, courseId))
+                .isInstanceOf(DuplicateKeyException.class);
+        assertThat(courseService.getSeats(courseId).freeSeats()).isZero();
+    }
+
+    @Test
+    void theCapacityIsSetAgainstTheStudentsEnrolledAlready() {
+        Long courseId = courseService.createCourse(new CourseRequest("Open", "Seats " + UUID.randomUUID())).id();
+        for (int i = 0; i < 3; i++) {
+            studentService.enrolStudent(student(), courseId);
+        }
+        assertThat(courseService.getSeats(courseId)).isEqualTo(new CourseSeatsResponse(courseId, null, null));
+
+        assertThatThrownBy(() -> courseService.setCapacity(courseId, 2)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(courseService.setCapacity(courseId, 40)).isEqualTo(new CourseSeatsResponse(courseId, 40, 37L));
+        assertThat(courseService.getCourse(courseId).capacity()).isEqualTo(40);
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM course_seat WHERE course_id = ?", Long.class, courseId)).isEqualTo(16);
+
+        assertThat(courseService.setCapacity(courseId, null)).isEqualTo(new CourseSeatsResponse(courseId, null, null));
+        studentService.enrolStudent(student(), courseId);
+    }
+
+    private Long student() {
+        return studentService.createStudent(new StudentRequest("Seated", "Student", UUID.randomUUID() + "@seats.test", 20)).id();
+    }
+}
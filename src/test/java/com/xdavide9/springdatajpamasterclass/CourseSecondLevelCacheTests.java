@@ -0,0 +1,100 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.xdavide9.springdatajpamasterclass.SqlStatementCounter")
+class CourseSecondLevelCacheTests {
+
+    @Autowired
+    private CourseRepository courseRepository;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void cachedCourseIsServedWithoutQueriesAndRefreshedOnSave() {
+        Long id = courseRepository.save(Course.builder().name("Cached").department("Cache").build()).getId();
+        courseRepository.findById(id);
+
+        SqlStatementCounter.Counted<Course> cached = SqlStatementCounter.count(() -> courseRepository.findById(id).orElseThrow());
+        assertThat(cached.statements()).isZero();
+
+        Course course = cached.result();
+        course.setName("Renamed");
+        courseRepository.save(course);
+        assertThat(courseRepository.findById(id).orElseThrow().getName()).isEqualTo("Renamed");
+    }
+
+    @Test
+    void cachedCatalogQueryIsInvalidatedByNewCourses() {
+        String department = "Catalog-" + UUID.randomUUID();
+        courseRepository.save(Course.builder().name("First").department(department).build());
+        assertThat(courseRepository.findCoursesByDepartment(department)).hasSize(1);
+        assertThat(SqlStatementCounter.count(() -> courseRepository.findCoursesByDepartment(department)).statements()).isZero();
+
+        courseRepository.save(Course.builder().name("Second").department(department).build());
+
+        assertThat(courseRepository.findCoursesByDepartment(department)).extracting(Course::getName).containsExactly("First", "Second");
+    }
+
+    @Test
+    void cachedCoursesAndCatalogFollowTargetedUpdates() {
+        String department = "Moved-" + UUID.randomUUID();
+        Long id = courseRepository.save(Course.builder().name("Moving").department(department).build()).getId();
+        assertThat(courseRepository.findCoursesByDepartment(department)).hasSize(1);
+        courseRepository.findById(id);
+
+        courseService.renameCourse(id, "Moved");
+        assertThat(courseService.renameDepartment(department, department + "-new")).isEqualTo(1);
+
+        assertThat(courseRepository.findCoursesByDepartment(department)).isEmpty();
+        assertThat(courseRepository.findById(id).orElseThrow())
+                .extracting(Course::getName, Course::getDepartment)
+                .containsExactly("Moved", department + "-new");
+    }
+
+    @Test
+    void cachedEnrolmentsFollowAddAndRemove() {
+        String run = UUID.randomUUID().toString();
+        Long courseId = courseRepository.save(Course.builder().name("Roster").department("Cache").build()).getId();
+        assertThat(enrolmentCount(courseId)).isZero();  // puts the empty collection in the cache
+
+        Long studentId = transactionTemplate.execute(status -> {
+            Course course = courseRepository.findById(courseId).orElseThrow();
+            Student student = Student.builder().firstName("Cache").lastName("Student").email(run + "@cache.test").age(20).build();
+            Enrolment enrolment = Enrolment.builder()
+                    .id(new EnrolmentId())
+                    .student(student)
+                    .course(course)
+                    .createdAt(LocalDateTime.now())
+                    .build();
+            student.addEnrolment(enrolment);
+            course.addEnrolment(enrolment);
+            return studentRepository.save(student).getId();
+        });
+        assertThat(enrolmentCount(courseId)).isEqualTo(1);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Course course = courseRepository.findById(courseId).orElseThrow();
+            Enrolment enrolment = course.getEnrolments().iterator().next();
+            course.removeEnrolment(enrolment);
+            studentRepository.findById(studentId).orElseThrow().removeEnrolment(enrolment);
+        });
+        assertThat(enrolmentCount(courseId)).isZero();
+    }
+
+    private int enrolmentCount(Long courseId) {
+        return transactionTemplate.execute(status -> courseRepository.findById(courseId).orElseThrow().getEnrolments().size());
+    }
+}
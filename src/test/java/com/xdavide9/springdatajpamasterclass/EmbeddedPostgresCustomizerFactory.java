@@ -0,0 +1,58 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.test.context.ContextConfigurationAttributes;
+import org.springframework.test.context.ContextCustomizer;
+import org.springframework.test.context.ContextCustomizerFactory;
+import org.springframework.test.context.MergedContextConfiguration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+// the database of the tests: an embedded postgres (same binaries and version as the benchmarks, see pom.xml) started by the
+// first test context of the jvm and stopped when the jvm exits, so mvn test needs no postgres of its own
+// every test context gets its url as embedded-postgres.jdbc-url, src/test/resources/config/application.yaml points
+// spring.datasource.url to it (a test with properties of its own can still point it somewhere else)
+// registered in src/test/resources/META-INF/spring.factories, spring only looks for it in tests, the benchmarks in src/jmh
+// start a postgres of their own (BenchmarkContext)
+class EmbeddedPostgresCustomizerFactory implements ContextCustomizerFactory {
+
+    private static EmbeddedPostgres embeddedPostgres;
+
+    @Override
+    public ContextCustomizer createContextCustomizer(Class<?> testClass, List<ContextConfigurationAttributes> configAttributes) {
+        return new EmbeddedPostgresCustomizer();
+    }
+
+    private static synchronized String jdbcUrl() {
+        if (embeddedPostgres == null) {
+            try {
+                embeddedPostgres = EmbeddedPostgres.builder().start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("the embedded postgres of the tests didn't start", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    embeddedPostgres.close();
+                } catch (IOException ignored) {
+                    // the jvm is exiting anyway
+                }
+            }));
+        }
+        return embeddedPostgres.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true";
+    }
+
+    // the same for every test class (equals and hashCode of the record), it doesn't split spring's context cache
+    private record EmbeddedPostgresCustomizer() implements ContextCustomizer {
+
+        @Override
+        public void customizeContext(ConfigurableApplicationContext context, MergedContextConfiguration mergedConfig) {
+            context.getEnvironment().getPropertySources()
+                    .addLast(new MapPropertySource("embeddedPostgres", Map.of("embedded-postgres.jdbc-url", jdbcUrl())));
+        }
+    }
+}
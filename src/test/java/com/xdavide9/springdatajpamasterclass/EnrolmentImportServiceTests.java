@@ -0,0 +1,69 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.StringReader;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "masterclass.import.chunk-size=2")
+class EnrolmentImportServiceTests {
+
+    @Autowired
+    private EnrolmentImportService enrolmentImportService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void importsCsvInChunksAndSkipsDuplicates() {
+        String run = UUID.randomUUID().toString();
+        String csv = """
+                email,first_name,last_name,age,course_name,department,created_at
+                anna-%1$s@test.com,Anna,Bell,20,Math-%1$s,Mathematics,2024-09-01T10:00:00
+                anna-%1$s@test.com,Anna,Bell,20,Physics-%1$s,Physics,2024-09-01T10:05:00
+                ben-%1$s@test.com,Ben,"Carter, Jr",22,Math-%1$s,Mathematics,2024-09-02T09:00:00
+                ben-%1$s@test.com,Ben,"Carter, Jr",22,Math-%1$s,Mathematics,2024-09-02T09:00:00
+                """.formatted(run);
+
+        EnrolmentImportResult result = enrolmentImportService.importFrom(run, new StringReader(csv), EnrolmentImportFormat.CSV);
+
+        assertThat(result.chunksCommitted()).isEqualTo(2);
+        assertThat(result.studentsCreated()).isEqualTo(2);
+        assertThat(result.coursesCreated()).isEqualTo(2);
+        assertThat(result.enrolmentsCreated()).isEqualTo(3);
+        assertThat(countEnrolments(run)).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForObject("SELECT last_name FROM student WHERE email = ?", String.class, "ben-" + run + "@test.com"))
+                .isEqualTo("Carter, Jr");
+    }
+
+    @Test
+    void restartsAfterTheLastCommittedChunk() {
+        String run = UUID.randomUUID().toString();
+        String line = "{\"email\":\"s%d-%s@test.com\",\"firstName\":\"S\",\"lastName\":\"T\",\"age\":%s,\"courseName\":\"C-%s\",\"department\":\"D\",\"createdAt\":\"2024-09-01T10:00:00\"}\n";
+        String broken = line.formatted(1, run, "20", run) + line.formatted(2, run, "21", run)
+                + line.formatted(3, run, "22", run) + line.formatted(4, run, "\"x\"", run)   // age isn't a number
+                + line.formatted(5, run, "23", run);
+
+        assertThatThrownBy(() -> enrolmentImportService.importFrom(run, new StringReader(broken), EnrolmentImportFormat.NDJSON))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(countEnrolments(run)).isEqualTo(2);   // only the first chunk was committed
+
+        String fixed = broken.replace("\"x\"", "24");
+        EnrolmentImportResult result = enrolmentImportService.importFrom(run, new StringReader(fixed), EnrolmentImportFormat.NDJSON);
+
+        assertThat(result.resumedAfterLine()).isEqualTo(2);
+        assertThat(result.recordsImported()).isEqualTo(3);
+        assertThat(countEnrolments(run)).isEqualTo(5);
+    }
+
+    private Integer countEnrolments(String run) {
+        return jdbcTemplate.queryForObject("""
+                SELECT count(*) FROM enrolment e JOIN student s ON s.id = e.student_id
+                WHERE s.email LIKE ?""", Integer.class, "%-" + run + "@test.com");
+    }
+}
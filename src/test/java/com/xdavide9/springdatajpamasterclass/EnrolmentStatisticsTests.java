@@ -0,0 +1,125 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// every test enrols students in a course of a department of its own, so the course and department counters start from 0
+@SpringBootTest
+class EnrolmentStatisticsTests {
+
+    @Autowired
+    private EnrolmentStatisticsService enrolmentStatisticsService;
+    @Autowired
+    private EnrolmentStatistics enrolmentStatistics;
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String department;
+    private Long courseId;
+
+    @BeforeEach
+    void createCourse() {
+        department = "Statistics " + UUID.randomUUID();
+        courseId = courseService.createCourse(new CourseRequest("Counting", department)).id();
+    }
+
+    @Test
+    void enrolmentsAreCountedWhenTheyCommit() {
+        long today = enrolmentStatisticsService.countByDay(LocalDate.now(), LocalDate.now()).get(LocalDate.now());
+        Long first = student("first");
+        Long second = student("second");
+        studentService.enrolStudent(first, courseId);
+        studentService.enrolStudent(second, courseId);
+
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isEqualTo(2);
+        assertThat(enrolmentStatisticsService.countByDepartment(department)).isEqualTo(2);
+        assertThat(enrolmentStatisticsService.countByDay(LocalDate.now(), LocalDate.now())).containsEntry(LocalDate.now(), today + 2);
+
+        studentService.unenrolStudent(first, courseId);
+        studentService.deleteStudent(second);   // cascades to the enrolment
+
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isZero();
+        assertThat(enrolmentStatisticsService.countByDepartment(department)).isZero();
+        assertThat(enrolmentStatisticsService.countByDay(LocalDate.now(), LocalDate.now())).containsEntry(LocalDate.now(), today);
+    }
+
+    @Test
+    void rolledBackEnrolmentsAreNotCounted() {
+        Long student = student("rolledback");
+        transactionTemplate.executeWithoutResult(status -> {
+            studentService.enrolStudent(student, courseId);
+            status.setRollbackOnly();
+        });
+
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isZero();
+    }
+
+    @Test
+    void bulkDeletedStudentsAreSubtracted() {
+        String firstName = "Bulk-" + UUID.randomUUID();
+        studentService.enrolStudent(student(firstName), courseId);
+        studentService.enrolStudent(student(firstName), courseId);
+        studentService.enrolStudent(student("stays"), courseId);
+
+        assertThat(studentRepository.deleteStudentsByFirstName(firstName)).isEqualTo(2);
+
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isEqualTo(1);
+        assertThat(enrolmentStatisticsService.countByDepartment(department)).isEqualTo(1);
+    }
+
+    @Test
+    void renamedDepartmentsTakeTheirEnrolmentsWithThem() {
+        studentService.enrolStudent(student("renamed"), courseId);
+        String newDepartment = department + " renamed";
+
+        assertThat(courseService.renameDepartment(department, newDepartment)).isEqualTo(1);
+
+        assertThat(enrolmentStatisticsService.countByDepartment(department)).isZero();
+        assertThat(enrolmentStatisticsService.countByDepartment(newDepartment)).isEqualTo(1);
+    }
+
+    // every transaction writes to one of the 16 stripes of the counter, 40 of them all on the same one doesn't happen
+    @Test
+    void theEnrolmentsOfACourseAreSpreadOverTheStripesOfItsCounter() {
+        for (int i = 0; i < 40; i++) {
+            studentService.enrolStudent(student("striped"), courseId);
+        }
+
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM enrolment_statistic WHERE dimension = 'COURSE' AND bucket = ?",
+                Long.class, courseId.toString())).isGreaterThan(1);
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isEqualTo(40);
+        assertThat(enrolmentStatisticsService.countByDepartment(department)).isEqualTo(40);
+    }
+
+    @Test
+    void reconcileFixesTheCountersThatDrifted() {
+        studentService.enrolStudent(student("reconciled"), courseId);
+        enrolmentStatistics.reconcile();
+        jdbcTemplate.update("UPDATE enrolment_statistic SET enrolments = 42 WHERE dimension = 'COURSE' AND bucket = ?", courseId.toString());
+
+        assertThat(enrolmentStatistics.reconcile()).isEqualTo(1);
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isEqualTo(1);
+        assertThat(enrolmentStatistics.reconcile()).isZero();
+    }
+
+    private Long student(String firstName) {
+        return studentService.createStudent(new StudentRequest(firstName, "Counted", UUID.randomUUID() + "@statistics.test", 20)).id();
+    }
+}
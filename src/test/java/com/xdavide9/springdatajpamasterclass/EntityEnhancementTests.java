@@ -0,0 +1,51 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.hibernate.engine.spi.SelfDirtinessTracker;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the entities on the test classpath are the ones the hibernate-enhance-maven-plugin rewrote (see pom.xml), a build that
+// lost its configuration fails here instead of silently falling back to snapshot dirty checking
+// (-Dhibernate.enhance.skip=true is for comparing benchmarks, the tests expect the enhanced entities)
+class EntityEnhancementTests {
+
+    @Test
+    void theEntitiesTrackTheirOwnChanges() {
+        assertThat(new Object[]{new Student(), new Course(), new Book(), new Enrolment(), new StudentIdCard()})
+                .allSatisfy(entity -> assertThat(entity).isInstanceOf(SelfDirtinessTracker.class));
+    }
+
+    // the setters are lombok's, the enhancer rewrote the field writes inside them
+    @Test
+    void aSetterMarksItsAttributeDirty() {
+        assertDirty(new Student(), student -> student.setFirstName("Ada"), "firstName");
+        assertDirty(new Course(), course -> course.setName("Compilers"), "name");
+        assertDirty(new Book(), book -> book.setBookName("Dragon Book"), "bookName");
+        assertDirty(new Enrolment(), enrolment -> enrolment.setCreatedAt(LocalDateTime.now()), "createdAt");
+        assertDirty(new StudentIdCard(), card -> card.setCardNumber("123456789"), "cardNumber");
+    }
+
+    // association management is off: setting one side leaves the other alone (addEnrolment keeps them in sync)
+    @Test
+    void settingTheCourseOfAnEnrolmentDoesNotAddItToTheCourse() {
+        Course course = new Course();
+        Enrolment enrolment = new Enrolment();
+        enrolment.setCourse(course);
+
+        assertThat(course.getEnrolments()).isEmpty();
+    }
+
+    private static <T> void assertDirty(T entity, Consumer<T> setter, String attribute) {
+        SelfDirtinessTracker tracker = (SelfDirtinessTracker) entity;
+        tracker.$$_hibernate_clearDirtyAttributes();
+        assertThat(tracker.$$_hibernate_hasDirtyAttributes()).isFalse();
+
+        setter.accept(entity);
+
+        assertThat(tracker.$$_hibernate_getDirtyAttributes()).containsExactly(attribute);
+    }
+}
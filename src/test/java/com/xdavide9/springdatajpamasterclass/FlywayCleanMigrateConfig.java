@@ -0,0 +1,27 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// the test run starts from an empty schema: flyway's clean (allowed by spring.flyway.clean-disabled in src/test/resources/config)
+// then the migrations, only for the first context of the jvm. The contexts cached by spring for the other test classes share
+// that database, a clean under them would restart the sequences behind the ids they've already allocated
+// so the tests don't count on an empty table or on particular ids, every test makes (and looks for) rows of its own
+@Configuration(proxyBeanMethods = false)
+class FlywayCleanMigrateConfig {
+
+    private static final AtomicBoolean CLEANED = new AtomicBoolean();
+
+    @Bean
+    FlywayMigrationStrategy cleanMigrate() {
+        return flyway -> {
+            if (CLEANED.compareAndSet(false, true)) {
+                flyway.clean();
+            }
+            flyway.migrate();
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class MetricsTests {
+
+    @Autowired
+    private MeterRegistry registry;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private StudentIdCardRepository studentIdCardRepository;
+    @Autowired
+    private StudentService studentService;
+
+    @Test
+    void repositoryAndServiceCallsAreTimed() {
+        studentRepository.findStudentByEmail(UUID.randomUUID() + "@metrics.test");
+        studentIdCardRepository.findById(-1L);
+        studentService.fetchStudentBooks(-1L);
+
+        assertThat(registry.find("spring.data.repository.invocations")
+                .tags("repository", "StudentRepository", "method", "findStudentByEmail")
+                .timer())
+                .isNotNull()
+                .satisfies(timer -> assertThat(timer.count()).isPositive());
+        assertThat(registry.find("spring.data.repository.invocations")
+                .tags("repository", "StudentIdCardRepository", "method", "findById")
+                .timer())
+                .isNotNull();
+        assertThat(registry.find("masterclass.student.service")
+                .tags("class", StudentService.class.getName(), "method", "fetchStudentBooks")
+                .timer())
+                .isNotNull()
+                .satisfies(timer -> assertThat(timer.count()).isPositive());
+    }
+
+    @Test
+    void hibernateAndConnectionPoolMetricsAreBound() {
+        studentRepository.count();
+
+        assertThat(registry.find("hibernate.statements").functionCounter()).isNotNull();
+        assertThat(registry.find("hibernate.entities.loads").functionCounter()).isNotNull();
+        assertThat(registry.find("hibernate.flushes").functionCounter()).isNotNull();
+        assertThat(registry.find("hibernate.second.level.cache.requests").meters()).isNotEmpty();
+        assertThat(registry.find("hikaricp.connections.acquire").timer()).isNotNull();
+    }
+}
@@ -0,0 +1,218 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the dispatcher doesn't run on its own in the tests (src/test/resources/config), they call dispatchBatch
+@SpringBootTest(properties = "masterclass.outbox.batch-size=100")
+class OutboxTests {
+
+    @TestConfiguration
+    static class RecordingSinkConfig {
+
+        @Bean
+        @Primary
+        RecordingSink recordingSink() {
+            return new RecordingSink();
+        }
+    }
+
+    static class RecordingSink implements OutboxSink {
+
+        final List<OutboxEvent> published = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void publish(List<OutboxEvent> events) {
+            published.addAll(events);
+        }
+    }
+
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+    @Autowired
+    private OutboxDispatcher outboxDispatcher;
+    @Autowired
+    private RecordingSink recordingSink;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private Outbox outbox;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Test
+    void changesOfAStudentAreWrittenWithTheirTransaction() {
+        Long courseId = courseService.createCourse(new CourseRequest("Outbox", "Events")).id();
+        Long studentId = studentService.createStudent(new StudentRequest("Outbox", "Student", UUID.randomUUID() + "@outbox.test", 20)).id();
+        studentService.addBookToStudent(studentId, "Dune");
+        studentService.enrolStudent(studentId, courseId);
+        studentService.removeBookFromStudent(studentId, "Dune");
+        studentService.unenrolStudent(studentId, courseId);
+        transactionTemplate.executeWithoutResult(status -> {
+            studentService.enrolStudent(studentId, courseId);
+            status.setRollbackOnly();
+        });
+        studentService.addBookToStudent(studentId, "Emma");
+        studentService.enrolStudent(studentId, courseId);
+        studentService.deleteStudent(studentId);    // the book and the enrolment go with it, without events
+
+        assertThat(events(studentId)).extracting(OutboxEvent::getType).containsExactly(
+                OutboxEvent.Type.STUDENT_CREATED,
+                OutboxEvent.Type.BOOK_ADDED,
+                OutboxEvent.Type.STUDENT_ENROLLED,
+                OutboxEvent.Type.BOOK_REMOVED,
+                OutboxEvent.Type.STUDENT_UNENROLLED,
+                OutboxEvent.Type.BOOK_ADDED,
+                OutboxEvent.Type.STUDENT_ENROLLED,
+                OutboxEvent.Type.STUDENT_DELETED);
+        assertThat(events(studentId).get(3).getPayload()).isEqualTo("{\"studentId\":" + studentId + ",\"bookName\":\"Dune\"}");
+    }
+
+    // a student id of its own so the events of the other test (and of the demo runner, with the demo profile) don't count
+    @Test
+    void concurrentDispatchersPublishEveryEventOnce() throws Exception {
+        long studentId = -new Random().nextInt(1, Integer.MAX_VALUE);
+        jdbcTemplate.update("INSERT INTO outbox_event (id, type, student_id, payload, created_at) " +
+                "SELECT nextval('outbox_event_sequence'), 'STUDENT_CREATED', ?, '{}', now() FROM generate_series(1, 2000)", studentId);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> dispatchers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                dispatchers.add(executor.submit(() -> {
+                    int published;
+                    do {
+                        published = outboxDispatcher.dispatchBatch();
+                    } while (published > 0);
+                }));
+            }
+            for (Future<?> dispatcher : dispatchers) {
+                dispatcher.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<Long> published;
+        synchronized (recordingSink.published) {
+            published = recordingSink.published.stream()
+                    .filter(event -> event.getStudentId() == studentId)
+                    .map(OutboxEvent::getId)
+                    .toList();
+        }
+        assertThat(published).hasSize(2000).doesNotHaveDuplicates();
+        assertThat(events(studentId)).isEmpty();
+    }
+
+    // the events of a few students written one student after the other, drained by concurrent dispatchers: every student's
+    // events reach the sink in the order they were written
+    @Test
+    void theEventsOfAStudentArePublishedInOrder() throws Exception {
+        long firstStudentId = -new Random().nextInt(1000, Integer.MAX_VALUE);
+        jdbcTemplate.update("INSERT INTO outbox_event (id, type, student_id, payload, created_at) " +
+                "SELECT nextval('outbox_event_sequence'), 'STUDENT_ENROLLED', ? - i % 5, '{}', now() FROM generate_series(1, 2000) AS i", firstStudentId);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> dispatchers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                dispatchers.add(executor.submit(() -> {
+                    int published;
+                    do {
+                        published = outboxDispatcher.dispatchBatch();
+                    } while (published > 0);
+                }));
+            }
+            for (Future<?> dispatcher : dispatchers) {
+                dispatcher.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (long studentId = firstStudentId; studentId > firstStudentId - 5; studentId--) {
+            long student = studentId;
+            List<Long> published;
+            synchronized (recordingSink.published) {
+                published = recordingSink.published.stream()
+                        .filter(event -> event.getStudentId() == student)
+                        .map(OutboxEvent::getId)
+                        .toList();
+            }
+            assertThat(published).hasSize(400).isSorted().doesNotHaveDuplicates();
+        }
+    }
+
+    // the first transaction of the student stops after the insert of its event (it has its id) and before its commit: the second one
+    // can't take an id and commit in the meantime, the ids of the student's events are in the order of their commits
+    @Test
+    void aTransactionOfAStudentWaitsForTheOneCommittingBeforeIt() throws Exception {
+        long studentId = -new Random().nextInt(1, Integer.MAX_VALUE);
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                outbox.append(OutboxEvent.Type.BOOK_ADDED, studentId, Outbox.payload("studentId", studentId, "bookName", "First"));
+                // registered again at the end of the queue like the insert of Outbox, after it
+                entityManager.unwrap(SessionImplementor.class).getActionQueue().registerProcess((BeforeTransactionCompletionProcess) session ->
+                        session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) last -> {
+                            inserted.countDown();
+                            try {
+                                commit.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }));
+            }));
+            assertThat(inserted.await(10, TimeUnit.SECONDS)).isTrue();
+            Future<?> second = executor.submit(() -> transactionTemplate.executeWithoutResult(status ->
+                    outbox.append(OutboxEvent.Type.BOOK_ADDED, studentId, Outbox.payload("studentId", studentId, "bookName", "Second"))));
+            Thread.sleep(500);
+            assertThat(second).isNotDone();
+
+            commit.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+        } finally {
+            commit.countDown();
+            executor.shutdown();
+        }
+        assertThat(events(studentId)).extracting(OutboxEvent::getPayload).containsExactly(
+                "{\"studentId\":" + studentId + ",\"bookName\":\"First\"}",
+                "{\"studentId\":" + studentId + ",\"bookName\":\"Second\"}");
+    }
+
+    private List<OutboxEvent> events(Long studentId) {
+        return StreamSupport.stream(outboxEventRepository.findAll().spliterator(), false)
+                .filter(event -> event.getStudentId().equals(studentId))
+                .sorted(Comparator.comparing(OutboxEvent::getId))
+                .toList();
+    }
+}
@@ -0,0 +1,58 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the whole application with a "replica" that is the same local database under a second pool
+@SpringBootTest(properties = {
+        "masterclass.datasource.replica.jdbc-url=${spring.datasource.url}",
+        "masterclass.datasource.replica.username=${spring.datasource.username}",
+        "masterclass.datasource.replica.password=${spring.datasource.password}",
+        "masterclass.datasource.replica.maximum-pool-size=2"
+})
+class ReadWriteDataSourceConfigTests {
+
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private MeterRegistry registry;
+
+    // on a thread of its own: whatever committed writes on the test thread moments ago (the demo runner, with the demo profile)
+    // would put its reads inside the read your writes window
+    @Test
+    void readOnlyServiceMethodsRunOnTheReplicaPool() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(this::readThenWriteThenRead).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Void readThenWriteThenRead() {
+        double replicaReads = routed("replica", "read-only");
+        double readYourWrites = routed("primary", "read-your-writes");
+
+        studentService.fetchStudentBooks(-1L);
+        assertThat(routed("replica", "read-only")).isEqualTo(replicaReads + 1);
+
+        studentService.removeBookFromStudent(-1L, "Not a book");     // a read write transaction, even if nothing changes
+        studentService.fetchStudentBooks(-1L);
+        assertThat(routed("primary", "read-your-writes")).isEqualTo(readYourWrites + 1);
+
+        assertThat(registry.find("hikaricp.connections.acquire").tag("pool", "primary").timer()).isNotNull();
+        assertThat(registry.find("hikaricp.connections.acquire").tag("pool", "replica").timer()).isNotNull();
+        return null;
+    }
+
+    private double routed(String target, String reason) {
+        return registry.get("masterclass.datasource.routing").tags("target", target, "reason", reason).counter().count();
+    }
+}
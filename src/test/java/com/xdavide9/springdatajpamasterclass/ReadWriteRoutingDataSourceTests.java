@@ -0,0 +1,156 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// two embedded h2 databases standing in for the primary and the replica, each one knows which one it is
+class ReadWriteRoutingDataSourceTests {
+
+    private EmbeddedDatabase primary;
+    private EmbeddedDatabase replica;
+    private SimpleMeterRegistry registry;
+    private ReadWriteRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readWrite;
+    private TransactionTemplate readOnly;
+
+    @BeforeEach
+    void startDatabases() {
+        primary = database("primary");
+        replica = database("replica");
+        registry = new SimpleMeterRegistry();
+        routingDataSource = new ReadWriteRoutingDataSource(primary, replica, Duration.ofMillis(200), registry);
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    @AfterEach
+    void stopDatabases() {
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    private static EmbeddedDatabase database(String role) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName(role + "-" + UUID.randomUUID())
+                .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE role (name VARCHAR(10))");
+        jdbcTemplate.update("INSERT INTO role VALUES (?)", role);
+        return database;
+    }
+
+    private String role(TransactionTemplate transactionTemplate) {
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM role", String.class));
+    }
+
+    @Test
+    void readOnlyTransactionsGoToTheReplicaAndTheOthersToThePrimary() {
+        assertThat(role(readOnly)).isEqualTo("replica");
+        assertThat(role(readWrite)).isEqualTo("primary");
+        assertThat(registry.get("masterclass.datasource.routing").tags("target", "replica", "reason", "read-only").counter().count()).isEqualTo(1);
+        // not exactly 1 write: the first connection the lazy proxy asks for (to read the defaults of the connections) counts too
+        assertThat(registry.get("masterclass.datasource.routing").tags("target", "primary", "reason", "write").counter().count()).isPositive();
+    }
+
+    @Test
+    void readsRightAfterACommittedWriteStayOnThePrimary() throws InterruptedException {
+        readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE role SET name = name"));
+
+        assertThat(role(readOnly)).isEqualTo("primary");
+        Thread.sleep(300);  // longer than the read your writes window
+        assertThat(role(readOnly)).isEqualTo("replica");
+    }
+
+    // every request on a thread of its own like it would be on tomcat, the client brings back the cookie of its write
+    @Test
+    void theNextRequestOfAClientThatWroteReadsFromThePrimary() throws Exception {
+        ReadYourWritesFilter filter = new ReadYourWritesFilter(routingDataSource);
+
+        MockHttpServletResponse write = request(filter, () -> readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE role SET name = name")));
+        Cookie lastWrite = write.getCookie(ReadYourWritesFilter.COOKIE);
+        assertThat(lastWrite).isNotNull();
+        assertThat(lastWrite.getMaxAge()).isEqualTo(1);
+
+        AtomicReference<String> role = new AtomicReference<>();
+        request(filter, () -> role.set(role(readOnly)), lastWrite);
+        assertThat(role).hasValue("primary");
+        request(filter, () -> role.set(role(readOnly)));    // another client
+        assertThat(role).hasValue("replica");
+        Thread.sleep(300);  // longer than the read your writes window
+        request(filter, () -> role.set(role(readOnly)), lastWrite);
+        assertThat(role).hasValue("replica");
+    }
+
+    private static MockHttpServletResponse request(ReadYourWritesFilter filter, Runnable handler, Cookie... cookies) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/students");
+        if (cookies.length > 0) {
+            request.setCookies(cookies);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                filter.doFilter(request, response, (req, res) -> handler.run());
+                return null;
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+        return response;
+    }
+
+    @Test
+    void aRolledBackWriteDoesNotKeepReadsOnThePrimary() {
+        readWrite.executeWithoutResult(status -> {
+            jdbcTemplate.update("UPDATE role SET name = name");
+            status.setRollbackOnly();
+        });
+
+        assertThat(role(readOnly)).isEqualTo("replica");
+    }
+
+    @Test
+    void aLaggingReplicaGetsNoReads() {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(replica, routingDataSource, "SELECT 5", Duration.ofSeconds(1), registry);
+
+        monitor.check();
+        assertThat(role(readOnly)).isEqualTo("primary");
+        assertThat(registry.get("masterclass.datasource.replica.lag").gauge().value()).isEqualTo(5);
+
+        new ReplicaLagMonitor(replica, routingDataSource, "SELECT 0", Duration.ofSeconds(1), new SimpleMeterRegistry()).check();
+        assertThat(role(readOnly)).isEqualTo("replica");
+    }
+
+    @Test
+    void aReplicaThatCannotBeAskedGetsNoReads() {
+        new ReplicaLagMonitor(replica, routingDataSource, "SELECT lag FROM missing_table", Duration.ofSeconds(1), registry).check();
+
+        assertThat(role(readOnly)).isEqualTo("primary");
+    }
+}
@@ -0,0 +1,55 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the context starting at all means the migrated schema passed hibernate's validation
+@SpringBootTest
+class SchemaMigrationsTests {
+
+    @Autowired
+    private Flyway flyway;
+    @Autowired
+    private JoinIndexCheck joinIndexCheck;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void scriptsAreAppliedOnce() {
+        assertThat(flyway.info().applied()).extracting(migration -> migration.getVersion().getVersion())
+                .containsExactly("1", "2", "3", "4", "5", "6", "7", "8");
+        assertThat(flyway.info().pending()).isEmpty();
+        // like the next start of the application
+        assertThat(flyway.migrate().migrationsExecuted).isZero();
+    }
+
+    @Test
+    void everyAssociationHasAnIndexOnItsJoinColumns() {
+        assertThat(joinIndexCheck.joins()).map(JoinIndexCheck.Join::toString).containsExactlyInAnyOrder(
+                "book(student_id) for Book.student, Student.books",
+                "enrolment(course_id) for Course.enrolments, Enrolment.course",
+                "enrolment(student_id) for Enrolment.student, Student.enrolments",
+                "public.student_id_card(student_id) for StudentIdCard.student");
+        assertThat(joinIndexCheck.unindexedJoins()).isEmpty();
+    }
+
+    // postgres ddl is transactional, the index is back after the rollback
+    @Test
+    void aJoinWithoutIndexIsReported() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("DROP INDEX book_student_id_index");
+            assertThat(joinIndexCheck.unindexedJoins()).map(JoinIndexCheck.Join::toString)
+                    .containsExactly("book(student_id) for Book.student, Student.books");
+            status.setRollbackOnly();
+        });
+        assertThat(joinIndexCheck.unindexedJoins()).isEmpty();
+    }
+}
@@ -1,13 +1,32 @@
 package com.xdavide9.springdatajpamasterclass;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 @SpringBootTest
 class SpringDataJpaMasterclassApplicationTests {
 
+    @Autowired
+    private AsyncTaskExecutor applicationTaskExecutor;
+    @Autowired
+    private Environment environment;
+
     @Test
     void contextLoads() {
     }
 
+    // spring.threads.virtual.enabled only takes effect on java 21, then tomcat (not started here, the tests use MockMvc)
+    // and the task executor run on virtual threads
+    @Test
+    void virtualThreadsAreOn() throws Exception {
+        assertThat(Threading.VIRTUAL.isActive(environment)).isTrue();
+        assertThat(applicationTaskExecutor.submitCompletable(() -> Thread.currentThread().isVirtual()).get()).isTrue();
+    }
+
 }
@@ -0,0 +1,44 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// counts the sql statements hibernate prepares on the current thread
+// register it with hibernate.session_factory.statement_inspector (see StudentServiceSqlBudgetTests)
+// and wrap a call with assertStatementBudget to fail the build when the call runs more statements than declared
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<Integer> COUNT = ThreadLocal.withInitial(() -> 0);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.set(COUNT.get() + 1);
+        return sql;
+    }
+
+    public static int count(Runnable call) {
+        return count(() -> {
+            call.run();
+            return null;
+        }).statements();
+    }
+
+    public static <T> Counted<T> count(Supplier<T> call) {
+        COUNT.set(0);
+        T result = call.get();
+        return new Counted<>(result, COUNT.get());
+    }
+
+    public static void assertStatementBudget(int budget, Runnable call) {
+        int statements = count(call);
+        assertThat(statements)
+                .as("sql statements executed, the declared budget is %d", budget)
+                .isLessThanOrEqualTo(budget);
+    }
+
+    public record Counted<T>(T result, int statements) {
+    }
+}
@@ -0,0 +1,67 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the aggregate methods, no database needed
+class StudentAggregateTests {
+
+    @Test
+    void bookIsStillFoundAfterItsIdIsAssigned() {
+        Student student = Student.builder().firstName("A").lastName("B").email("a@b.test").age(20).build();
+        Book book = Book.builder().bookName("Book").createdAt(LocalDateTime.now()).build();
+
+        assertThat(student.addBook(book)).isTrue();
+        book.setId(1L);     // what persist does
+        assertThat(student.addBook(book)).isFalse();
+        assertThat(student.removeBook(book)).isTrue();
+        assertThat(student.getBooks()).isEmpty();
+        assertThat(book.getStudent()).isNull();
+    }
+
+    @Test
+    void twoBooksWithTheSameNameAreDifferentBooks() {
+        Student student = Student.builder().firstName("A").lastName("B").email("a@b.test").age(20).build();
+        LocalDateTime now = LocalDateTime.now();
+
+        student.addBook(Book.builder().bookName("Book").createdAt(now).build());
+        student.addBook(Book.builder().bookName("Book").createdAt(now).build());
+
+        assertThat(student.getBooks()).hasSize(2);
+    }
+
+    @Test
+    void studentsAndCoursesAreStillFoundAfterTheyArePersistedAndEdited() {
+        Student student = Student.builder().firstName("A").lastName("B").email("a@b.test").age(20).build();
+        Course course = Course.builder().name("Course").department("Department").build();
+        Set<Object> set = new LinkedHashSet<>(List.of(student, course));
+
+        student.setId(1L);      // what persist does
+        course.setId(1L);
+        student.setAge(21);
+        course.setName("Renamed");
+
+        assertThat(set).contains(student, course);
+        assertThat(student).isNotEqualTo(Student.builder().firstName("A").lastName("B").email("a@b.test").age(21).build());
+        assertThat(student).isEqualTo(Student.builder().id(1L).build());
+        assertThat(course).isEqualTo(Course.builder().id(1L).build());
+    }
+
+    @Test
+    void enrolmentsKeepTheOrderTheyWereAddedIn() {
+        Course course = Course.builder().name("Course").department("Department").build();
+        Enrolment first = Enrolment.builder().course(course).createdAt(LocalDateTime.now()).build();
+        Enrolment second = Enrolment.builder().course(course).createdAt(LocalDateTime.now()).build();
+
+        assertThat(course.addEnrolment(first)).isTrue();
+        assertThat(course.addEnrolment(second)).isTrue();
+        assertThat(course.addEnrolment(first)).isFalse();
+        assertThat(course.getEnrolments()).containsExactly(first, second);
+    }
+}
@@ -0,0 +1,95 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.xdavide9.springdatajpamasterclass.SqlStatementCounter")
+class StudentBulkDeleterTests {
+
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private StudentIdCardRepository studentIdCardRepository;
+    @Autowired
+    private CourseRepository courseRepository;
+    @Autowired
+    private StudentLookupService studentLookupService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // chunks of 2 so three students take two transactions (a property would start a separate context, see create-drop)
+    private StudentBulkDeleter studentBulkDeleter() {
+        return new StudentBulkDeleter(studentRepository, transactionTemplate, 2);
+    }
+
+    @Test
+    void cohortIsDeletedWithItsBooksEnrolmentsAndCardsInChunks() {
+        String firstName = "Cohort-" + UUID.randomUUID();
+        Long courseId = courseRepository.save(Course.builder().name("Cohort").department("Bulk").build()).getId();
+        List<Long> ids = List.of(student(firstName, courseId), student(firstName, courseId), student(firstName, courseId));
+        Long bystander = student("Bystander-" + UUID.randomUUID(), courseId);
+        assertThat(enrolmentCount(courseId)).isEqualTo(4);  // puts Course.enrolments in the second level cache
+        String email = studentRepository.findById(ids.get(0)).orElseThrow().getEmail();
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isPresent();
+
+        // per chunk: the ids, the emails, the enrolments by course and day (EnrolmentStatistics) and a DELETE for each of the 4 tables,
+        // whatever the number of students and children
+        SqlStatementCounter.Counted<Integer> deleted = SqlStatementCounter.count(() -> studentBulkDeleter().deleteAllByFirstName(firstName));
+        assertThat(deleted.result()).isEqualTo(3);
+        assertThat(deleted.statements()).isEqualTo(2 * 7);
+
+        assertThat(studentRepository.findAllById(ids)).isEmpty();
+        assertThat(rows("book", ids)).isZero();
+        assertThat(rows("enrolment", ids)).isZero();
+        assertThat(rows("student_id_card", ids)).isZero();
+        assertThat(enrolmentCount(courseId)).isEqualTo(1);
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isEmpty();
+        assertThat(studentRepository.findById(bystander)).isPresent();
+        assertThat(rows("book", List.of(bystander))).isEqualTo(2);
+    }
+
+    @Test
+    void unknownIdsAreSkipped() {
+        Long id = student("Known-" + UUID.randomUUID(), courseRepository.save(Course.builder().name("Known").department("Bulk").build()).getId());
+
+        assertThat(studentBulkDeleter().deleteAllById(List.of(-1L, id, -2L))).isEqualTo(1);
+        assertThat(studentBulkDeleter().deleteAllById(List.of())).isZero();
+    }
+
+    // a student with two books, an enrolment and an id card
+    private Long student(String firstName, Long courseId) {
+        return transactionTemplate.execute(status -> {
+            Student student = Student.builder().firstName(firstName).lastName("Bulk").email(UUID.randomUUID() + "@bulk.test").age(20).build();
+            student.addBook(Book.builder().bookName("First").createdAt(LocalDateTime.now()).build());
+            student.addBook(Book.builder().bookName("Second").createdAt(LocalDateTime.now()).build());
+            Course course = courseRepository.findById(courseId).orElseThrow();
+            Enrolment enrolment = Enrolment.builder().id(new EnrolmentId()).student(student).course(course).createdAt(LocalDateTime.now()).build();
+            student.addEnrolment(enrolment);
+            course.addEnrolment(enrolment);
+            studentRepository.save(student);
+            studentIdCardRepository.save(StudentIdCard.builder().cardNumber(UUID.randomUUID().toString().substring(0, 15)).student(student).build());
+            return student.getId();
+        });
+    }
+
+    private int enrolmentCount(Long courseId) {
+        return transactionTemplate.execute(status -> courseRepository.findById(courseId).orElseThrow().getEnrolments().size());
+    }
+
+    private int rows(String table, List<Long> studentIds) {
+        return studentIds.stream()
+                .mapToInt(id -> jdbcTemplate.queryForObject("SELECT count(*) FROM " + table + " WHERE student_id = ?", Integer.class, id))
+                .sum();
+    }
+}
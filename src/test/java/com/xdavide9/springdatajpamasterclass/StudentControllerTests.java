@@ -0,0 +1,83 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// the whole api through the servlet filters (ConnectionAdmissionFilter included) and the real database
+@SpringBootTest
+@AutoConfigureMockMvc
+class StudentControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void studentWithBooksAndEnrolments() throws Exception {
+        String email = UUID.randomUUID() + "@api.test";
+        long studentId = create("/api/students", "{\"firstName\":\"Ada\",\"lastName\":\"Lovelace\",\"email\":\"" + email + "\",\"age\":36}").get("id").asLong();
+        long courseId = create("/api/courses", "{\"name\":\"Api " + email + "\",\"department\":\"Api\"}").get("id").asLong();
+        long bookId = create("/api/students/" + studentId + "/books", "{\"bookName\":\"Notes\"}").get("id").asLong();
+
+        mockMvc.perform(put("/api/students/{id}/enrolments/{courseId}", studentId, courseId)).andExpect(status().isOk());
+        mockMvc.perform(put("/api/students/{id}/enrolments/{courseId}", studentId, courseId)).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/students/by-email").param("email", email))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(studentId));
+        mockMvc.perform(get("/api/students/{id}/books", studentId))
+                .andExpect(jsonPath("$[0].id").value(bookId))
+                .andExpect(jsonPath("$[0].bookName").value("Notes"));
+        mockMvc.perform(get("/api/students/{id}/enrolments", studentId))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].courseId").value(courseId));
+        mockMvc.perform(get("/api/courses/{id}/students", courseId))
+                .andExpect(jsonPath("$[0].email").value(email));
+
+        mockMvc.perform(delete("/api/students/{id}/books/{bookId}", studentId, bookId)).andExpect(status().isNoContent());
+        mockMvc.perform(delete("/api/students/{id}/enrolments/{courseId}", studentId, courseId)).andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/courses/{id}/students", courseId)).andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(delete("/api/students/{id}", studentId)).andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/students/{id}", studentId)).andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/students/{id}/books", studentId)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void errorsAreProblemDetails() throws Exception {
+        String student = "{\"firstName\":\"Ada\",\"lastName\":\"Lovelace\",\"email\":\"" + UUID.randomUUID() + "@api.test\",\"age\":36}";
+        create("/api/students", student);
+
+        mockMvc.perform(json(post("/api/students"), student)).andExpect(status().isConflict());
+        mockMvc.perform(json(post("/api/students"), "{\"firstName\":\"Ada\"}")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/students").param("page", "not a token")).andExpect(status().isBadRequest());
+        mockMvc.perform(put("/api/students/{id}/enrolments/{courseId}", -1, -1))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.detail").value("Student -1 not found"));
+    }
+
+    private JsonNode create(String path, String body) throws Exception {
+        String response = mockMvc.perform(json(post(path), body))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(response);
+    }
+
+    private static MockHttpServletRequestBuilder json(MockHttpServletRequestBuilder request, String body) {
+        return request.contentType(MediaType.APPLICATION_JSON).content(body);
+    }
+}
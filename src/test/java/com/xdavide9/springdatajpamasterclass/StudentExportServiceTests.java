@@ -0,0 +1,103 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// batch size 2 so the students of the test end up in different batches
+@SpringBootTest(properties = "masterclass.export.batch-size=2")
+class StudentExportServiceTests {
+
+    @Autowired
+    private StudentExportService studentExportService;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private CourseRepository courseRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String run;
+
+    @BeforeEach
+    void createStudents() {
+        run = UUID.randomUUID().toString();
+        transactionTemplate.executeWithoutResult(status -> {
+            Course course = courseRepository.save(Course.builder().name("Export " + run).department("Export").build());
+            for (int i = 0; i < 3; i++) {
+                Student student = Student.builder()
+                        .firstName("Export")
+                        .lastName("Student" + i)
+                        .email(run + "-" + i + "@export.test")
+                        .age(20)
+                        .build();
+                student.addBook(Book.builder().bookName("Book, " + i).createdAt(LocalDateTime.now()).build());
+                if (i != 1) {
+                    Enrolment enrolment = Enrolment.builder()
+                            .id(new EnrolmentId())
+                            .student(student)
+                            .course(course)
+                            .createdAt(LocalDateTime.now())
+                            .build();
+                    student.addEnrolment(enrolment);
+                    course.addEnrolment(enrolment);
+                }
+                studentRepository.save(student);
+            }
+        });
+    }
+
+    @Test
+    void ndjsonHasALinePerStudentWithItsBooksAndEnrolments() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long exported = studentExportService.export(StudentExportFormat.NDJSON, out);
+
+        List<JsonNode> lines = out.toString(StandardCharsets.UTF_8).lines()
+                .map(this::readTree)
+                .filter(line -> line.get("email").asText().startsWith(run))
+                .toList();
+        assertThat(exported).isGreaterThanOrEqualTo(3);
+        assertThat(lines).hasSize(3);
+        assertThat(lines.get(0).get("books").get(0).get("bookName").asText()).isEqualTo("Book, 0");
+        assertThat(lines.get(0).get("enrolments").get(0).get("courseName").asText()).isEqualTo("Export " + run);
+        assertThat(lines.get(0).get("enrolments").get(0).has("studentId")).isFalse();
+        assertThat(lines.get(1).get("enrolments")).isEmpty();
+        assertThat(lines.get(2).get("books")).hasSize(1);
+    }
+
+    @Test
+    void csvHasARowPerStudentWithEscapedValues() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        studentExportService.export(StudentExportFormat.CSV, out);
+
+        List<String> rows = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(rows.get(0)).isEqualTo("id,first_name,last_name,email,age,books,courses");
+        assertThat(rows)
+                .filteredOn(row -> row.contains(run + "-0@export.test"))
+                .singleElement()
+                .asString()
+                .endsWith(",20,\"Book, 0\",Export " + run);
+    }
+
+    private JsonNode readTree(String line) {
+        try {
+            return objectMapper.readTree(line);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import static com.xdavide9.springdatajpamasterclass.SqlStatementCounter.count;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the inverse Student.studentIdCard one to one used to cost a select per student loaded by a query
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.xdavide9.springdatajpamasterclass.SqlStatementCounter")
+class StudentIdCardLoadingTests {
+
+    private static final int STUDENTS = 10_000;
+
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private StudentBulkLoader studentBulkLoader;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void studentsAreLoadedWithTheirCardsInTheSameStatement() {
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            Student student = Student.builder()
+                    .firstName("Card")
+                    .lastName("Holder" + i)
+                    .email("holder" + i + "@cards.test")
+                    .age(20)
+                    .build();
+            if (i % 2 == 0) {   // half of them without a card, hibernate has to find out there is none
+                student.setStudentIdCard(StudentIdCard.builder().cardNumber("card-" + i).student(student).build());
+            }
+            students.add(student);
+        }
+        studentBulkLoader.saveAllInBatches(students);
+
+        SqlStatementCounter.Counted<List<Student>> all = inTransaction(() -> studentRepository.findAll());
+        assertThat(all.statements()).isEqualTo(1);
+        assertThat(all.result().stream().map(Student::getStudentIdCard).filter(Objects::nonNull)).hasSize(STUDENTS / 2);
+
+        assertThat(inTransaction(() -> studentRepository.findAll(Sort.by("lastName"))).statements()).isEqualTo(1);
+        assertThat(inTransaction(() -> studentRepository.findAll(PageRequest.of(3, 1000))).statements()).isEqualTo(2);  // the page and the count
+        assertThat(inTransaction(() -> studentRepository.findFirstStudents(Limit.of(1000))).statements()).isEqualTo(1);
+        assertThat(inTransaction(() -> studentRepository.findStudentsByFirstNameEqualsAndAgeEquals("Card", 20)).statements()).isEqualTo(1);
+    }
+
+    private <T> SqlStatementCounter.Counted<T> inTransaction(Supplier<T> query) {
+        return count(() -> transactionTemplate.execute(status -> query.get()));
+    }
+}
@@ -0,0 +1,61 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class StudentKeysetPagerTests {
+
+    @Autowired
+    private StudentKeysetPager studentKeysetPager;
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Test
+    void pagesForwardAndBackwardByFirstNameAndId() {
+        String run = "Keyset-" + UUID.randomUUID();
+        // two students share a first name so the id decides their order
+        List<Student> students = IntStream.range(0, 7)
+                .mapToObj(i -> Student.builder()
+                        .firstName(run + "-" + Math.min(i, 5))
+                        .lastName("Pager")
+                        .email(run + "-" + i + "@test.com")
+                        .age(20)
+                        .build())
+                .toList();
+        studentRepository.saveAll(students);
+        String start = new StudentKeysetToken(StudentKeysetToken.Direction.AFTER, run, 0).encode();
+
+        StudentKeysetPage first = studentKeysetPager.page(start, 3);
+        StudentKeysetPage second = studentKeysetPager.page(first.next(), 3);
+        StudentKeysetPage third = studentKeysetPager.page(second.next(), 3);
+        StudentKeysetPage backToSecond = studentKeysetPager.page(third.previous(), 3);
+
+        assertThat(emails(first)).containsExactly(run + "-0@test.com", run + "-1@test.com", run + "-2@test.com");
+        assertThat(emails(second)).containsExactly(run + "-3@test.com", run + "-4@test.com", run + "-5@test.com");
+        assertThat(emails(third).subList(0, 1)).containsExactly(run + "-6@test.com");
+        assertThat(emails(backToSecond)).isEqualTo(emails(second));
+        assertThat(studentKeysetPager.page(backToSecond.previous(), 3).content()).isEqualTo(first.content());
+    }
+
+    @Test
+    void aPageHasAtLeastOneAndAtMostMaxSizeStudents() {
+        String start = new StudentKeysetToken(StudentKeysetToken.Direction.AFTER, "A", 0).encode();
+
+        assertThatThrownBy(() -> studentKeysetPager.firstPage(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> studentKeysetPager.page(start, -1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> studentKeysetPager.page(null, StudentKeysetPager.MAX_SIZE + 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<String> emails(StudentKeysetPage page) {
+        return page.content().stream().map(Student::getEmail).toList();
+    }
+}
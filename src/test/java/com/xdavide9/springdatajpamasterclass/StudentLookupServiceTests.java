@@ -0,0 +1,98 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.xdavide9.springdatajpamasterclass.SqlStatementCounter")
+class StudentLookupServiceTests {
+
+    @Autowired
+    private StudentLookupService studentLookupService;
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Test
+    void hitsAndMissesAreServedFromTheCache() {
+        String email = UUID.randomUUID() + "@lookup.test";
+        Student student = studentRepository.save(student("Hit", email));
+
+        assertThat(studentLookupService.findStudentIdByEmail(email)).contains(student.getId());
+        assertThat(studentLookupService.findStudentIdByEmail("missing-" + email)).isEmpty();
+
+        assertThat(SqlStatementCounter.count(() -> {
+            studentLookupService.findSnapshotByEmail(email);
+            studentLookupService.findSnapshotByEmail("missing-" + email);
+        })).isZero();
+    }
+
+    @Test
+    void cachedMissIsEvictedWhenTheStudentIsCreated() {
+        String email = UUID.randomUUID() + "@lookup.test";
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isEmpty();
+
+        Student student = studentRepository.save(student("Created", email));
+
+        assertThat(studentLookupService.findStudentIdByEmail(email)).contains(student.getId());
+    }
+
+    @Test
+    void emailChangeEvictsOldAndNewEmail() {
+        String oldEmail = UUID.randomUUID() + "@lookup.test";
+        String newEmail = UUID.randomUUID() + "@lookup.test";
+        Student student = studentRepository.save(student("Changed", oldEmail));
+        assertThat(studentLookupService.findStudentIdByEmail(oldEmail)).isPresent();
+        assertThat(studentLookupService.findStudentIdByEmail(newEmail)).isEmpty();
+
+        student.setEmail(newEmail);
+        studentRepository.save(student);
+
+        assertThat(studentLookupService.findStudentIdByEmail(oldEmail)).isEmpty();
+        assertThat(studentLookupService.findSnapshotByEmail(newEmail)).get()
+                .extracting(StudentSnapshot::email)
+                .isEqualTo(newEmail);
+    }
+
+    @Test
+    void deletedStudentsAreEvicted() {
+        String email = UUID.randomUUID() + "@lookup.test";
+        Student student = studentRepository.save(student("Deleted", email));
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isPresent();
+
+        studentRepository.deleteById(student.getId());
+
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isEmpty();
+    }
+
+    @Test
+    void bulkDeletedStudentsAreEvicted() {
+        String firstName = "Bulk-" + UUID.randomUUID();
+        String email = UUID.randomUUID() + "@lookup.test";
+        studentRepository.save(student(firstName, email));
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isPresent();
+
+        assertThat(studentRepository.deleteStudentsByFirstName(firstName)).isEqualTo(1);
+
+        assertThat(studentLookupService.findStudentIdByEmail(email)).isEmpty();
+    }
+
+    @Test
+    void studentsWithUpdatedAgesAreEvicted() {
+        String email = UUID.randomUUID() + "@lookup.test";
+        Student student = studentRepository.save(student("Aged", email));
+        assertThat(studentLookupService.findSnapshotByEmail(email)).map(StudentSnapshot::age).contains(30);
+
+        assertThat(studentRepository.updateAgeByIdIn(List.of(student.getId()), 31)).isEqualTo(1);
+
+        assertThat(studentLookupService.findSnapshotByEmail(email)).map(StudentSnapshot::age).contains(31);
+    }
+
+    private static Student student(String firstName, String email) {
+        return Student.builder().firstName(firstName).lastName("Lookup").email(email).age(30).build();
+    }
+}
@@ -0,0 +1,48 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest
+class StudentProjectionTests {
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Test
+    void projectionsReturnTheSameStudentsAsTheEntityQueries() {
+        String firstName = "Projection-" + UUID.randomUUID();
+        studentRepository.saveAll(List.of(
+                Student.builder().firstName(firstName).lastName("B").email(UUID.randomUUID() + "@projection.test").age(40).build(),
+                Student.builder().firstName(firstName).lastName("A").email(UUID.randomUUID() + "@projection.test").age(40).build()));
+        List<Long> ids = studentRepository.findStudentsByFirstNameEqualsAndAgeEquals(firstName, 40).stream()
+                .map(Student::getId)
+                .toList();
+
+        assertThat(studentRepository.findSnapshotsByFirstNameEqualsAndAgeEquals(firstName, 40))
+                .extracting(StudentSnapshot::id)
+                .containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(studentRepository.findListItemsByFirstNameEqualsAndAgeEqualsNative(firstName, 40))
+                .extracting(StudentListItem::getId, StudentListItem::getFirstName, StudentListItem::getAge)
+                .containsOnly(tuple(ids.get(0), firstName, 40), tuple(ids.get(1), firstName, 40));
+        assertThat(studentRepository.findListItemsByFirstNameEqualsAndAgeEqualsNamedParameters(firstName, 40))
+                .extracting(StudentListItem::getId)
+                .containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(studentRepository.findAllSnapshots(Sort.by("firstName", "lastName")))
+                .filteredOn(snapshot -> snapshot.firstName().equals(firstName))
+                .extracting(StudentSnapshot::lastName)
+                .containsExactly("A", "B");
+        assertThat(studentRepository.findAllListItems(Sort.by("firstName", "lastName")))
+                .filteredOn(item -> item.getFirstName().equals(firstName))
+                .extracting(StudentListItem::getLastName)
+                .containsExactly("A", "B");
+    }
+}
@@ -0,0 +1,83 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StudentSearchIndexTests {
+
+    private final StudentSearchIndex index = new StudentSearchIndex();
+
+    @Test
+    void exactMatchesRankAbovePrefixesAndTypos() {
+        index.put(document(1L, "Maria", "Rossi", "maria@gmail.com"));
+        index.put(document(2L, "Mariana", "Bianchi", "mariana@gmail.com"));
+        index.put(document(3L, "Mario", "Verdi", "mario@gmail.com"));
+        index.put(document(4L, "Luca", "Neri", "luca@gmail.com"));
+
+        assertThat(ids("maria", 10)).containsExactly(1L, 2L, 3L);  // exact, prefix, one typo
+        assertThat(ids("mar", 10)).containsExactly(1L, 2L, 3L);
+        assertThat(ids("maria rossi", 10)).containsExactly(1L);
+    }
+
+    @Test
+    void typosAreOnlyLookedForWhenThePageIsNotFull() {
+        index.put(document(1L, "Maria", "Rossi", "maria@gmail.com"));
+        index.put(document(2L, "Mario", "Verdi", "mario@gmail.com"));
+
+        assertThat(ids("maria", 1)).containsExactly(1L);
+        assertThat(ids("rosi", 10)).containsExactly(1L);
+        assertThat(ids("verdiii", 10)).containsExactly(2L);
+        assertThat(ids("verdiiii", 10)).isEmpty();   // three edits
+    }
+
+    @Test
+    void namesWeighMoreThanBooks() {
+        index.put(new StudentSearchIndex.Document(1L, "Anna", "Rossi", "anna@gmail.com", List.of("Dune")));
+        index.put(document(2L, "Dune", "Bianchi", "dune@gmail.com"));
+
+        assertThat(ids("dune", 10)).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void booksAndStudentsCanBeChangedAndRemoved() {
+        index.putStudent(1L, "Anna", "Rossi", "anna@gmail.com");
+        index.addBook(1L, "The Name of the Rose");
+        index.addBook(1L, "The Name of the Rose");
+        assertThat(ids("rose", 10)).containsExactly(1L);
+
+        index.removeBook(1L, "The Name of the Rose");
+        assertThat(ids("rose", 10)).containsExactly(1L);    // the other copy
+        index.removeBook(1L, "The Name of the Rose");
+        assertThat(ids("rose", 10)).isEmpty();
+
+        index.putStudent(1L, "Anna", "Verdi", "anna@gmail.com");
+        assertThat(ids("rossi", 10)).isEmpty();
+        assertThat(ids("verdi", 10)).containsExactly(1L);
+
+        index.remove(1L);
+        assertThat(ids("anna", 10)).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    void typosAreCountedOnTheWholeTerm() {
+        index.put(document(1L, "Anna", "Student4242", "anna@gmail.com"));
+        index.put(document(2L, "Anna", "Student4243", "anna@gmail.com"));
+        index.put(document(3L, "Anna", "Student9999", "anna@gmail.com"));
+
+        assertThat(ids("studnet4242", 10)).containsExactly(1L);  // a swap is two edits, 4243 would be a third one
+        assertThat(ids("student424", 10)).containsExactly(1L, 2L);
+        assertThat(ids("student4244", 10)).containsExactly(1L, 2L);
+    }
+
+    private List<Long> ids(String query, int limit) {
+        return index.search(query, limit).stream().map(StudentSearchIndex.Hit::studentId).toList();
+    }
+
+    private static StudentSearchIndex.Document document(Long id, String firstName, String lastName, String email) {
+        return new StudentSearchIndex.Document(id, firstName, lastName, email, List.of());
+    }
+}
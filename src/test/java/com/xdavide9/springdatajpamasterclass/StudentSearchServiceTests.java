@@ -0,0 +1,75 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the index follows the committed changes, bulk ones included
+@SpringBootTest
+class StudentSearchServiceTests {
+
+    @Autowired
+    private StudentSearchService studentSearchService;
+    @Autowired
+    private StudentSearchIndexer studentSearchIndexer;
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @BeforeEach
+    void waitForTheRebuild() throws InterruptedException {
+        assertThat(studentSearchIndexer.awaitRebuild(Duration.ofSeconds(30))).isTrue();
+    }
+
+    @Test
+    void createdStudentsAndTheirBooksCanBeFound() {
+        String lastName = randomWord();
+        String bookName = randomWord();
+        StudentSnapshot student = studentService.createStudent(new StudentRequest("Searched", lastName, lastName + "@search.test", 30));
+        BookResponse book = studentService.addBookToStudent(student.id(), "Guide to " + bookName);
+
+        assertThat(studentSearchService.search(lastName, 10)).containsExactly(student);
+        assertThat(studentSearchService.search(lastName.substring(0, 6), 10)).containsExactly(student);
+        assertThat(studentSearchService.search(typo(lastName), 10)).containsExactly(student);
+        assertThat(studentSearchService.searchIds("searched " + bookName.substring(0, 5), 10)).containsExactly(student.id());
+
+        studentService.removeBookFromStudent(student.id(), book.id());
+        assertThat(studentSearchService.searchIds(bookName, 10)).isEmpty();
+
+        studentService.deleteStudent(student.id());
+        assertThat(studentSearchService.searchIds(lastName, 10)).isEmpty();
+    }
+
+    @Test
+    void bulkDeletedStudentsAreRemoved() {
+        String firstName = randomWord();
+        studentService.createStudent(new StudentRequest(firstName, "Bulk", firstName + "@search.test", 30));
+        assertThat(studentSearchService.searchIds(firstName, 10)).hasSize(1);
+
+        studentRepository.deleteStudentsByFirstName(firstName);
+
+        assertThat(studentSearchService.searchIds(firstName, 10)).isEmpty();
+    }
+
+    // letters only, the digits of a uuid would be words of their own
+    private static String randomWord() {
+        Random random = new Random();
+        StringBuilder word = new StringBuilder("Zz");
+        for (int i = 0; i < 10; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    private static String typo(String word) {
+        return word.substring(0, word.length() - 1) + (word.charAt(word.length() - 1) == 'a' ? 'b' : 'a');
+    }
+}
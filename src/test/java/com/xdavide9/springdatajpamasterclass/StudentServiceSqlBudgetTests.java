@@ -0,0 +1,125 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.xdavide9.springdatajpamasterclass.SqlStatementCounter.assertStatementBudget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// every fetch of StudentService has to stay within its statement budget no matter how many enrolments there are
+// StudentService logs what it loads at debug, turned on so that everything it would print is part of the budget
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.xdavide9.springdatajpamasterclass.SqlStatementCounter",
+        "logging.level.com.xdavide9.springdatajpamasterclass.StudentService=debug"
+})
+class StudentServiceSqlBudgetTests {
+
+    private static final int COURSES = 5;
+
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private CourseRepository courseRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final List<Long> studentIds = new ArrayList<>();
+    private Long courseId;
+
+    @BeforeEach
+    void createStudentsEnrolledInCourses() {
+        String run = UUID.randomUUID().toString();
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Course> courses = new ArrayList<>();
+            for (int i = 0; i < COURSES; i++) {
+                courses.add(courseRepository.save(Course.builder()
+                        .name("Course " + i + " " + run)
+                        .department("Budget")
+                        .build()));
+            }
+            for (int i = 0; i < 3; i++) {
+                Student student = Student.builder()
+                        .firstName("Budget")
+                        .lastName("Student" + i)
+                        .email(run + "-" + i + "@budget.test")
+                        .age(20)
+                        .build();
+                student.setStudentIdCard(StudentIdCard.builder()
+                        .cardNumber(run.substring(0, 8) + i)
+                        .student(student)
+                        .build());
+                for (int b = 0; b < 3; b++) {
+                    student.addBook(Book.builder().bookName("Book " + b).createdAt(LocalDateTime.now()).build());
+                }
+                for (Course course : courses) {
+                    Enrolment enrolment = Enrolment.builder()
+                            .id(new EnrolmentId())
+                            .student(student)
+                            .course(course)
+                            .createdAt(LocalDateTime.now())
+                            .build();
+                    student.addEnrolment(enrolment);
+                    course.addEnrolment(enrolment);
+                }
+                studentIds.add(studentRepository.save(student).getId());
+            }
+            courseId = courses.get(0).getId();
+        });
+    }
+
+    @Test
+    void fetchStudentEnrolmentsRunsASingleStatement() {
+        assertStatementBudget(1, () -> studentService.fetchStudentEnrolments(studentIds.get(0)));
+    }
+
+    @Test
+    void fetchStudentsEnrolmentsRunsASingleStatementForManyStudents() {
+        assertStatementBudget(1, () -> studentService.fetchStudentsEnrolments(studentIds));
+    }
+
+    @Test
+    void fetchStudentBooksRunsASingleStatement() {
+        assertStatementBudget(1, () -> studentService.fetchStudentBooks(studentIds.get(0)));
+    }
+
+    @Test
+    void fetchCourseRosterRunsASingleStatement() {
+        assertStatementBudget(1, () -> studentService.fetchCourseRoster(courseId));
+    }
+
+    // the targeted commands don't load the student or its collections
+    @Test
+    void removeBookFromStudentRunsASingleStatement() {
+        assertStatementBudget(1, () -> studentService.removeBookFromStudent(studentIds.get(0), "Book 1"));
+    }
+
+    // the creation date of the enrolment is read before the delete for EnrolmentStatistics
+    // (its counters are written with plain jdbc at commit, they are not seen by the inspector)
+    @Test
+    void unenrolStudentRunsTwoStatements() {
+        assertStatementBudget(2, () -> studentService.unenrolStudent(studentIds.get(0), courseId));
+    }
+
+    @Test
+    void aStudentLoadedBeforeTheDeleteIsLoadedAgainWithoutTheBook() {
+        Long studentId = studentIds.get(1);
+        List<String> books = transactionTemplate.execute(status -> {
+            assertThat(studentRepository.findWithBooksById(studentId).orElseThrow().getBooks()).hasSize(3);
+            studentService.removeBookFromStudent(studentId, "Book 1");
+            return studentRepository.findWithBooksById(studentId).orElseThrow().getBooks().stream()
+                    .map(Book::getBookName)
+                    .toList();
+        });
+        assertThat(books).containsExactly("Book 0", "Book 2");
+    }
+}
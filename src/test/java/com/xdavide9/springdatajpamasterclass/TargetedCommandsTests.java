@@ -0,0 +1,74 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the book deletes and the course updates in the transaction of a caller that holds entities: only the ones they changed
+// leave the persistence context (or are read again), the others stay managed and can still be changed and flushed
+@SpringBootTest
+class TargetedCommandsTests {
+
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Test
+    void entitiesHeldByTheCallerStayManaged() {
+        Long readerId = student();
+        studentService.addBookToStudent(readerId, "Dune");
+        studentService.addBookToStudent(readerId, "Dune");
+        studentService.addBookToStudent(readerId, "Emma");
+        Long otherId = student();
+        Long otherBookId = studentService.addBookToStudent(otherId, "Dune").id();
+        Long courseId = courseService.createCourse(new CourseRequest("Held", "Targeted " + UUID.randomUUID())).id();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Student reader = entityManager.find(Student.class, readerId);
+            reader.getBooks().size();
+            Student other = entityManager.find(Student.class, otherId);     // its books aren't loaded, the DELETE runs
+            Book otherBook = entityManager.find(Book.class, otherBookId);
+            Course course = entityManager.find(Course.class, courseId);
+
+            studentService.removeBookFromStudent(readerId, "Dune");
+            studentService.removeBookFromStudent(otherId, otherBookId);
+            courseService.renameCourse(courseId, "Renamed");
+            courseService.setCapacity(courseId, 5);
+
+            assertThat(entityManager.contains(reader)).isTrue();
+            assertThat(reader.getBooks()).extracting(Book::getBookName).containsExactly("Emma");
+            assertThat(entityManager.contains(other)).isTrue();
+            assertThat(entityManager.contains(otherBook)).isFalse();
+            assertThat(entityManager.contains(course)).isTrue();
+            assertThat(course.getName()).isEqualTo("Renamed");
+            assertThat(course.getCapacity()).isEqualTo(5);
+
+            reader.setAge(30);
+            other.setAge(31);
+        });
+
+        assertThat(jdbcTemplate.queryForList("SELECT book_name FROM book WHERE student_id IN (?, ?)", String.class, readerId, otherId))
+                .containsExactly("Emma");
+        assertThat(jdbcTemplate.queryForList("SELECT age FROM student WHERE id IN (?, ?) ORDER BY id", Integer.class, readerId, otherId))
+                .containsExactly(30, 31);
+    }
+
+    private Long student() {
+        return studentService.createStudent(new StudentRequest("Held", "Student", UUID.randomUUID() + "@targeted.test", 20)).id();
+    }
+}
@@ -0,0 +1,149 @@
+package com.xdavide9.springdatajpamasterclass;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// the old enrolments are written with plain sql, the application only makes enrolments of today
+// every test uses months of its own, the partitions stay for the whole class
+@SpringBootTest
+class TimePartitionsTests {
+
+    @Autowired
+    private TimePartitions timePartitions;
+    @Autowired
+    private StudentService studentService;
+    @Autowired
+    private CourseService courseService;
+    @Autowired
+    private EnrolmentStatistics enrolmentStatistics;
+    @Autowired
+    private EnrolmentStatisticsService enrolmentStatisticsService;
+    @Autowired
+    private CoEnrolmentGraph coEnrolmentGraph;
+    @Autowired
+    private CoEnrolmentGraphUpdater coEnrolmentGraphUpdater;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private CourseRepository courseRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void partitionsAreCreatedAheadAtStartup() {
+        YearMonth now = YearMonth.now();
+        assertThat(timePartitions.partitions("enrolment")).contains("enrolment_default",
+                "enrolment_" + now.toString().replace('-', '_'),
+                "enrolment_" + now.plusMonths(3).toString().replace('-', '_'));
+        assertThat(timePartitions.partitions("book")).contains("book_default", "book_" + now.plusMonths(3).toString().replace('-', '_'));
+        assertThat(timePartitions.createPartitions(now)).isZero();
+    }
+
+    @Test
+    void rowsOfAMonthWithoutPartitionAreMovedOutOfTheDefaultOne() {
+        Long studentId = student();
+        Long courseId = course();
+        enrol(studentId, courseId, LocalDateTime.of(2020, 3, 15, 10, 0));
+        assertThat(count("enrolment_default", studentId)).isEqualTo(1);
+
+        assertThat(timePartitions.createPartitions(YearMonth.now())).isEqualTo(1);
+
+        assertThat(count("enrolment_default", studentId)).isZero();
+        assertThat(count("enrolment_2020_03", studentId)).isEqualTo(1);
+        assertThat(studentService.getStudentEnrolments(studentId)).hasSize(1);
+    }
+
+    @Test
+    void queriesBoundedOnCreatedAtOnlyReadThePartitionsOfTheirMonths() {
+        Long studentId = student();
+        enrol(studentId, course(), LocalDateTime.of(2021, 5, 2, 9, 0));
+        enrol(studentId, course(), LocalDateTime.of(2021, 6, 30, 23, 59));
+        timePartitions.createPartitions(YearMonth.now());
+
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN SELECT * FROM enrolment WHERE student_id = " + studentId +
+                " AND created_at >= '2021-05-01' AND created_at < '2021-06-01'", String.class));
+        assertThat(plan).contains("enrolment_2021_05").doesNotContain("enrolment_2021_06", "enrolment_default");
+
+        assertThat(studentService.getStudentEnrolments(studentId, LocalDate.of(2021, 6, 1), LocalDate.of(2021, 6, 30))).hasSize(1);
+        assertThat(studentService.getStudentEnrolments(studentId, LocalDate.of(2021, 5, 1), LocalDate.of(2021, 6, 30))).hasSize(2);
+        assertThatThrownBy(() -> studentService.getStudentEnrolments(studentId, LocalDate.of(2021, 6, 1), null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void detachedPartitionsLeaveTheTableAndWhatIsKeptOfIt() throws InterruptedException {
+        Long studentId = student();
+        Long courseId = course();
+        enrol(studentId, courseId, LocalDateTime.of(2019, 1, 10, 8, 0));
+        timePartitions.createPartitions(YearMonth.now());
+        enrolmentStatistics.reconcile();
+        assertThat(coEnrolmentGraphUpdater.awaitLoad(Duration.ofSeconds(30))).isTrue();
+        coEnrolmentGraphUpdater.load();
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isEqualTo(1);
+        assertThat(coEnrolmentGraph.coursesOf(studentId)).containsExactly(courseId);
+        assertThat(cachedEnrolments(courseId)).isEqualTo(1);
+        assertThat(entityManagerFactory.getCache().contains(Enrolment.class, new EnrolmentId(studentId, courseId))).isTrue();
+        long events = jdbcTemplate.queryForObject("SELECT count(*) FROM outbox_event WHERE student_id = ?", Long.class, studentId);
+
+        assertThat(timePartitions.detachPartitionsBefore(YearMonth.of(2019, 2))).containsExactly("enrolment_2019_01");
+
+        assertThat(studentService.getStudentEnrolments(studentId)).isEmpty();
+        assertThat(enrolmentStatisticsService.countByCourse(courseId)).isZero();
+        assertThat(coEnrolmentGraph.coursesOf(studentId)).isEmpty();
+        assertThat(timePartitions.partitions("enrolment")).doesNotContain("enrolment_2019_01");
+        assertThat(count("enrolment_2019_01", studentId)).isEqualTo(1);     // a table of its own
+        assertThat(entityManagerFactory.getCache().contains(Enrolment.class, new EnrolmentId(studentId, courseId))).isFalse();
+        assertThat(cachedEnrolments(courseId)).isZero();
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM outbox_event WHERE student_id = ?", Long.class, studentId))
+                .isEqualTo(events);     // archived, not unenrolled
+    }
+
+    // Course.enrolments through the second level cache (course and course-enrolments regions) once it's there
+    private int cachedEnrolments(Long courseId) {
+        return transactionTemplate.execute(status -> courseRepository.findById(courseId).orElseThrow().getEnrolments().size());
+    }
+
+    // what the primary key on (course_id, student_id) did before the partitioning, see the enrolment_1_unique_key trigger
+    @Test
+    void aStudentIsEnrolledInACourseOnce() {
+        Long studentId = student();
+        Long courseId = course();
+        studentService.enrolStudent(studentId, courseId);
+
+        assertThatThrownBy(() -> enrol(studentId, courseId, LocalDateTime.of(2022, 1, 1, 0, 0)))
+                .isInstanceOf(DuplicateKeyException.class);
+        assertThat(studentService.enrolStudent(studentId, courseId).courseId()).isEqualTo(courseId);   // the service knows it already
+    }
+
+    private void enrol(Long studentId, Long courseId, LocalDateTime createdAt) {
+        jdbcTemplate.update("INSERT INTO enrolment (student_id, course_id, created_at) VALUES (?, ?, ?)", studentId, courseId, createdAt);
+    }
+
+    private long count(String table, Long studentId) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM " + table + " WHERE student_id = ?", Long.class, studentId);
+    }
+
+    private Long student() {
+        return studentService.createStudent(new StudentRequest("Partitioned", "Student", UUID.randomUUID() + "@partitions.test", 20)).id();
+    }
+
+    private Long course() {
+        return courseService.createCourse(new CourseRequest("History", "Partitions " + UUID.randomUUID())).id();
+    }
+}